@@ -0,0 +1,336 @@
+package com.example.camerapromax.fake;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.camerapromax.gallery.MediaFilter;
+import com.example.camerapromax.gallery.MediaRepository;
+import com.example.camerapromax.metrics.MetricsLog;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Синтетическая коллекция {@code MediaStore.Files} для нагрузочных тестов галереи.
+ * <p>
+ * Строки генерируются в SQLite в памяти с теми же колонками, что и у MediaStore, поэтому selection
+ * из {@link MediaFilter} и сортировка {@link MediaRepository} выполняются как на устройстве.
+ * Количество строк, доля видео и папок приложения, даты и задержка каждого запроса задаются
+ * методом {@link #METHOD_SEED}: из кода через {@link #seed(ContentResolver, Bundle)}, с устройства —
+ * {@code adb shell content call --uri content://com.example.camerapromax.fakemedia --method seed
+ * --extra rows:i:100000 --extra latency_ms:l:20}. Генерация детерминирована: одинаковые параметры
+ * дают одинаковые строки. Пересоздание, вставка, изменение и удаление уведомляют наблюдателей коллекции.
+ * <p>
+ * Провайдер есть только в сборке benchmark и при создании направляет {@link MediaRepository} на себя;
+ * метаданные его строк кэшируются в отдельной базе и не смешиваются с метаданными настоящего MediaStore.
+ * Все файлы отдают одну и ту же маленькую JPEG-картинку, чтобы миниатюры декодировались.
+ */
+public class FakeMediaStoreProvider extends ContentProvider {
+
+    private static final String TAG = "FakeMediaStoreProvider";
+
+    /** Authority провайдера. */
+    public static final String AUTHORITY = "com.example.camerapromax.fakemedia";
+    /** Коллекция файлов — аналог {@code MediaStore.Files.getContentUri("external")}. */
+    public static final Uri COLLECTION = Uri.parse("content://" + AUTHORITY + "/files");
+
+    /** Метод {@link ContentResolver#call}: пересоздает коллекцию с параметрами из extras. */
+    public static final String METHOD_SEED = "seed";
+    /** Количество строк, int. */
+    public static final String EXTRA_ROWS = "rows";
+    /** Доля видео в процентах, int. */
+    public static final String EXTRA_VIDEO_PERCENT = "video_percent";
+    /** Доля файлов в папках приложения в процентах, int. */
+    public static final String EXTRA_APP_FOLDER_PERCENT = "app_folder_percent";
+    /** Время самого нового файла в секундах Unix-времени, long. */
+    public static final String EXTRA_NEWEST_SECONDS = "newest_seconds";
+    /** Интервал между соседними файлами в секундах, long. */
+    public static final String EXTRA_SPACING_SECONDS = "spacing_seconds";
+    /** Задержка каждого запроса в миллисекундах, long. */
+    public static final String EXTRA_LATENCY_MS = "latency_ms";
+    /** Зерно генератора, long. */
+    public static final String EXTRA_SEED = "seed";
+
+    private static final int DEFAULT_ROWS = 50_000;
+    private static final int DEFAULT_VIDEO_PERCENT = 10;
+    private static final int DEFAULT_APP_FOLDER_PERCENT = 20;
+    // 2024-01-01 00:00:00 UTC: фиксированная дата, чтобы фильтры по датам давали одинаковый результат
+    private static final long DEFAULT_NEWEST_SECONDS = 1_704_067_200L;
+    private static final long DEFAULT_SPACING_SECONDS = 600;
+
+    private static final String TABLE = "files";
+    private static final String[] OTHER_FOLDERS = {"DCIM/Camera/", "Pictures/Screenshots/", "Download/"};
+
+    private SQLiteDatabase database;
+    private boolean seeded;
+    private volatile long latencyMs;
+    private byte[] placeholderJpeg;
+
+    /**
+     * Пересоздает коллекцию. Блокирует поток на время генерации.
+     *
+     * @param contentResolver ContentResolver.
+     * @param extras          Параметры {@code EXTRA_*}; отсутствующие берутся по умолчанию.
+     */
+    public static void seed(@NonNull ContentResolver contentResolver, @NonNull Bundle extras) {
+        contentResolver.call(COLLECTION, METHOD_SEED, null, extras);
+    }
+
+    @Override
+    public boolean onCreate() {
+        database = SQLiteDatabase.create(null);
+        database.execSQL("CREATE TABLE " + TABLE + " ("
+                + MediaStore.Files.FileColumns._ID + " INTEGER PRIMARY KEY, "
+                + MediaStore.Files.FileColumns.DISPLAY_NAME + " TEXT, "
+                + MediaStore.Files.FileColumns.MIME_TYPE + " TEXT, "
+                + MediaStore.Files.FileColumns.MEDIA_TYPE + " INTEGER, "
+                + MediaStore.Files.FileColumns.DATE_ADDED + " INTEGER, "
+                + MediaStore.Files.FileColumns.DATE_MODIFIED + " INTEGER, "
+                + MediaStore.Files.FileColumns.SIZE + " INTEGER, "
+                + MediaStore.MediaColumns.RELATIVE_PATH + " TEXT, "
+                + MediaStore.MediaColumns.DATA + " TEXT)");
+        // как в MediaStore: сортировка галереи идет по индексу, а не полным перебором
+        database.execSQL("CREATE INDEX date_added_index ON " + TABLE + " ("
+                + MediaStore.Files.FileColumns.DATE_ADDED + ")");
+        MediaRepository.setCollection(COLLECTION);
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (!METHOD_SEED.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        regenerate(extras != null ? extras : Bundle.EMPTY);
+        return null;
+    }
+
+    /**
+     * Запрос со страницами, как его выполняет {@link MediaRepository} на Android 11+.
+     * Реализация по умолчанию отбрасывает LIMIT и OFFSET, поэтому они обрабатываются здесь.
+     */
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable Bundle queryArgs,
+                        @Nullable CancellationSignal cancellationSignal) {
+        Bundle args = queryArgs != null ? queryArgs : Bundle.EMPTY;
+        String limit = null;
+        if (args.containsKey(ContentResolver.QUERY_ARG_LIMIT)) {
+            // SQLiteDatabase принимает LIMIT только в форме "offset,limit"
+            limit = args.getInt(ContentResolver.QUERY_ARG_OFFSET, 0) + ","
+                    + args.getInt(ContentResolver.QUERY_ARG_LIMIT);
+        }
+        return doQuery(uri, projection, args.getString(ContentResolver.QUERY_ARG_SQL_SELECTION),
+                args.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS),
+                args.getString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER), limit);
+    }
+
+    /**
+     * Запрос до Android 11: LIMIT и OFFSET приходят в конце sortOrder и попадают в SQL как есть.
+     */
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return doQuery(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        if (!isItem(uri)) {
+            return null;
+        }
+        try (Cursor cursor = database.query(TABLE, new String[]{MediaStore.Files.FileColumns.MIME_TYPE},
+                MediaStore.Files.FileColumns._ID + "=?", new String[]{uri.getLastPathSegment()},
+                null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    /**
+     * Добавляет строку, как будто снят новый файл.
+     */
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        ensureSeeded();
+        long id = database.insert(TABLE, null, values != null ? values : new ContentValues());
+        if (id < 0) {
+            return null;
+        }
+        notifyChange();
+        return ContentUris.withAppendedId(COLLECTION, id);
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        ensureSeeded();
+        int deleted = isItem(uri)
+                ? database.delete(TABLE, MediaStore.Files.FileColumns._ID + "=?", new String[]{uri.getLastPathSegment()})
+                : database.delete(TABLE, selection, selectionArgs);
+        if (deleted > 0) {
+            notifyChange();
+        }
+        return deleted;
+    }
+
+    /**
+     * Меняет строки, например переименовывает файл или сдвигает его дату. Колонки — те же, что у коллекции.
+     */
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        ensureSeeded();
+        if (values == null || values.size() == 0) {
+            return 0;
+        }
+        int updated = isItem(uri)
+                ? database.update(TABLE, values, MediaStore.Files.FileColumns._ID + "=?", new String[]{uri.getLastPathSegment()})
+                : database.update(TABLE, values, selection, selectionArgs);
+        if (updated > 0) {
+            notifyChange();
+        }
+        return updated;
+    }
+
+    /**
+     * Отдает одну и ту же маленькую картинку для любого файла коллекции.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!isItem(uri) || !"r".equals(mode)) {
+            throw new FileNotFoundException("Read-only item expected: " + uri);
+        }
+        return openPipeHelper(uri, "image/jpeg", null, placeholderJpeg(), (output, pipeUri, mimeType, opts, bytes) -> {
+            try (FileOutputStream out = new FileOutputStream(output.getFileDescriptor())) {
+                out.write(bytes);
+            } catch (IOException e) {
+                // получатель закрыл свой конец pipe раньше времени
+                Log.w(TAG, "Cannot write " + pipeUri, e);
+            }
+        });
+    }
+
+    private Cursor doQuery(Uri uri, @Nullable String[] projection, @Nullable String selection,
+                           @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable String limit) {
+        ensureSeeded();
+        long delay = latencyMs;
+        if (delay > 0) {
+            try {
+                // настоящий sleep, а не SystemClock: в Robolectric часы SystemClock виртуальные
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (isItem(uri)) {
+            String idSelection = MediaStore.Files.FileColumns._ID + "=" + ContentUris.parseId(uri);
+            selection = selection == null ? idSelection : "(" + selection + ") AND " + idSelection;
+        }
+        Cursor cursor = database.query(TABLE, projection, selection, selectionArgs, null, null, sortOrder, limit);
+        cursor.setNotificationUri(getContext().getContentResolver(), COLLECTION);
+        return cursor;
+    }
+
+    private synchronized void ensureSeeded() {
+        if (!seeded) {
+            regenerate(Bundle.EMPTY);
+        }
+    }
+
+    /**
+     * Заменяет все строки новыми синтетическими. Идентификаторы идут от новых файлов к старым,
+     * как при съемке по порядку.
+     */
+    private synchronized void regenerate(Bundle extras) {
+        int rows = extras.getInt(EXTRA_ROWS, DEFAULT_ROWS);
+        int videoPercent = extras.getInt(EXTRA_VIDEO_PERCENT, DEFAULT_VIDEO_PERCENT);
+        int appFolderPercent = extras.getInt(EXTRA_APP_FOLDER_PERCENT, DEFAULT_APP_FOLDER_PERCENT);
+        long newestSeconds = extras.getLong(EXTRA_NEWEST_SECONDS, DEFAULT_NEWEST_SECONDS);
+        long spacingSeconds = extras.getLong(EXTRA_SPACING_SECONDS, DEFAULT_SPACING_SECONDS);
+        Random random = new Random(extras.getLong(EXTRA_SEED, 42));
+        latencyMs = extras.getLong(EXTRA_LATENCY_MS, 0);
+
+        long startMs = SystemClock.elapsedRealtime();
+        database.beginTransaction();
+        try {
+            database.delete(TABLE, null, null);
+            SQLiteStatement insert = database.compileStatement("INSERT INTO " + TABLE + " VALUES (?,?,?,?,?,?,?,?,?)");
+            for (int i = 0; i < rows; i++) {
+                boolean video = random.nextInt(100) < videoPercent;
+                String folder;
+                if (random.nextInt(100) < appFolderPercent) {
+                    folder = (video ? MediaFilter.APP_VIDEO_DIR : MediaFilter.APP_IMAGE_DIR) + "/";
+                } else {
+                    folder = OTHER_FOLDERS[random.nextInt(OTHER_FOLDERS.length)];
+                }
+                String name = String.format(Locale.US, video ? "VID_%07d.mp4" : "IMG_%07d.jpg", rows - i);
+                long date = newestSeconds - i * spacingSeconds;
+
+                insert.clearBindings();
+                insert.bindLong(1, rows - i);
+                insert.bindString(2, name);
+                insert.bindString(3, video ? "video/mp4" : "image/jpeg");
+                insert.bindLong(4, video ? MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO
+                        : MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE);
+                insert.bindLong(5, date);
+                insert.bindLong(6, date);
+                insert.bindLong(7, video ? 20_000_000L + random.nextInt(80_000_000) : 2_000_000L + random.nextInt(4_000_000));
+                insert.bindString(8, folder);
+                insert.bindString(9, "/storage/emulated/0/" + folder + name);
+                insert.executeInsert();
+            }
+            insert.close();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        seeded = true;
+        MetricsLog.record("fake_media_seed", String.format(Locale.US, "rows=%d video_pct=%d latency_ms=%d elapsed_ms=%d",
+                rows, videoPercent, latencyMs, SystemClock.elapsedRealtime() - startMs));
+        notifyChange();
+    }
+
+    private synchronized byte[] placeholderJpeg() {
+        if (placeholderJpeg == null) {
+            Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.GRAY);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 80, out);
+            bitmap.recycle();
+            placeholderJpeg = out.toByteArray();
+        }
+        return placeholderJpeg;
+    }
+
+    private void notifyChange() {
+        getContext().getContentResolver().notifyChange(COLLECTION, null);
+    }
+
+    private static boolean isItem(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.camerapromax;
+
+import android.app.Application;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.camera.camera2.Camera2Config;
+import androidx.camera.core.CameraInfo;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.CameraXConfig;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import com.example.camerapromax.metrics.StartupTimer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Приложение.
+ * <p>
+ * Инициализация CameraX (подключение к CameraService и чтение характеристик камер) занимает
+ * сотни миллисекунд, поэтому она запускается здесь, параллельно с созданием активности и разметки.
+ * Когда {@code PhotoFragment} запрашивает {@link ProcessCameraProvider}, инициализация уже идет
+ * или закончена.
+ */
+public class CameraApplication extends Application implements CameraXConfig.Provider {
+
+    private static final String TAG = "CameraApplication";
+
+    /**
+     * Вызывается при запуске процесса до создания любой активности.
+     * Отмечает время старта и начинает инициализацию CameraX в фоне.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        StartupTimer.markApplicationCreated();
+        // результат не нужен: фрагменты получат тот же экземпляр из ProcessCameraProvider.getInstance
+        ProcessCameraProvider.getInstance(this);
+    }
+
+    /**
+     * Возвращает конфигурацию CameraX.
+     * Приложение переключается только между основной задней и основной фронтальной камерой, поэтому
+     * CameraX создает экземпляры камер только для них. Характеристики остальных модулей
+     * (широкоугольный, телефото, логические камеры) все равно читаются: фильтру нужен {@link CameraInfo}
+     * каждой камеры, а сокращать перебор CameraX умеет только для селектора с одним направлением
+     * и без собственных фильтров.
+     * Экономия в том, что для отброшенных камер не создаются объекты камер и они не участвуют
+     * в проверке и выборе камер при старте.
+     *
+     * @return Конфигурация CameraX.
+     */
+    @NonNull
+    @Override
+    public CameraXConfig getCameraXConfig() {
+        CameraSelector mainCameras = new CameraSelector.Builder()
+                .addCameraFilter(CameraApplication::firstPerLensFacing)
+                .build();
+        return CameraXConfig.Builder.fromConfig(Camera2Config.defaultConfig())
+                .setAvailableCamerasLimiter(mainCameras)
+                .setMinimumLoggingLevel(Log.WARN)
+                .build();
+    }
+
+    /**
+     * Оставляет первую камеру каждого направления. Камеры перечисляются в порядке идентификаторов,
+     * и основная камера направления всегда идет первой.
+     *
+     * @param cameraInfos Все камеры устройства.
+     * @return Не больше одной камеры на каждое направление.
+     */
+    private static List<CameraInfo> firstPerLensFacing(@NonNull List<CameraInfo> cameraInfos) {
+        List<CameraInfo> result = new ArrayList<>();
+        boolean back = false;
+        boolean front = false;
+        for (CameraInfo info : cameraInfos) {
+            int lensFacing = info.getLensFacing();
+            if (lensFacing == CameraSelector.LENS_FACING_BACK && !back) {
+                back = true;
+                result.add(info);
+            } else if (lensFacing == CameraSelector.LENS_FACING_FRONT && !front) {
+                front = true;
+                result.add(info);
+            }
+        }
+        if (result.isEmpty()) {
+            // внешние USB-камеры и устройства без стандартных камер — без ограничения
+            Log.w(TAG, "No back or front camera, keeping all " + cameraInfos.size());
+            return cameraInfos;
+        }
+        return result;
+    }
+}
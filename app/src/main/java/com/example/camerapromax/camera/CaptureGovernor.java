@@ -0,0 +1,404 @@
+package com.example.camerapromax.camera;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.camera2.CaptureRequest;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Range;
+import android.util.Size;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.OptIn;
+import androidx.annotation.RequiresApi;
+import androidx.camera.camera2.interop.Camera2CameraControl;
+import androidx.camera.camera2.interop.CaptureRequestOptions;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.Camera;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
+import androidx.camera.core.resolutionselector.ResolutionStrategy;
+import androidx.camera.video.Quality;
+import androidx.core.content.ContextCompat;
+import com.example.camerapromax.metrics.MetricsLog;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Снижает нагрузку камеры по температуре и состоянию батареи раньше, чем это сделает система.
+ * <p>
+ * Уровень выбирается по худшему из сигналов: тепловой статус ({@link PowerManager#getCurrentThermalStatus()},
+ * Android 10+), прогноз теплового запаса на 10 секунд ({@link PowerManager#getThermalHeadroom(int)},
+ * Android 11+; 1.0 — начало сильного троттлинга), температура и заряд батареи, режим энергосбережения.
+ * Прогноз позволяет уйти на ступень ниже до того, как статус станет {@code SEVERE} и система сама
+ * начнет снижать частоты и терять кадры.
+ * <p>
+ * Вниз по лестнице governor спускается сразу, а вверх поднимается по одной ступени и только после
+ * {@link #RECOVERY_MS} мс спокойных показаний, чтобы качество не скакало на границе порога.
+ * Каждый переход пишется в поток метрик как {@code capture_governor} вместе с показаниями,
+ * поэтому падения пропускной способности можно сопоставить с тепловым состоянием.
+ * <p>
+ * Все методы и вызовы {@link Listener} — в главном потоке.
+ */
+final class CaptureGovernor {
+
+    /**
+     * Ступень лестницы качества.
+     */
+    static final class Step {
+
+        private final int level;
+        private final Quality videoQuality;
+        @Nullable
+        private final Integer frameRate;
+        @Nullable
+        private final Size previewSize;
+        private final boolean highSpeedAllowed;
+
+        Step(int level, @NonNull Quality videoQuality, @Nullable Integer frameRate, @Nullable Size previewSize,
+             boolean highSpeedAllowed) {
+            this.level = level;
+            this.videoQuality = videoQuality;
+            this.frameRate = frameRate;
+            this.previewSize = previewSize;
+            this.highSpeedAllowed = highSpeedAllowed;
+        }
+
+        /**
+         * Получает номер ступени.
+         *
+         * @return 0 — полное качество, чем больше, тем сильнее ограничения.
+         */
+        int getLevel() {
+            return level;
+        }
+
+        /**
+         * Получает наибольшее качество записи.
+         *
+         * @return Качество для {@code QualitySelector}.
+         */
+        @NonNull
+        Quality getVideoQuality() {
+            return videoQuality;
+        }
+
+        /**
+         * Получает наибольшую частоту кадров камеры.
+         *
+         * @return Кадров в секунду или {@code null}, если частоту выбирает сама камера.
+         */
+        @Nullable
+        Integer getFrameRate() {
+            return frameRate;
+        }
+
+        /**
+         * Получает наибольший размер предпросмотра в координатах сенсора.
+         *
+         * @return Размер или {@code null}, если ограничения нет.
+         */
+        @Nullable
+        Size getPreviewSize() {
+            return previewSize;
+        }
+
+        /**
+         * Проверяет, разрешена ли замедленная съемка.
+         *
+         * @return {@code true}, если high-speed сессию можно открывать.
+         */
+        boolean isHighSpeedAllowed() {
+            return highSpeedAllowed;
+        }
+    }
+
+    /**
+     * Получатель смены ступени.
+     */
+    interface Listener {
+
+        /**
+         * Вызывается после перехода на другую ступень.
+         *
+         * @param step Новая ступень.
+         */
+        void onStepChanged(@NonNull Step step);
+    }
+
+    private static final Step[] LADDER = {
+            // на полном качестве диапазон автоэкспозиции не трогается: CameraX выбирает его сама
+            new Step(0, Quality.HIGHEST, null, null, true),
+            new Step(1, Quality.FHD, 30, new Size(1920, 1080), true),
+            new Step(2, Quality.HD, 24, new Size(1280, 720), false),
+            new Step(3, Quality.SD, 15, new Size(640, 480), false),
+    };
+
+    private static final long POLL_MS = 10_000;
+    private static final long RECOVERY_MS = 30_000;
+    private static final int HEADROOM_FORECAST_SECONDS = 10;
+
+    private static CaptureGovernor instance;
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Runnable poll = this::poll;
+
+    private int level;
+    private long calmSince;
+    private int thermalStatus;
+    private float headroom = Float.NaN;
+    private int batteryPercent = 100;
+    private float batteryTemperature;
+    private boolean charging = true;
+    @Nullable
+    private Object thermalListener;
+
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+                readBattery(intent);
+            }
+            evaluate(intent.getAction());
+        }
+    };
+
+    /**
+     * Возвращает общий для процесса экземпляр.
+     *
+     * @param context Любой контекст; сохраняется только контекст приложения.
+     * @return Экземпляр governor'а.
+     */
+    static synchronized CaptureGovernor getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new CaptureGovernor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CaptureGovernor(Context context) {
+        this.context = context;
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    }
+
+    /**
+     * Получает текущую ступень.
+     *
+     * @return Ступень лестницы качества.
+     */
+    @NonNull
+    Step getStep() {
+        return LADDER[level];
+    }
+
+    /**
+     * Подписывает получателя. Первый подписчик включает отслеживание температуры и батареи.
+     *
+     * @param listener Получатель.
+     */
+    void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+        if (listeners.size() == 1) {
+            start();
+        }
+    }
+
+    /**
+     * Отписывает получателя. Без подписчиков отслеживание выключается.
+     *
+     * @param listener Получатель.
+     */
+    void removeListener(@NonNull Listener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            stop();
+        }
+    }
+
+    /**
+     * Ограничивает частоту кадров уже привязанной камеры, не перепривязывая use case'ы.
+     * Так частота снижается и посреди записи, когда менять разрешение уже нельзя.
+     * На ступени без ограничения снимает ранее заданный диапазон.
+     *
+     * @param camera Привязанная камера.
+     * @param step   Ступень.
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    static void applyFrameRate(@NonNull Camera camera, @NonNull Step step) {
+        Integer frameRate = step.getFrameRate();
+        Camera2CameraControl control = Camera2CameraControl.from(camera.getCameraControl());
+        if (frameRate == null) {
+            control.clearCaptureRequestOptions();
+            return;
+        }
+        // нижняя граница ниже верхней, чтобы автоэкспозиция могла удлинить выдержку в темноте
+        Range<Integer> range = new Range<>(Math.min(15, frameRate), frameRate);
+        control.setCaptureRequestOptions(
+                new CaptureRequestOptions.Builder()
+                        .setCaptureRequestOption(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range)
+                        .build());
+    }
+
+    /**
+     * Создает селектор разрешения предпросмотра для ступени.
+     *
+     * @param step Ступень.
+     * @return Селектор или {@code null}, если ограничения нет.
+     */
+    @Nullable
+    static ResolutionSelector previewResolutionSelector(@NonNull Step step) {
+        Size size = step.getPreviewSize();
+        if (size == null) {
+            return null;
+        }
+        return new ResolutionSelector.Builder()
+                .setResolutionStrategy(new ResolutionStrategy(size,
+                        ResolutionStrategy.FALLBACK_RULE_CLOSEST_LOWER_THEN_HIGHER))
+                .build();
+    }
+
+    private void start() {
+        Intent sticky = ContextCompat.registerReceiver(context, batteryReceiver, createBatteryFilter(),
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+        if (sticky != null) {
+            readBattery(sticky);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            addThermalListener();
+        }
+        calmSince = 0;
+        evaluate("start");
+        handler.postDelayed(poll, POLL_MS);
+    }
+
+    private void stop() {
+        context.unregisterReceiver(batteryReceiver);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            removeThermalListener();
+        }
+        handler.removeCallbacks(poll);
+    }
+
+    private static IntentFilter createBatteryFilter() {
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        return filter;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private void addThermalListener() {
+        PowerManager.OnThermalStatusChangedListener listener = status -> {
+            thermalStatus = status;
+            evaluate("thermal_status");
+        };
+        thermalStatus = powerManager.getCurrentThermalStatus();
+        powerManager.addThermalStatusListener(ContextCompat.getMainExecutor(context), listener);
+        thermalListener = listener;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private void removeThermalListener() {
+        if (thermalListener != null) {
+            powerManager.removeThermalStatusListener((PowerManager.OnThermalStatusChangedListener) thermalListener);
+            thermalListener = null;
+        }
+    }
+
+    private void readBattery(@NonNull Intent intent) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) {
+            batteryPercent = level * 100 / scale;
+        }
+        // температура батареи передается в десятых долях градуса
+        batteryTemperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10f;
+        charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    private void poll() {
+        evaluate("poll");
+        handler.postDelayed(poll, POLL_MS);
+    }
+
+    /**
+     * Выбирает ступень по текущим показаниям и переходит на нее.
+     *
+     * @param reason Что вызвало пересчет; пишется в метрику перехода.
+     */
+    private void evaluate(@NonNull String reason) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            // чаще раза в секунду система возвращает NaN — тогда остается последнее настоящее значение
+            float forecast = powerManager.getThermalHeadroom(HEADROOM_FORECAST_SECONDS);
+            if (!Float.isNaN(forecast)) {
+                headroom = forecast;
+            }
+        }
+
+        int target = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            if (thermalStatus >= PowerManager.THERMAL_STATUS_CRITICAL) {
+                target = 3;
+            } else if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+                target = 2;
+            } else if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) {
+                target = 1;
+            }
+        }
+        if (headroom >= 0.95f) {
+            target = Math.max(target, 2);
+        } else if (headroom >= 0.85f) {
+            target = Math.max(target, 1);
+        }
+        if (batteryTemperature >= 45f) {
+            target = Math.max(target, 2);
+        } else if (batteryTemperature >= 42f) {
+            target = Math.max(target, 1);
+        }
+        if (!charging && batteryPercent <= 5) {
+            target = Math.max(target, 3);
+        } else if (!charging && batteryPercent <= 15) {
+            target = Math.max(target, 1);
+        }
+        if (powerManager.isPowerSaveMode()) {
+            target = Math.max(target, 1);
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (target > level) {
+            calmSince = 0;
+            transition(target, reason);
+        } else if (target < level) {
+            if (calmSince == 0) {
+                calmSince = now;
+            } else if (now - calmSince >= RECOVERY_MS) {
+                // вверх по одной ступени: следующая — еще через RECOVERY_MS
+                calmSince = now;
+                transition(level - 1, "recovered");
+            }
+        } else {
+            calmSince = 0;
+        }
+    }
+
+    private void transition(int target, @NonNull String reason) {
+        int from = level;
+        level = target;
+        Step step = LADDER[level];
+        MetricsLog.record("capture_governor", String.format(Locale.US,
+                "from=%d to=%d reason=%s thermal_status=%d headroom=%.2f battery_pct=%d battery_temp_c=%.1f"
+                        + " charging=%b power_save=%b quality=%s fps=%s",
+                from, target, reason, thermalStatus, headroom, batteryPercent, batteryTemperature,
+                charging, powerManager.isPowerSaveMode(), step.getVideoQuality(), step.getFrameRate() != null ? step.getFrameRate() : "auto"));
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onStepChanged(step);
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package com.example.camerapromax.camera;
+
+import android.annotation.SuppressLint;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.OptIn;
+import androidx.annotation.RequiresApi;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.CameraInfo;
+import com.example.camerapromax.edit.VideoFiles;
+import com.example.camerapromax.metrics.MetricsLog;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Замедленная съемка 120/240 кадров в секунду через constrained high-speed сессию Camera2.
+ * <p>
+ * CameraX 1.3 не умеет открывать high-speed сессию, поэтому на время замедленной съемки
+ * {@code VideoFragment} отвязывает use case'ы CameraX, а этот класс сам открывает камеру.
+ * Поддерживаемые режимы находятся через Camera2 interop ({@link Camera2CameraInfo}) у камеры,
+ * уже выбранной в CameraX.
+ * <p>
+ * Сессия создается сразу с двумя поверхностями — предпросмотр и постоянная входная поверхность
+ * кодировщика, — поэтому начало записи только меняет повторяющийся запрос и не пересоздает сессию.
+ * Время кадров при записи растягивается в {@link #SLOW_MOTION_FACTOR} раз: ролик 120 кадров/с
+ * играет с частотой 30 кадров/с, 240 — 60, и любой плеер показывает его в 1/4 скорости без
+ * дополнительных метаданных. Звук не пишется.
+ * <p>
+ * Все обращения к камере и кодировщику идут в собственном потоке; вызовы {@link Listener} приходят
+ * в главном потоке.
+ */
+@RequiresApi(Build.VERSION_CODES.M)
+final class HighSpeedSession {
+
+    /**
+     * Режим замедленной съемки: размер кадра и частота.
+     */
+    static final class Mode {
+
+        final Size size;
+        final int fps;
+
+        Mode(@NonNull Size size, int fps) {
+            this.size = size;
+            this.fps = fps;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%dp · %d fps", Math.min(size.getWidth(), size.getHeight()), fps);
+        }
+    }
+
+    /**
+     * Получатель событий сессии.
+     */
+    interface Listener {
+
+        /**
+         * Периодически сообщает о пропускной способности записи.
+         *
+         * @param measuredFps Частота кадров по меткам времени сенсора.
+         * @param queueDepth  Кадров снято, но еще не закодировано.
+         * @param dropped     Потеряно кадров с начала записи.
+         */
+        void onStats(float measuredFps, int queueDepth, int dropped);
+
+        /**
+         * Вызывается после завершения записи.
+         *
+         * @param uri URI видео или {@code null}, если запись не удалась.
+         */
+        void onRecorded(@Nullable Uri uri);
+
+        /**
+         * Вызывается, если камеру не удалось открыть или она была отключена.
+         */
+        void onError();
+
+        /**
+         * Вызывается один раз после {@link #close()}, когда камера действительно закрыта, а кодировщик
+         * освобожден. Только после этого камеру можно снова открывать через CameraX: открытие той же
+         * камеры раньше отключило бы эту сессию и оборвало дописываемую запись.
+         */
+        void onClosed();
+    }
+
+    /** Во сколько раз замедляется запись при воспроизведении. */
+    static final int SLOW_MOTION_FACTOR = 4;
+
+    private static final String TAG = "HighSpeedSession";
+    private static final String OUTPUT_MIME = "video/avc";
+    private static final int[] FRAME_RATES = {120, 240};
+    private static final float BITS_PER_PIXEL = 0.08f;
+
+    private final CameraManager cameraManager;
+    private final ContentResolver contentResolver;
+    private final String cameraId;
+    private final Mode mode;
+    private final int rotationDegrees;
+    private final Listener listener;
+
+    private final HandlerThread thread = new HandlerThread("HighSpeedSession");
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // поля ниже меняются только в потоке сессии
+    private Surface previewSurface;
+    private Surface recordSurface;
+    private MediaCodec encoder;
+    private CameraDevice device;
+    private CameraConstrainedHighSpeedCaptureSession session;
+    private boolean recording;
+    private boolean stopping;
+    private boolean closeRequested;
+    /** Камера открывается или открыта: от {@code openCamera} до {@code StateCallback.onClosed}. */
+    private boolean cameraPending;
+    private boolean closed;
+    private Uri outputUri;
+    private ParcelFileDescriptor outputDescriptor;
+    private MediaMuxer muxer;
+    private int muxerTrack = -1;
+    private long firstPtsUs = -1;
+    private long recordStartTimestampNs;
+    private long firstSensorTimestampNs;
+    private long lastSensorTimestampNs;
+    private int captured;
+    private int encoded;
+    private int dropped;
+    private int maxQueueDepth;
+
+    /**
+     * Создает сессию. Камера открывается в {@link #open(SurfaceTexture)}.
+     *
+     * @param context    Контекст.
+     * @param cameraInfo Камера, выбранная в CameraX.
+     * @param mode       Режим из {@link #query(CameraInfo)}.
+     * @param listener   Получатель событий.
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    HighSpeedSession(@NonNull Context context, @NonNull CameraInfo cameraInfo, @NonNull Mode mode,
+                     @NonNull Listener listener) {
+        this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.cameraId = Camera2CameraInfo.from(cameraInfo).getCameraId();
+        this.rotationDegrees = cameraInfo.getSensorRotationDegrees();
+        this.mode = mode;
+        this.listener = listener;
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Находит режимы замедленной съемки камеры. Для записи подходят только фиксированные диапазоны
+     * ({@code [fps, fps]}); для каждой частоты берется наибольший размер, но не больше 1080p.
+     *
+     * @param cameraInfo Камера CameraX.
+     * @return Режимы по возрастанию частоты; пустой список, если камера их не поддерживает.
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    @NonNull
+    static List<Mode> query(@NonNull CameraInfo cameraInfo) {
+        Camera2CameraInfo camera2Info = Camera2CameraInfo.from(cameraInfo);
+        int[] capabilities = camera2Info.getCameraCharacteristic(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        StreamConfigurationMap map = camera2Info.getCameraCharacteristic(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (capabilities == null || map == null) {
+            return Collections.emptyList();
+        }
+        boolean supported = false;
+        for (int capability : capabilities) {
+            if (capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) {
+                supported = true;
+                break;
+            }
+        }
+        if (!supported) {
+            return Collections.emptyList();
+        }
+
+        List<Mode> modes = new ArrayList<>();
+        for (int fps : FRAME_RATES) {
+            Size best = null;
+            for (Size size : map.getHighSpeedVideoSizes()) {
+                if (Math.min(size.getWidth(), size.getHeight()) > 1080
+                        || (best != null && size.getWidth() * size.getHeight() <= best.getWidth() * best.getHeight())) {
+                    continue;
+                }
+                for (Range<Integer> range : map.getHighSpeedVideoFpsRangesFor(size)) {
+                    if (range.getLower() == fps && range.getUpper() == fps) {
+                        best = size;
+                        break;
+                    }
+                }
+            }
+            if (best != null) {
+                modes.add(new Mode(best, fps));
+            }
+        }
+        return modes;
+    }
+
+    /**
+     * Открывает камеру и high-speed сессию с предпросмотром.
+     *
+     * @param previewTexture Текстура предпросмотра; ее размер буфера меняется на размер режима.
+     */
+    void open(@NonNull SurfaceTexture previewTexture) {
+        handler.post(() -> {
+            previewTexture.setDefaultBufferSize(mode.size.getWidth(), mode.size.getHeight());
+            previewSurface = new Surface(previewTexture);
+            recordSurface = MediaCodec.createPersistentInputSurface();
+            try {
+                encoder = MediaCodec.createEncoderByType(OUTPUT_MIME);
+                configureEncoder();
+                openCamera();
+            } catch (IOException | CameraAccessException | RuntimeException e) {
+                Log.e(TAG, "Cannot open high-speed session " + mode, e);
+                release();
+                mainHandler.post(listener::onError);
+            }
+        });
+    }
+
+    /**
+     * Начинает запись в новый файл в папке видео приложения.
+     *
+     * @param displayName Имя файла без расширения.
+     */
+    void startRecording(@NonNull String displayName) {
+        handler.post(() -> {
+            if (session == null || recording) {
+                return;
+            }
+            try {
+                outputUri = VideoFiles.insertPending(contentResolver, displayName + ".mp4");
+                outputDescriptor = contentResolver.openFileDescriptor(outputUri, "rw");
+                if (outputDescriptor == null) {
+                    throw new IOException("Cannot open " + outputUri);
+                }
+                muxer = new MediaMuxer(outputDescriptor.getFileDescriptor(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                muxer.setOrientationHint(rotationDegrees);
+                muxerTrack = -1;
+                firstPtsUs = -1;
+                firstSensorTimestampNs = 0;
+                lastSensorTimestampNs = 0;
+                captured = 0;
+                encoded = 0;
+                dropped = 0;
+                maxQueueDepth = 0;
+                recordStartTimestampNs = System.nanoTime();
+
+                encoder.start();
+                recording = true;
+                stopping = false;
+                repeat(Arrays.asList(previewSurface, recordSurface), recordCallback);
+            } catch (IOException | CameraAccessException | RuntimeException e) {
+                Log.e(TAG, "Cannot start high-speed recording", e);
+                abortRecording();
+            }
+        });
+    }
+
+    /**
+     * Останавливает запись. Файл дописывается после последнего закодированного кадра,
+     * затем вызывается {@link Listener#onRecorded(Uri)}.
+     */
+    void stopRecording() {
+        handler.post(() -> {
+            if (!recording || stopping) {
+                return;
+            }
+            stopping = true;
+            try {
+                repeat(Collections.singletonList(previewSurface), null);
+            } catch (CameraAccessException | RuntimeException e) {
+                Log.w(TAG, "Cannot switch back to preview", e);
+            }
+            // кадры, попавшие на поверхность после этого сигнала, кодировщик отбросит
+            encoder.signalEndOfInputStream();
+        });
+    }
+
+    /**
+     * Закрывает камеру. Идущая запись сначала дописывается; когда камера закрыта, вызывается
+     * {@link Listener#onClosed()}, и поток сессии завершается.
+     */
+    void close() {
+        handler.post(() -> {
+            closeRequested = true;
+            if (recording) {
+                if (!stopping) {
+                    stopping = true;
+                    encoder.signalEndOfInputStream();
+                }
+            } else {
+                release();
+            }
+        });
+    }
+
+    @SuppressLint("MissingPermission") // разрешение проверено в VideoFragment до открытия сессии
+    private void openCamera() throws CameraAccessException {
+        cameraPending = true;
+        try {
+            cameraManager.openCamera(cameraId, cameraCallback, handler);
+        } catch (CameraAccessException | RuntimeException e) {
+            cameraPending = false;
+            throw e;
+        }
+    }
+
+    private final CameraDevice.StateCallback cameraCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            device = camera;
+            if (closeRequested) {
+                release();
+                return;
+            }
+            try {
+                camera.createConstrainedHighSpeedCaptureSession(Arrays.asList(previewSurface, recordSurface),
+                        sessionCallback, handler);
+            } catch (CameraAccessException | RuntimeException e) {
+                Log.e(TAG, "Cannot create high-speed session " + mode, e);
+                release();
+                mainHandler.post(listener::onError);
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            Log.w(TAG, "Camera " + cameraId + " disconnected");
+            device = camera;
+            abortRecording();
+            release();
+            mainHandler.post(listener::onError);
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            Log.e(TAG, "Camera " + cameraId + " error " + error);
+            device = camera;
+            abortRecording();
+            release();
+            mainHandler.post(listener::onError);
+        }
+
+        @Override
+        public void onClosed(@NonNull CameraDevice camera) {
+            cameraPending = false;
+            finishClose();
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession configured) {
+            session = (CameraConstrainedHighSpeedCaptureSession) configured;
+            try {
+                repeat(Collections.singletonList(previewSurface), null);
+            } catch (CameraAccessException | RuntimeException e) {
+                Log.e(TAG, "Cannot start high-speed preview", e);
+                release();
+                mainHandler.post(listener::onError);
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession failed) {
+            Log.e(TAG, "High-speed session rejected for " + mode);
+            release();
+            mainHandler.post(listener::onError);
+        }
+    };
+
+    /**
+     * Ставит повторяющийся пакет запросов на заданные поверхности. High-speed сессия принимает
+     * только пакеты, подготовленные {@link CameraConstrainedHighSpeedCaptureSession#createHighSpeedRequestList}.
+     */
+    private void repeat(List<Surface> targets, @Nullable CameraCaptureSession.CaptureCallback callback)
+            throws CameraAccessException {
+        CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+        for (Surface target : targets) {
+            builder.addTarget(target);
+        }
+        builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, new Range<>(mode.fps, mode.fps));
+        session.setRepeatingBurst(session.createHighSpeedRequestList(builder.build()), callback, handler);
+    }
+
+    private void configureEncoder() {
+        int width = mode.size.getWidth();
+        int height = mode.size.getHeight();
+        MediaFormat format = MediaFormat.createVideoFormat(OUTPUT_MIME, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, (int) (width * height * mode.fps * BITS_PER_PIXEL));
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mode.fps);
+        format.setInteger(MediaFormat.KEY_CAPTURE_RATE, mode.fps);
+        // кодировщик должен держать частоту съемки, а не частоту воспроизведения
+        format.setInteger(MediaFormat.KEY_OPERATING_RATE, mode.fps);
+        format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        // после stop() кодировщик забывает callback, поэтому он задается перед каждой настройкой
+        encoder.setCallback(encoderCallback, handler);
+        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        encoder.setInputSurface(recordSurface);
+    }
+
+    /**
+     * Считает снятые и потерянные кадры записи. Потерей считается провал захвата, потерянный буфер
+     * и разрыв между метками времени сенсора больше полутора периодов кадра.
+     */
+    private final CameraCaptureSession.CaptureCallback recordCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (!recording || timestamp == null) {
+                return;
+            }
+            long periodNs = 1_000_000_000L / mode.fps;
+            if (lastSensorTimestampNs > 0) {
+                long gap = timestamp - lastSensorTimestampNs;
+                if (gap > periodNs * 3 / 2) {
+                    dropped += (int) ((gap + periodNs / 2) / periodNs) - 1;
+                }
+            } else {
+                firstSensorTimestampNs = timestamp;
+            }
+            lastSensorTimestampNs = timestamp;
+            captured++;
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                    @NonNull CaptureFailure failure) {
+            if (recording) {
+                dropped++;
+            }
+        }
+
+        @Override
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                        @NonNull Surface target, long frameNumber) {
+            if (recording && target == recordSurface) {
+                dropped++;
+            }
+        }
+    };
+
+    private final MediaCodec.Callback encoderCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            // вход идет через поверхность
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            muxerTrack = muxer.addTrack(format);
+            muxer.start();
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            ByteBuffer data = codec.getOutputBuffer(index);
+            boolean config = (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+            if (!config && info.size > 0 && data != null && muxerTrack >= 0) {
+                // время входной поверхности — метка сенсора; растягиваем его от начала записи
+                if (firstPtsUs < 0) {
+                    firstPtsUs = info.presentationTimeUs;
+                }
+                info.presentationTimeUs = (info.presentationTimeUs - firstPtsUs) * SLOW_MOTION_FACTOR;
+                muxer.writeSampleData(muxerTrack, data, info);
+                encoded++;
+                int depth = Math.max(0, captured - encoded);
+                maxQueueDepth = Math.max(maxQueueDepth, depth);
+                if (encoded % (mode.fps / 4) == 0) {
+                    reportStats(depth);
+                }
+            }
+            codec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                finishRecording();
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            Log.e(TAG, "High-speed encoder failed", e);
+            abortRecording();
+            if (closeRequested) {
+                release();
+            }
+        }
+    };
+
+    private void reportStats(int depth) {
+        long span = lastSensorTimestampNs - firstSensorTimestampNs;
+        float fps = span > 0 ? (captured - 1) * 1e9f / span : 0;
+        int droppedNow = dropped;
+        mainHandler.post(() -> listener.onStats(fps, depth, droppedNow));
+    }
+
+    private void finishRecording() {
+        recording = false;
+        Uri result = outputUri;
+        try {
+            stopEncoderAndMuxer();
+            VideoFiles.publish(contentResolver, result);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cannot finish high-speed recording", e);
+            contentResolver.delete(result, null, null);
+            result = null;
+        }
+        long span = lastSensorTimestampNs - firstSensorTimestampNs;
+        MetricsLog.record("high_speed", String.format(Locale.US,
+                "size=%dx%d fps=%d measured_fps=%.1f captured=%d encoded=%d dropped=%d max_queue=%d duration_ms=%d",
+                mode.size.getWidth(), mode.size.getHeight(), mode.fps,
+                span > 0 ? (captured - 1) * 1e9 / span : 0, captured, encoded, dropped, maxQueueDepth,
+                (System.nanoTime() - recordStartTimestampNs) / 1_000_000));
+        Uri recorded = result;
+        mainHandler.post(() -> listener.onRecorded(recorded));
+
+        if (closeRequested) {
+            release();
+        } else {
+            configureEncoder();
+        }
+    }
+
+    private void abortRecording() {
+        if (outputUri == null) {
+            return;
+        }
+        recording = false;
+        Uri partial = outputUri;
+        try {
+            stopEncoderAndMuxer();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot stop after failure", e);
+        }
+        contentResolver.delete(partial, null, null);
+        mainHandler.post(() -> listener.onRecorded(null));
+
+        if (closeRequested || encoder == null) {
+            return;
+        }
+        try {
+            encoder.reset();
+            configureEncoder();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cannot prepare encoder after failure", e);
+            release();
+            mainHandler.post(listener::onError);
+        }
+    }
+
+    private void stopEncoderAndMuxer() {
+        try {
+            encoder.stop();
+        } finally {
+            if (muxer != null) {
+                try {
+                    if (muxerTrack >= 0) {
+                        muxer.stop();
+                    }
+                } finally {
+                    muxer.release();
+                    muxer = null;
+                }
+            }
+            if (outputDescriptor != null) {
+                try {
+                    outputDescriptor.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot close " + outputUri, e);
+                }
+                outputDescriptor = null;
+            }
+            outputUri = null;
+        }
+    }
+
+    private void release() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (device != null) {
+            device.close();
+            device = null;
+        }
+        if (encoder != null) {
+            encoder.release();
+            encoder = null;
+        }
+        if (recordSurface != null) {
+            recordSurface.release();
+            recordSurface = null;
+        }
+        if (previewSurface != null) {
+            previewSurface.release();
+            previewSurface = null;
+        }
+        finishClose();
+    }
+
+    /**
+     * Завершает поток сессии, если закрытие запрошено и камера уже закрыта. До {@code onClosed}
+     * поток нужен: через него приходят {@code onOpened} для открытия, начатого до {@link #close()},
+     * и {@code onClosed} самой камеры.
+     */
+    private void finishClose() {
+        if (!closeRequested || cameraPending || encoder != null || closed) {
+            return;
+        }
+        closed = true;
+        thread.quitSafely();
+        mainHandler.post(listener::onClosed);
+    }
+}
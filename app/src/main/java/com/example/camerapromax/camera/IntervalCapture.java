@@ -0,0 +1,311 @@
+package com.example.camerapromax.camera;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.camera.core.ImageCapture;
+import androidx.camera.core.ImageCaptureException;
+import androidx.camera.core.ImageProxy;
+import com.example.camerapromax.edit.TimelapseEncoder;
+import com.example.camerapromax.gallery.MediaFilter;
+import com.example.camerapromax.metrics.LatencyStats;
+import com.example.camerapromax.metrics.MetricsLog;
+import com.example.camerapromax.storage.StorageBudget;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Интервальная съемка (таймлапс) через уже привязанный {@link ImageCapture}.
+ * <p>
+ * Снимок номер {@code n} планируется на {@code start + n * interval} по монотонным часам
+ * {@link SystemClock#uptimeMillis()}, а не через задержку от предыдущего снимка, поэтому опоздание
+ * одного срабатывания не сдвигает все следующие. Uptime не идет во время глубокого сна, поэтому
+ * на время съемки экран должен оставаться включенным.
+ * <p>
+ * Кадры берутся в память и записываются одним фоновым потоком: в MediaStore и, если включено,
+ * в {@link TimelapseEncoder}. Если запись не успевает (больше {@link #MAX_PENDING_WRITES} кадров
+ * в очереди) или предыдущий снимок еще не готов, очередной снимок пропускается — память не растет,
+ * а расписание не съезжает. Опоздавшие больше чем на полинтервала срабатывания тоже пропускаются.
+ * <p>
+ * Методы {@link #start()} и {@link #stop()} вызываются в главном потоке; туда же приходят
+ * вызовы {@link Listener}.
+ */
+final class IntervalCapture {
+
+    /**
+     * Получатель событий съемки.
+     */
+    interface Listener {
+
+        /**
+         * Вызывается после каждого срабатывания расписания.
+         *
+         * @param shots   Сохранено снимков.
+         * @param skipped Пропущено срабатываний.
+         */
+        void onProgress(int shots, int skipped);
+
+        /**
+         * Вызывается один раз после остановки, когда все кадры записаны.
+         *
+         * @param shots Сохранено снимков.
+         * @param video URI собранного видео или {@code null}, если видео не собиралось или не удалось.
+         */
+        void onFinished(int shots, @Nullable Uri video);
+    }
+
+    private static final String TAG = "IntervalCapture";
+    private static final int MAX_PENDING_WRITES = 3;
+    private static final int VIDEO_FRAME_RATE = 30;
+    private static final int VIDEO_SHORT_SIDE = 1080;
+
+    private final ContentResolver contentResolver;
+    private final StorageBudget storageBudget;
+    private final ImageCapture imageCapture;
+    private final long intervalMillis;
+    private final int totalShots;
+    private final Listener listener;
+    private final String session;
+
+    private final HandlerThread schedulerThread = new HandlerThread("IntervalCapture");
+    private Handler scheduler;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicInteger shots = new AtomicInteger();
+    @Nullable
+    private final TimelapseEncoder encoder;
+    // меняется только в потоке записи
+    private boolean videoFailed;
+
+    // поля ниже меняются только в потоке планировщика
+    private long startUptime;
+    private int slot;
+    private int frameIndex;
+    private int skipped;
+    private boolean captureInFlight;
+    private boolean stopped;
+    private long captureStartNanos;
+    private final LatencyStats jitter = new LatencyStats(0);
+    private final LatencyStats captureLatency = new LatencyStats(0);
+
+    /**
+     * Создает съемку.
+     *
+     * @param context        Контекст.
+     * @param imageCapture   Привязанный к камере use case.
+     * @param intervalMillis Интервал между снимками.
+     * @param durationMillis Продолжительность съемки.
+     * @param makeVideo      Собирать ли видео по ходу съемки; на Android ниже 8 игнорируется.
+     * @param listener       Получатель событий.
+     */
+    IntervalCapture(@NonNull Context context, @NonNull ImageCapture imageCapture, long intervalMillis,
+                    long durationMillis, boolean makeVideo, @NonNull Listener listener) {
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.storageBudget = StorageBudget.getInstance(context);
+        this.imageCapture = imageCapture;
+        this.intervalMillis = intervalMillis;
+        this.totalShots = (int) Math.max(1, durationMillis / intervalMillis);
+        this.listener = listener;
+        this.session = PhotoFragment.createFileName(System.currentTimeMillis());
+        this.encoder = makeVideo && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? new TimelapseEncoder(contentResolver, "Timelapse-" + session + ".mp4", VIDEO_SHORT_SIDE, VIDEO_FRAME_RATE)
+                : null;
+    }
+
+    /**
+     * Запускает съемку. Первый снимок делается сразу.
+     */
+    void start() {
+        schedulerThread.start();
+        scheduler = new Handler(schedulerThread.getLooper());
+        scheduler.post(() -> {
+            startUptime = SystemClock.uptimeMillis();
+            scheduler.postAtTime(this::tick, startUptime);
+        });
+    }
+
+    /**
+     * Останавливает съемку. Уже снятые кадры дописываются, затем вызывается
+     * {@link Listener#onFinished(int, Uri)}. Повторные вызовы игнорируются.
+     */
+    void stop() {
+        if (scheduler != null) {
+            scheduler.post(this::finish);
+        }
+    }
+
+    private void tick() {
+        if (stopped) {
+            return;
+        }
+        if (!storageBudget.hasRoomForPhoto()) {
+            // место кончилось: съемка завершается, а уже снятые кадры и видео сохраняются
+            Log.w(TAG, "Storage is full, stopping after " + shots.get() + " shots");
+            finish();
+            return;
+        }
+        long scheduled = startUptime + slot * intervalMillis;
+        long now = SystemClock.uptimeMillis();
+        slot++;
+        if (slot < totalShots) {
+            scheduler.postAtTime(this::tick, startUptime + slot * intervalMillis);
+        }
+
+        long late = now - scheduled;
+        if (late > intervalMillis / 2 || captureInFlight || pendingWrites.get() >= MAX_PENDING_WRITES) {
+            skipped++;
+            Log.w(TAG, "Skipped slot " + (slot - 1) + ": late=" + late + "ms inFlight=" + captureInFlight
+                    + " pending=" + pendingWrites.get());
+        } else {
+            jitter.add(late * 1_000_000L);
+            captureInFlight = true;
+            captureStartNanos = System.nanoTime();
+            imageCapture.takePicture(scheduler::post, new ImageCapture.OnImageCapturedCallback() {
+                @Override
+                public void onCaptureSuccess(@NonNull ImageProxy image) {
+                    onCaptured(image);
+                }
+
+                @Override
+                public void onError(@NonNull ImageCaptureException exception) {
+                    Log.e(TAG, "Interval capture failed", exception);
+                    captureInFlight = false;
+                    if (stopped) {
+                        complete();
+                    }
+                }
+            });
+        }
+        reportProgress();
+        if (slot >= totalShots) {
+            finish();
+        }
+    }
+
+    private void onCaptured(@NonNull ImageProxy image) {
+        captureInFlight = false;
+        captureLatency.add(System.nanoTime() - captureStartNanos);
+        byte[] jpeg;
+        int rotation;
+        try {
+            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+            jpeg = new byte[buffer.remaining()];
+            buffer.get(jpeg);
+            rotation = image.getImageInfo().getRotationDegrees();
+        } finally {
+            // кадр возвращается камере сразу: ImageCapture держит всего несколько буферов
+            image.close();
+        }
+        int index = frameIndex++;
+        pendingWrites.incrementAndGet();
+        writer.execute(() -> {
+            try {
+                write(jpeg, rotation, index);
+            } finally {
+                pendingWrites.decrementAndGet();
+            }
+        });
+        if (stopped) {
+            // снимок, начатый до остановки, сохранен; теперь съемку можно завершить
+            complete();
+        }
+    }
+
+    private void write(byte[] jpeg, int rotation, int index) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, String.format(Locale.US, "%s-%05d.jpg", session, index));
+        values.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpeg");
+        values.put(MediaStore.Images.Media.ORIENTATION, rotation);
+        MediaFilter.putLocation(values, MediaFilter.APP_IMAGE_DIR + "/Timelapse-" + session,
+                String.format(Locale.US, "%s-%05d.jpg", session, index));
+        Uri uri = contentResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) {
+            Log.e(TAG, "Cannot create MediaStore entry for frame " + index);
+            return;
+        }
+        try (OutputStream out = contentResolver.openOutputStream(uri)) {
+            if (out == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            out.write(jpeg);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write frame " + index, e);
+            contentResolver.delete(uri, null, null);
+            return;
+        }
+        shots.incrementAndGet();
+
+        if (encoder != null && !videoFailed) {
+            try {
+                encoder.addFrame(jpeg, rotation);
+            } catch (IOException | RuntimeException e) {
+                // снимки важнее видео: сборка прекращается, съемка продолжается
+                Log.e(TAG, "Timelapse video failed at frame " + index, e);
+                videoFailed = true;
+                encoder.cancel();
+            }
+        }
+    }
+
+    private void reportProgress() {
+        int saved = shots.get() + pendingWrites.get();
+        int skippedNow = skipped;
+        mainHandler.post(() -> listener.onProgress(saved, skippedNow));
+    }
+
+    private void finish() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        scheduler.removeCallbacksAndMessages(null);
+        if (!captureInFlight) {
+            complete();
+        }
+    }
+
+    /**
+     * Завершает остановленную съемку, когда не осталось снимка в работе: очередь записи больше
+     * не пополняется, видео дописывается после последнего кадра.
+     */
+    private void complete() {
+        schedulerThread.quitSafely();
+        MetricsLog.record("timelapse", String.format(Locale.US,
+                "interval_ms=%d slots=%d skipped=%d jitter_p50_ms=%.1f jitter_p95_ms=%.1f jitter_max_ms=%.1f"
+                        + " capture_p50_ms=%.1f capture_p95_ms=%.1f",
+                intervalMillis, slot, skipped, jitter.percentile(50) / 1e6, jitter.percentile(95) / 1e6,
+                jitter.max() / 1e6, captureLatency.percentile(50) / 1e6, captureLatency.percentile(95) / 1e6));
+
+        writer.execute(() -> {
+            Uri video = null;
+            if (encoder != null && !videoFailed) {
+                try {
+                    video = encoder.finish();
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Cannot finish timelapse video", e);
+                    encoder.cancel();
+                }
+            }
+            Uri result = video;
+            int saved = shots.get();
+            mainHandler.post(() -> listener.onFinished(saved, result));
+        });
+        writer.shutdown();
+    }
+}
@@ -3,6 +3,7 @@ package com.example.camerapromax.camera;
 import android.Manifest;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.MediaStore;
@@ -10,23 +11,34 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.Window;
+import android.view.WindowManager;
 import android.widget.Toast;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
+import androidx.camera.core.Camera;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageCaptureException;
 import androidx.camera.core.Preview;
+import androidx.camera.core.ResolutionInfo;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
 import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.camera.view.PreviewView;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.navigation.NavController;
 import androidx.navigation.Navigation;
 
 import com.example.camerapromax.R;
+import com.example.camerapromax.databinding.DialogTimelapseBinding;
 import com.example.camerapromax.databinding.FragmentPhotoBinding;
+import com.example.camerapromax.gallery.MediaFilter;
+import com.example.camerapromax.metrics.StartupTimer;
+import com.example.camerapromax.storage.StorageBudget;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.text.SimpleDateFormat;
@@ -55,6 +67,41 @@ public class PhotoFragment extends Fragment {
       */
     private ImageCapture imageCapture;
     private CameraSelector cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA;
+    /** Текущая интервальная съемка или {@code null}. */
+    @Nullable
+    private IntervalCapture intervalCapture;
+    /** Номер последней запущенной интервальной съемки; по нему отличаются события старых съемок. */
+    private int timelapseSession;
+
+    /** Камера, к которой привязаны use case'ы, и ступень качества, с которой они привязаны. */
+    private Camera camera;
+    private CaptureGovernor.Step boundStep;
+    /** Сколько снимков {@link #takePhoto()} еще не сохранено; пока они есть, камера не перепривязывается. */
+    private int capturesInFlight;
+
+    /**
+     * Применяет новую ступень качества: частота кадров меняется сразу, а разрешение предпросмотра —
+     * перепривязкой. Во время интервальной съемки перепривязка откладывается до ее окончания:
+     * съемка держит ссылку на привязанный {@link ImageCapture}. Так же она откладывается, пока
+     * сохраняется обычный снимок: {@code unbindAll()} закрыл бы камеру и снимок завершился бы ошибкой.
+     */
+    private final CaptureGovernor.Listener governorListener = step -> {
+        if (camera == null || binding == null) {
+            return;
+        }
+        if (intervalCapture != null || capturesInFlight > 0) {
+            CaptureGovernor.applyFrameRate(camera, step);
+        } else {
+            startCamera();
+        }
+    };
+
+    private final StorageBudget.Listener storageListener = budget -> {
+        if (binding != null) {
+            long shots = budget.getRemainingShots();
+            binding.storageRemaining.setText(shots < 0 ? null : getString(R.string.storage_shots_left, shots));
+        }
+    };
 
     // запускает системное действие и получает результат асинхронно и безопасно для lifecycle
     private final ActivityResultLauncher<String[]> activityResultLauncher =
@@ -101,6 +148,13 @@ public class PhotoFragment extends Fragment {
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
+        // первый кадр в видоискателе — конец холодного старта
+        binding.previewView.getPreviewStreamState().observe(getViewLifecycleOwner(), state -> {
+            if (state == PreviewView.StreamState.STREAMING) {
+                StartupTimer.markFirstPreviewFrame(requireActivity());
+            }
+        });
+
         if (allPermissionsGranted()) {
             startCamera();
         } else {
@@ -113,6 +167,8 @@ public class PhotoFragment extends Fragment {
         binding.switchCameraButton.setOnClickListener(v -> switchCamera());
         binding.toVideoButton.setOnClickListener(v -> navController.navigate(R.id.action_photoFragment_to_videoFragment));
         binding.toGalleryButton.setOnClickListener(v -> navController.navigate(R.id.action_photoFragment_to_galleryFragment));
+        binding.timelapseButton.setOnClickListener(v -> showTimelapseDialog());
+        binding.timelapseStopButton.setOnClickListener(v -> stopTimelapse());
     }
 
     /**
@@ -170,7 +226,14 @@ public class PhotoFragment extends Fragment {
                     VideoCapture → получать поток для записи
                     ImageAnalysis → получать кадры для анализа
                  */
-                Preview preview = new Preview.Builder().build();
+                // ступень по температуре и батарее ограничивает разрешение предпросмотра и частоту кадров
+                CaptureGovernor.Step step = CaptureGovernor.getInstance(requireContext()).getStep();
+                Preview.Builder previewBuilder = new Preview.Builder();
+                ResolutionSelector previewSelector = CaptureGovernor.previewResolutionSelector(step);
+                if (previewSelector != null) {
+                    previewBuilder.setResolutionSelector(previewSelector);
+                }
+                Preview preview = previewBuilder.build();
                 // Camera НЕ рисует напрямую в View. Она рисует в Surface. Surface — низкоуровневый объект Android.
                 // Camera -> Preview -> SurfaceProvider -> PreviewView(UI)
                 // "Preview, когда тебе нужен Surface — бери его отсюда"
@@ -190,7 +253,13 @@ public class PhotoFragment extends Fragment {
                     Fragment STARTED → камера работает
                     Fragment STOPPED → камера закрывается
                 */
-                cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageCapture);
+                camera = cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageCapture);
+                CaptureGovernor.applyFrameRate(camera, step);
+                boundStep = step;
+                // размер снимка известен только после привязки к камере
+                ResolutionInfo resolutionInfo = imageCapture.getResolutionInfo();
+                StorageBudget.getInstance(requireContext())
+                        .setPhotoResolution(resolutionInfo != null ? resolutionInfo.getResolution() : null);
 
             } catch (Exception e) {
                 Log.e(TAG, "Use case binding failed", e);
@@ -226,16 +295,18 @@ public class PhotoFragment extends Fragment {
         if (imageCapture == null) {
             return;
         }
+        if (!StorageBudget.getInstance(requireContext()).hasRoomForPhoto()) {
+            Toast.makeText(requireContext(), R.string.storage_full, Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-        String name = new SimpleDateFormat(FILENAME_FORMAT, Locale.US)
-                .format(System.currentTimeMillis());
+        String name = createFileName(System.currentTimeMillis());
 
         ContentValues contentValues = new ContentValues();
         contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
         contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpeg");
-        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.P) {
-            contentValues.put(MediaStore.Images.Media.RELATIVE_PATH, "Pictures/CameraX-Image");
-        }
+        // до Android 10 путь задается целиком, иначе снимок попадет в корень Pictures/
+        MediaFilter.putLocation(contentValues, MediaFilter.APP_IMAGE_DIR, name + ".jpg");
 
         // КАК и КУДА сохранить фото
         ImageCapture.OutputFileOptions outputOptions = new ImageCapture.OutputFileOptions
@@ -264,6 +335,7 @@ public class PhotoFragment extends Fragment {
          * 5. Кодирует в JPEG
          * 6. Сохраняет или отдаёт
          */
+        capturesInFlight++;
         imageCapture.takePicture(
                 outputOptions,
                 // Executor = объект, который решает, ГДЕ и КОГДА выполнить код - где (в каком потоке) и как (сразу / в очереди).
@@ -283,11 +355,13 @@ public class PhotoFragment extends Fragment {
                         String msg = "Photo capture succeeded: " + outputFileResults.getSavedUri();
                         Toast.makeText(requireContext(), msg, Toast.LENGTH_SHORT).show(); // Toast — это маленькое всплывающее сообщение
                         Log.d(TAG, msg);
+                        onPhotoCaptureFinished();
                     }
 
                     @Override
                     public void onError(@NonNull ImageCaptureException exception) {
                         Log.e(TAG, "Photo capture failed: " + exception.getMessage(), exception);
+                        onPhotoCaptureFinished();
                     }
                 }
         );
@@ -301,6 +375,135 @@ public class PhotoFragment extends Fragment {
 
     }
 
+    /**
+     * Отмечает завершение снимка. Если ступень качества сменилась, пока снимок сохранялся,
+     * камера перепривязывается после последнего из них.
+     */
+    private void onPhotoCaptureFinished() {
+        capturesInFlight--;
+        if (capturesInFlight == 0 && binding != null && intervalCapture == null
+                && boundStep != CaptureGovernor.getInstance(requireContext()).getStep()) {
+            startCamera();
+        }
+    }
+
+    /**
+     * Показывает диалог настройки интервальной съемки.
+     */
+    private void showTimelapseDialog() {
+        if (imageCapture == null || intervalCapture != null) {
+            return;
+        }
+        DialogTimelapseBinding dialogBinding = DialogTimelapseBinding.inflate(getLayoutInflater());
+        // видео собирается кодировщиком с гибким YUV-буфером, доступным с Android 8
+        dialogBinding.makeVideoSwitch.setVisibility(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? View.VISIBLE : View.GONE);
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.timelapse)
+                .setView(dialogBinding.getRoot())
+                .setPositiveButton(R.string.timelapse_start, (dialog, which) -> {
+                    int intervalId = dialogBinding.intervalChipGroup.getCheckedChipId();
+                    long intervalMillis = intervalId == R.id.interval_1s ? 1_000
+                            : intervalId == R.id.interval_5s ? 5_000
+                            : intervalId == R.id.interval_10s ? 10_000 : 2_000;
+                    int durationId = dialogBinding.durationChipGroup.getCheckedChipId();
+                    long durationMillis = (durationId == R.id.duration_10m ? 10
+                            : durationId == R.id.duration_30m ? 30
+                            : durationId == R.id.duration_1h ? 60 : 120) * 60_000L;
+                    startTimelapse(intervalMillis, durationMillis, dialogBinding.makeVideoSwitch.isChecked());
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /**
+     * Запускает интервальную съемку через уже привязанный {@link ImageCapture}.
+     * Предпросмотр не отключается: без него CameraX перенастроит сессию, и каждый снимок будет ждать
+     * запуска камеры и сходимости автоэкспозиции. Вместо этого экран закрывается темным слоем,
+     * яркость подсветки опускается до минимума, а экран не гаснет, пока идет съемка.
+     *
+     * @param intervalMillis Интервал между снимками.
+     * @param durationMillis Продолжительность съемки.
+     * @param makeVideo      Собирать ли видео по ходу съемки.
+     */
+    private void startTimelapse(long intervalMillis, long durationMillis, boolean makeVideo) {
+        if (imageCapture == null || binding == null) {
+            return;
+        }
+        final int session = ++timelapseSession;
+        intervalCapture = new IntervalCapture(requireContext(), imageCapture, intervalMillis, durationMillis, makeVideo,
+                new IntervalCapture.Listener() {
+                    @Override
+                    public void onProgress(int shots, int skipped) {
+                        if (binding != null && session == timelapseSession) {
+                            binding.timelapseStatus.setText(getString(R.string.timelapse_progress, shots, skipped));
+                        }
+                    }
+
+                    @Override
+                    public void onFinished(int shots, @Nullable Uri video) {
+                        if (session == timelapseSession && getActivity() != null) {
+                            // съемка закончилась сама по истечении времени
+                            stopTimelapse();
+                        }
+                        if (getContext() != null) {
+                            Toast.makeText(getContext(), getString(video != null
+                                    ? R.string.timelapse_video_done : R.string.timelapse_done, shots), Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+        binding.timelapseStatus.setText(getString(R.string.timelapse_progress, 0, 0));
+        binding.timelapseOverlay.setVisibility(View.VISIBLE);
+        setPowerSaving(true);
+        intervalCapture.start();
+    }
+
+    /**
+     * Останавливает интервальную съемку, если она идет. Уже снятые кадры дописываются в фоне.
+     */
+    private void stopTimelapse() {
+        if (intervalCapture == null) {
+            return;
+        }
+        intervalCapture.stop();
+        intervalCapture = null;
+        if (binding != null) {
+            binding.timelapseOverlay.setVisibility(View.GONE);
+            if (boundStep != CaptureGovernor.getInstance(requireContext()).getStep()) {
+                // ступень сменилась во время съемки
+                startCamera();
+            }
+        }
+        setPowerSaving(false);
+    }
+
+    /**
+     * Включает или выключает экономию на время интервальной съемки: минимальная яркость подсветки
+     * и запрет на отключение экрана, без которого устройство уснет и расписание остановится.
+     *
+     * @param enabled {@code true}, чтобы включить.
+     */
+    private void setPowerSaving(boolean enabled) {
+        Window window = requireActivity().getWindow();
+        WindowManager.LayoutParams attributes = window.getAttributes();
+        attributes.screenBrightness = enabled ? 0.01f : WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_NONE;
+        window.setAttributes(attributes);
+        if (enabled) {
+            window.addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        } else {
+            window.clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        }
+    }
+
+    /**
+     * Формирует имя файла снимка из времени съемки.
+     *
+     * @param timeMillis Время в миллисекундах Unix-времени.
+     * @return Имя без расширения, например {@code 2024-05-17-14-03-22-118}.
+     */
+    static String createFileName(long timeMillis) {
+        return new SimpleDateFormat(FILENAME_FORMAT, Locale.US).format(timeMillis);
+    }
+
     /**
      * Переключает между передней и задней камерами.
      * После переключения селектора камеры перезапускает камеру для применения изменений.
@@ -314,6 +517,29 @@ public class PhotoFragment extends Fragment {
         startCamera();
     }
 
+    /**
+     * Вызывается, когда фрагмент становится видимым. Подписывается на оценку свободного места
+     * и на смену ступени качества.
+     */
+    @Override
+    public void onStart() {
+        super.onStart();
+        StorageBudget.getInstance(requireContext()).addListener(storageListener);
+        CaptureGovernor.getInstance(requireContext()).addListener(governorListener);
+    }
+
+    /**
+     * Вызывается, когда фрагмент перестает быть видимым. Камера в этот момент отвязывается,
+     * поэтому интервальная съемка останавливается и ее видео дописывается.
+     */
+    @Override
+    public void onStop() {
+        stopTimelapse();
+        StorageBudget.getInstance(requireContext()).removeListener(storageListener);
+        CaptureGovernor.getInstance(requireContext()).removeListener(governorListener);
+        super.onStop();
+    }
+
     /**
      * Вызывается, когда представление, ранее созданное методом {@link #onCreateView(LayoutInflater, ViewGroup, Bundle)}, было отсоединено от фрагмента.
      * При следующем отображении фрагмента будет создано новое представление.
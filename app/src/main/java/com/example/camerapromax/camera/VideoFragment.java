@@ -3,12 +3,15 @@ package com.example.camerapromax.camera;
 import android.Manifest;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Toast;
@@ -16,17 +19,26 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.appcompat.app.AlertDialog;
+import androidx.camera.core.Camera;
+import androidx.camera.core.CameraInfo;
 import androidx.camera.core.CameraSelector;
+import androidx.camera.core.DynamicRange;
 import androidx.camera.core.Preview;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
 import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.camera.video.FallbackStrategy;
 import androidx.camera.video.MediaStoreOutputOptions;
 import androidx.camera.video.PendingRecording;
 import androidx.camera.video.Quality;
 import androidx.camera.video.QualitySelector;
 import androidx.camera.video.Recorder;
 import androidx.camera.video.Recording;
+import androidx.camera.video.RecordingStats;
 import androidx.camera.video.VideoCapture;
 import androidx.camera.video.VideoRecordEvent;
+import androidx.constraintlayout.widget.ConstraintLayout;
 import androidx.core.content.ContextCompat;
 import androidx.core.util.Consumer;
 import androidx.fragment.app.Fragment;
@@ -35,9 +47,14 @@ import androidx.navigation.Navigation;
 
 import com.example.camerapromax.R;
 import com.example.camerapromax.databinding.FragmentVideoBinding;
+import com.example.camerapromax.gallery.MediaFilter;
+import com.example.camerapromax.metrics.MetricsLog;
+import com.example.camerapromax.storage.StorageBudget;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -57,6 +74,62 @@ public class VideoFragment extends Fragment {
     private ExecutorService cameraExecutor;
     private CameraSelector cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA;
     private boolean isRecording = false;
+    private ProcessCameraProvider cameraProvider;
+    private CameraInfo cameraInfo;
+    /** Режимы замедленной съемки текущей камеры; пустой список, если их нет. */
+    private List<HighSpeedSession.Mode> highSpeedModes = Collections.emptyList();
+    /** Открытая high-speed сессия или {@code null}, если работает обычная запись CameraX. */
+    @Nullable
+    private HighSpeedSession highSpeedSession;
+    /**
+     * High-speed сессия, которая дописывает запись и закрывает камеру. Пока она не закрылась,
+     * CameraX не привязывается: открытие той же камеры отключило бы сессию и удалило запись.
+     */
+    @Nullable
+    private HighSpeedSession closingSession;
+
+    /** Камера, к которой привязаны use case'ы CameraX, и ступень качества, с которой они привязаны. */
+    private Camera camera;
+    private CaptureGovernor.Step boundStep;
+
+    /**
+     * Применяет новую ступень качества. Во время записи CameraX меняется только частота кадров:
+     * перепривязка оборвала бы запись, поэтому разрешение меняется после {@code Finalize}.
+     * Замедленная съемка на горячих ступенях закрывается, запись при этом дописывается.
+     */
+    private final CaptureGovernor.Listener governorListener = step -> {
+        if (binding == null || camera == null) {
+            // камера еще не привязана: первая привязка сама возьмет текущую ступень
+            return;
+        }
+        if (highSpeedSession != null) {
+            if (!step.isHighSpeedAllowed()) {
+                if (isRecording) {
+                    stopRecording();
+                }
+                exitSlowMotion();
+                Toast.makeText(requireContext(), R.string.slow_motion_throttled, Toast.LENGTH_LONG).show();
+            }
+        } else if (isRecording) {
+            CaptureGovernor.applyFrameRate(camera, step);
+        } else {
+            startCamera();
+        }
+    };
+
+    private final StorageBudget.Listener storageListener = budget -> {
+        if (binding == null) {
+            return;
+        }
+        long seconds = budget.getRemainingVideoSeconds();
+        binding.storageRemaining.setText(seconds < 0 ? null : getString(R.string.storage_minutes_left, seconds / 60));
+        if (isRecording && budget.isVideoSpaceExhausted()) {
+            // останавливаем сами, пока есть место дописать заголовок, а не ждем ошибки в Finalize
+            MetricsLog.record("storage_stop", String.format(Locale.US, "free_bytes=%d", budget.getFreeBytes()));
+            stopRecording();
+            Toast.makeText(requireContext(), R.string.storage_recording_stopped, Toast.LENGTH_LONG).show();
+        }
+    };
 
     private final ActivityResultLauncher<String[]> activityResultLauncher =
             registerForActivityResult(new ActivityResultContracts.RequestMultiplePermissions(), result -> {
@@ -120,6 +193,7 @@ public class VideoFragment extends Fragment {
         binding.switchCameraButton.setOnClickListener(v -> switchCamera());
         binding.toPhotoButton.setOnClickListener(v -> navController.navigate(R.id.action_videoFragment_to_photoFragment));
         binding.toGalleryButton.setOnClickListener(v -> navController.navigate(R.id.action_videoFragment_to_galleryFragment));
+        binding.slowMotionButton.setOnClickListener(v -> toggleSlowMotion());
 
         cameraExecutor = Executors.newSingleThreadExecutor();
     }
@@ -143,23 +217,41 @@ public class VideoFragment extends Fragment {
      * Этот метод настраивает предварительный просмотр и сценарии захвата видео и привязывает их к жизненному циклу фрагмента.
      */
     private void startCamera() {
+        if (closingSession != null) {
+            // камеру еще держит high-speed сессия; привязка произойдет после ее закрытия
+            return;
+        }
         ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(requireContext());
 
         cameraProviderFuture.addListener(() -> {
             try {
-                ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
-
-                Preview preview = new Preview.Builder().build();
+                cameraProvider = cameraProviderFuture.get();
+
+                // ступень по температуре и батарее ограничивает качество записи, предпросмотр и частоту кадров
+                CaptureGovernor.Step step = CaptureGovernor.getInstance(requireContext()).getStep();
+                Preview.Builder previewBuilder = new Preview.Builder();
+                ResolutionSelector previewSelector = CaptureGovernor.previewResolutionSelector(step);
+                if (previewSelector != null) {
+                    previewBuilder.setResolutionSelector(previewSelector);
+                }
+                Preview preview = previewBuilder.build();
                 preview.setSurfaceProvider(binding.previewView.getSurfaceProvider());
 
+                QualitySelector qualitySelector = step.getVideoQuality() == Quality.HIGHEST
+                        ? QualitySelector.from(Quality.HIGHEST)
+                        : QualitySelector.from(step.getVideoQuality(),
+                                FallbackStrategy.lowerQualityOrHigherThan(step.getVideoQuality()));
                 Recorder recorder = new Recorder.Builder()
-                        .setQualitySelector(QualitySelector.from(Quality.HIGHEST))
+                        .setQualitySelector(qualitySelector)
                         .build();
                 // Создаётся use case: VideoCapture: "я хочу получать поток кадров для записи"
                 videoCapture = VideoCapture.withOutput(recorder);
 
                 cameraProvider.unbindAll();
-                cameraProvider.bindToLifecycle(this, cameraSelector, preview, videoCapture);
+                camera = cameraProvider.bindToLifecycle(this, cameraSelector, preview, videoCapture);
+                CaptureGovernor.applyFrameRate(camera, step);
+                boundStep = step;
+                updateSlowMotionModes(camera.getCameraInfo());
 
             } catch (Exception e) {
                 Log.e(TAG, "Use case binding failed", e);
@@ -172,18 +264,31 @@ public class VideoFragment extends Fragment {
      * Этот метод изменяет внешний вид кнопки записи, запускает хронометр и начинает захват видео.
      */
     private void startRecording() {
+        StorageBudget storageBudget = StorageBudget.getInstance(requireContext());
+        if (storageBudget.isVideoSpaceExhausted()) {
+            Toast.makeText(requireContext(), R.string.storage_full, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        storageBudget.setRecording(true);
+        storageBudget.preallocateForRecording();
+
         isRecording = true;
         binding.recordButton.setBackgroundResource(R.drawable.ic_capture_recording);
 
         String name = new SimpleDateFormat(FILENAME_FORMAT, Locale.US)
                 .format(System.currentTimeMillis());
 
+        if (highSpeedSession != null) {
+            setRecordingControls(true);
+            highSpeedSession.startRecording(name);
+            return;
+        }
+
         ContentValues contentValues = new ContentValues();
         contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
         contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "video/mp4");
-        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.P) {
-            contentValues.put(MediaStore.Video.Media.RELATIVE_PATH, "Movies/CameraX-Video");
-        }
+        // до Android 10 путь задается целиком, иначе запись попадет в корень Movies/
+        MediaFilter.putLocation(contentValues, MediaFilter.APP_VIDEO_DIR, name + ".mp4");
 
         MediaStoreOutputOptions mediaStoreOutputOptions = new MediaStoreOutputOptions
                 .Builder(requireContext().getContentResolver(),
@@ -201,22 +306,19 @@ public class VideoFragment extends Fragment {
             pendingRecording.withAudioEnabled();
         }
 
-        binding.switchCameraButton.setEnabled(false);
-        binding.toPhotoButton.setEnabled(false);
-        binding.toGalleryButton.setEnabled(false);
-
-        binding.switchCameraButton.setAlpha(0.4f);
-        binding.toPhotoButton.setAlpha(0.4f);
-        binding.toGalleryButton.setAlpha(0.4f);
-
-        binding.recordDuration.setBase(SystemClock.elapsedRealtime());
-        binding.recordDuration.setVisibility(View.VISIBLE);
-        binding.recordDuration.start();
-
+        setRecordingControls(true);
 
         recording = pendingRecording.start(ContextCompat.getMainExecutor(requireContext()),
                 (Consumer<VideoRecordEvent>) videoRecordEvent -> {
+                    RecordingStats stats = videoRecordEvent.getRecordingStats();
+                    storageBudget.updateRecordedBytes(stats.getNumBytesRecorded(), stats.getRecordedDurationNanos());
                     if (videoRecordEvent instanceof VideoRecordEvent.Finalize) {
+                        storageBudget.setRecording(false);
+                        if (binding != null && highSpeedSession == null && !isRecording
+                                && boundStep != CaptureGovernor.getInstance(requireContext()).getStep()) {
+                            // ступень сменилась во время записи: разрешение меняется, когда файл уже закрыт
+                            startCamera();
+                        }
                         VideoRecordEvent.Finalize finalizeEvent = (VideoRecordEvent.Finalize) videoRecordEvent;
                         if (!finalizeEvent.hasError()) {
                             String msg = "Video capture succeeded: " +
@@ -241,24 +343,216 @@ public class VideoFragment extends Fragment {
      */
     private void stopRecording() {
         isRecording = false;
+        StorageBudget.getInstance(requireContext()).setRecording(false);
         binding.recordButton.setBackgroundResource(R.drawable.ic_capture);
-        binding.recordDuration.stop();
-        binding.recordDuration.setVisibility(View.GONE);
-
-        binding.switchCameraButton.setEnabled(true);
-        binding.toPhotoButton.setEnabled(true);
-        binding.toGalleryButton.setEnabled(true);
+        setRecordingControls(false);
 
-        binding.switchCameraButton.setAlpha(1f);
-        binding.toPhotoButton.setAlpha(1f);
-        binding.toGalleryButton.setAlpha(1f);
-
-        if (recording != null) {
+        if (highSpeedSession != null) {
+            highSpeedSession.stopRecording();
+        } else if (recording != null) {
             recording.stop();
             recording = null;
         }
     }
 
+    /**
+     * Блокирует или разблокирует элементы управления на время записи и показывает хронометр.
+     *
+     * @param recordingActive {@code true}, если запись начинается.
+     */
+    private void setRecordingControls(boolean recordingActive) {
+        float alpha = recordingActive ? 0.4f : 1f;
+        // в замедленной съемке камеру нельзя переключить: сессия открыта на конкретной камере
+        boolean canSwitch = !recordingActive && highSpeedSession == null;
+        binding.switchCameraButton.setEnabled(canSwitch);
+        binding.switchCameraButton.setAlpha(canSwitch ? 1f : 0.4f);
+        binding.toPhotoButton.setEnabled(!recordingActive);
+        binding.toGalleryButton.setEnabled(!recordingActive);
+        binding.slowMotionButton.setEnabled(!recordingActive);
+        binding.toPhotoButton.setAlpha(alpha);
+        binding.toGalleryButton.setAlpha(alpha);
+        binding.slowMotionButton.setAlpha(alpha);
+
+        if (recordingActive) {
+            binding.recordDuration.setBase(SystemClock.elapsedRealtime());
+            binding.recordDuration.setVisibility(View.VISIBLE);
+            binding.recordDuration.start();
+        } else {
+            binding.recordDuration.stop();
+            binding.recordDuration.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * Запоминает привязанную камеру, передает формат записи в оценку свободного места
+     * и находит у камеры режимы замедленной съемки. Кнопка замедленной съемки показывается, только если такие режимы есть.
+     *
+     * @param info Камера, к которой привязаны use case'ы.
+     */
+    private void updateSlowMotionModes(@NonNull CameraInfo info) {
+        cameraInfo = info;
+        CaptureGovernor.Step step = CaptureGovernor.getInstance(requireContext()).getStep();
+        List<Quality> qualities = Recorder.getVideoCapabilities(info).getSupportedQualities(DynamicRange.SDR);
+        // Quality.HIGHEST — первое, самое высокое поддерживаемое качество
+        Quality quality = step.getVideoQuality() == Quality.HIGHEST && !qualities.isEmpty()
+                ? qualities.get(0) : step.getVideoQuality();
+        // без ограничения ступени CameraX пишет 30 кадров/с
+        Integer frameRate = step.getFrameRate();
+        StorageBudget.getInstance(requireContext()).setVideoFormat(
+                QualitySelector.getResolution(info, quality), frameRate != null ? frameRate : 30);
+
+        highSpeedModes = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? HighSpeedSession.query(info) : Collections.emptyList();
+        binding.slowMotionButton.setVisibility(highSpeedModes.isEmpty() || !step.isHighSpeedAllowed()
+                ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Включает замедленную съемку с выбором режима или возвращает обычную запись.
+     */
+    private void toggleSlowMotion() {
+        if (highSpeedSession != null) {
+            exitSlowMotion();
+            return;
+        }
+        if (closingSession != null) {
+            // предыдущая сессия еще закрывает камеру
+            return;
+        }
+        if (highSpeedModes.isEmpty() || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return;
+        }
+        String[] labels = new String[highSpeedModes.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = highSpeedModes.get(i).toString();
+        }
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.slow_motion_title)
+                .setItems(labels, (dialog, which) -> enterSlowMotion(highSpeedModes.get(which)))
+                .show();
+    }
+
+    /**
+     * Отвязывает CameraX и открывает high-speed сессию на той же камере.
+     * Предпросмотр переходит в {@link TextureView}: {@code PreviewView} получает кадры только от CameraX.
+     *
+     * @param mode Выбранный режим.
+     */
+    @RequiresApi(Build.VERSION_CODES.M)
+    private void enterSlowMotion(@NonNull HighSpeedSession.Mode mode) {
+        if (cameraProvider == null || cameraInfo == null) {
+            return;
+        }
+        cameraProvider.unbindAll();
+
+        TextureView textureView = binding.highSpeedPreview;
+        ConstraintLayout.LayoutParams params = (ConstraintLayout.LayoutParams) textureView.getLayoutParams();
+        // буфер сенсора повернут относительно экрана так же, как сам сенсор
+        boolean swap = cameraInfo.getSensorRotationDegrees() % 180 != 0;
+        params.dimensionRatio = swap
+                ? mode.size.getHeight() + ":" + mode.size.getWidth()
+                : mode.size.getWidth() + ":" + mode.size.getHeight();
+        textureView.setLayoutParams(params);
+        binding.previewView.setVisibility(View.GONE);
+        textureView.setVisibility(View.VISIBLE);
+        binding.highSpeedStats.setText(null);
+        binding.highSpeedStats.setVisibility(View.VISIBLE);
+        binding.slowMotionButton.setText(R.string.slow_motion_exit);
+        StorageBudget.getInstance(requireContext()).setVideoFormat(mode.size, mode.fps);
+
+        HighSpeedSession session = new HighSpeedSession(requireContext(), cameraInfo, mode, new HighSpeedSession.Listener() {
+            @Override
+            public void onStats(float measuredFps, int queueDepth, int dropped) {
+                if (binding != null) {
+                    binding.highSpeedStats.setText(getString(R.string.slow_motion_stats, measuredFps, queueDepth, dropped));
+                }
+            }
+
+            @Override
+            public void onRecorded(@Nullable Uri uri) {
+                if (uri != null && getContext() != null) {
+                    Toast.makeText(getContext(), R.string.slow_motion_saved, Toast.LENGTH_SHORT).show();
+                } else if (uri == null && binding != null && isRecording) {
+                    // запись не началась или оборвалась — возвращаем кнопку в исходное состояние
+                    isRecording = false;
+                    binding.recordButton.setBackgroundResource(R.drawable.ic_capture);
+                    setRecordingControls(false);
+                }
+                Log.d(TAG, "Slow-motion recording finished: " + uri);
+            }
+
+            @Override
+            public void onError() {
+                if (getContext() != null) {
+                    Toast.makeText(getContext(), R.string.slow_motion_failed, Toast.LENGTH_SHORT).show();
+                }
+                if (binding != null && isRecording) {
+                    isRecording = false;
+                    binding.recordButton.setBackgroundResource(R.drawable.ic_capture);
+                    setRecordingControls(false);
+                }
+                exitSlowMotion();
+            }
+
+            @Override
+            public void onClosed() {
+                closingSession = null;
+                if (binding != null && highSpeedSession == null) {
+                    startCamera();
+                }
+            }
+        });
+        highSpeedSession = session;
+        setRecordingControls(false);
+
+        if (textureView.isAvailable()) {
+            session.open(textureView.getSurfaceTexture());
+        } else {
+            textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+                @Override
+                public void onSurfaceTextureAvailable(@NonNull SurfaceTexture texture, int width, int height) {
+                    if (highSpeedSession == session) {
+                        session.open(texture);
+                    }
+                }
+
+                @Override
+                public void onSurfaceTextureSizeChanged(@NonNull SurfaceTexture texture, int width, int height) {
+                }
+
+                @Override
+                public boolean onSurfaceTextureDestroyed(@NonNull SurfaceTexture texture) {
+                    return true;
+                }
+
+                @Override
+                public void onSurfaceTextureUpdated(@NonNull SurfaceTexture texture) {
+                }
+            });
+        }
+    }
+
+    /**
+     * Закрывает high-speed сессию (идущая запись дописывается). CameraX снова привязывается
+     * в {@link HighSpeedSession.Listener#onClosed()}, когда сессия отпустит камеру.
+     */
+    private void exitSlowMotion() {
+        if (highSpeedSession == null) {
+            return;
+        }
+        closingSession = highSpeedSession;
+        highSpeedSession.close();
+        highSpeedSession = null;
+        if (binding == null) {
+            return;
+        }
+        binding.highSpeedPreview.setVisibility(View.GONE);
+        binding.previewView.setVisibility(View.VISIBLE);
+        binding.highSpeedStats.setVisibility(View.GONE);
+        binding.slowMotionButton.setText(R.string.slow_motion);
+        setRecordingControls(false);
+    }
+
     /**
      * Переключает между передней и задней камерами.
      * После переключения селектора камеры перезапускает камеру для применения изменений.
@@ -272,6 +566,35 @@ public class VideoFragment extends Fragment {
         startCamera();
     }
 
+    /**
+     * Вызывается, когда фрагмент становится видимым. Подписывается на оценку свободного места
+     * и на смену ступени качества.
+     */
+    @Override
+    public void onStart() {
+        super.onStart();
+        StorageBudget.getInstance(requireContext()).addListener(storageListener);
+        CaptureGovernor.getInstance(requireContext()).addListener(governorListener);
+    }
+
+    /**
+     * Вызывается, когда фрагмент перестает быть видимым. CameraX закрывает камеру сама,
+     * а high-speed сессию нужно закрыть явно, дописав идущую запись.
+     * Заодно прекращается опрос свободного места и отслеживание температуры.
+     */
+    @Override
+    public void onStop() {
+        if (highSpeedSession != null) {
+            if (isRecording) {
+                stopRecording();
+            }
+            exitSlowMotion();
+        }
+        StorageBudget.getInstance(requireContext()).removeListener(storageListener);
+        CaptureGovernor.getInstance(requireContext()).removeListener(governorListener);
+        super.onStop();
+    }
+
     /**
      * Вызывается, когда фрагмент больше не используется.
      * Вызывается после {@link #onStop()} и до {@link #onDetach()}.
@@ -0,0 +1,116 @@
+package com.example.camerapromax.edit;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.view.Surface;
+import androidx.annotation.NonNull;
+
+/**
+ * EGL-обертка над входной поверхностью кодировщика {@link android.media.MediaCodec}.
+ * Кадры рисуются через OpenGL ES прямо в буферы кодировщика, минуя память приложения;
+ * время каждого кадра передается кодировщику через {@link EGLExt#eglPresentationTimeANDROID}.
+ * Все методы вызываются из одного потока — того, в котором создан объект.
+ */
+final class CodecInputSurface {
+
+    // EGL_RECORDABLE_ANDROID: конфигурация, пригодная для записи в видеокодировщик
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private final Surface surface;
+    private EGLDisplay display = EGL14.EGL_NO_DISPLAY;
+    private EGLContext context = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+
+    /**
+     * Создает контекст GLES 2.0 и EGL-поверхность поверх входной поверхности кодировщика.
+     *
+     * @param surface Поверхность из {@link android.media.MediaCodec#createInputSurface()}.
+     */
+    CodecInputSurface(@NonNull Surface surface) {
+        this.surface = surface;
+        display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (display == EGL14.EGL_NO_DISPLAY) {
+            throw new IllegalStateException("No EGL display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+            throw new IllegalStateException("Cannot initialize EGL");
+        }
+
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+        if (!EGL14.eglChooseConfig(display, configAttributes, 0, configs, 0, 1, configCount, 0)
+                || configCount[0] == 0) {
+            throw new IllegalStateException("No recordable EGL config");
+        }
+
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        context = EGL14.eglCreateContext(display, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        checkEglError("eglCreateContext");
+        int[] surfaceAttributes = {EGL14.EGL_NONE};
+        eglSurface = EGL14.eglCreateWindowSurface(display, configs[0], surface, surfaceAttributes, 0);
+        checkEglError("eglCreateWindowSurface");
+    }
+
+    /**
+     * Делает контекст текущим для вызывающего потока.
+     */
+    void makeCurrent() {
+        if (!EGL14.eglMakeCurrent(display, eglSurface, eglSurface, context)) {
+            throw new IllegalStateException("eglMakeCurrent failed");
+        }
+    }
+
+    /**
+     * Задает время кадра, который будет отправлен следующим вызовом {@link #swapBuffers()}.
+     *
+     * @param timeNs Время кадра в наносекундах.
+     */
+    void setPresentationTime(long timeNs) {
+        EGLExt.eglPresentationTimeANDROID(display, eglSurface, timeNs);
+    }
+
+    /**
+     * Отправляет нарисованный кадр кодировщику.
+     */
+    void swapBuffers() {
+        EGL14.eglSwapBuffers(display, eglSurface);
+        checkEglError("eglSwapBuffers");
+    }
+
+    /**
+     * Освобождает EGL-ресурсы и поверхность кодировщика.
+     */
+    void release() {
+        if (display != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroySurface(display, eglSurface);
+            EGL14.eglDestroyContext(display, context);
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(display);
+        }
+        surface.release();
+        display = EGL14.EGL_NO_DISPLAY;
+        context = EGL14.EGL_NO_CONTEXT;
+        eglSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    private static void checkEglError(String operation) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            throw new IllegalStateException(operation + ": EGL error 0x" + Integer.toHexString(error));
+        }
+    }
+}
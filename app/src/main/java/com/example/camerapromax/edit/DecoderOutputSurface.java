@@ -0,0 +1,204 @@
+package com.example.camerapromax.edit;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Выходная поверхность декодера: кадры попадают во внешнюю OES-текстуру через {@link SurfaceTexture}
+ * и рисуются полноэкранным прямоугольником в текущую EGL-поверхность (вход кодировщика).
+ * Масштабирование до размера кодировщика делает GPU при отрисовке, декодированные пиксели
+ * не копируются в память приложения.
+ * <p>
+ * Создается и используется в потоке, где текущим сделан контекст {@link CodecInputSurface}.
+ */
+final class DecoderOutputSurface implements SurfaceTexture.OnFrameAvailableListener {
+
+    private static final long FRAME_TIMEOUT_MS = 2500;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uTexMatrix;\n"
+                    + "attribute vec4 aPosition;\n"
+                    + "attribute vec4 aTexCoord;\n"
+                    + "varying vec2 vTexCoord;\n"
+                    + "void main() {\n"
+                    + "  gl_Position = aPosition;\n"
+                    + "  vTexCoord = (uTexMatrix * aTexCoord).xy;\n"
+                    + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n"
+                    + "precision mediump float;\n"
+                    + "varying vec2 vTexCoord;\n"
+                    + "uniform samplerExternalOES sTexture;\n"
+                    + "void main() {\n"
+                    + "  gl_FragColor = texture2D(sTexture, vTexCoord);\n"
+                    + "}\n";
+
+    // x, y, u, v для двух треугольников полосой
+    private static final float[] QUAD = {
+            -1f, -1f, 0f, 0f,
+            1f, -1f, 1f, 0f,
+            -1f, 1f, 0f, 1f,
+            1f, 1f, 1f, 1f,
+    };
+
+    private final HandlerThread callbackThread = new HandlerThread("DecoderOutputSurface");
+    private final SurfaceTexture surfaceTexture;
+    private final Surface surface;
+    private final FloatBuffer quad;
+    private final float[] texMatrix = new float[16];
+    private final int textureId;
+    private final int program;
+    private final int positionHandle;
+    private final int texCoordHandle;
+    private final int texMatrixHandle;
+
+    private final Object frameLock = new Object();
+    private boolean frameAvailable;
+
+    /**
+     * Создает текстуру, шейдеры и поверхность для декодера.
+     */
+    DecoderOutputSurface() {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        textureId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        program = createProgram();
+        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordHandle = GLES20.glGetAttribLocation(program, "aTexCoord");
+        texMatrixHandle = GLES20.glGetUniformLocation(program, "uTexMatrix");
+
+        quad = ByteBuffer.allocateDirect(QUAD.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        quad.put(QUAD).position(0);
+
+        // у рабочего потока нет Looper, поэтому уведомления о кадрах приходят в отдельный поток
+        callbackThread.start();
+        surfaceTexture = new SurfaceTexture(textureId);
+        surfaceTexture.setOnFrameAvailableListener(this, new Handler(callbackThread.getLooper()));
+        surface = new Surface(surfaceTexture);
+    }
+
+    /**
+     * @return Поверхность, которую нужно передать в {@link android.media.MediaCodec#configure}.
+     */
+    Surface getSurface() {
+        return surface;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture st) {
+        synchronized (frameLock) {
+            frameAvailable = true;
+            frameLock.notifyAll();
+        }
+    }
+
+    /**
+     * Ждет очередной кадр от декодера и загружает его в текстуру.
+     *
+     * @throws IllegalStateException Если кадр не пришел за отведенное время.
+     */
+    void awaitNewImage() {
+        synchronized (frameLock) {
+            long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+            while (!frameAvailable) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IllegalStateException("Decoder frame timeout");
+                }
+                try {
+                    frameLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for frame", e);
+                }
+            }
+            frameAvailable = false;
+        }
+        surfaceTexture.updateTexImage();
+    }
+
+    /**
+     * Рисует последний кадр на всю текущую поверхность.
+     *
+     * @param width  Ширина поверхности кодировщика.
+     * @param height Высота поверхности кодировщика.
+     */
+    void drawImage(int width, int height) {
+        surfaceTexture.getTransformMatrix(texMatrix);
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+
+        quad.position(0);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 16, quad);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        quad.position(2);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 16, quad);
+        GLES20.glEnableVertexAttribArray(texCoordHandle);
+        GLES20.glUniformMatrix4fv(texMatrixHandle, 1, false, texMatrix, 0);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(texCoordHandle);
+    }
+
+    /**
+     * Освобождает текстуру, программу и поверхность.
+     */
+    void release() {
+        surface.release();
+        surfaceTexture.release();
+        GLES20.glDeleteProgram(program);
+        GLES20.glDeleteTextures(1, new int[]{textureId}, 0);
+        callbackThread.quitSafely();
+    }
+
+    private static int createProgram() {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        // шейдеры уже прикреплены к программе и будут удалены вместе с ней
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        if (status[0] != GLES20.GL_TRUE) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new IllegalStateException("Cannot link program: " + log);
+        }
+        return program;
+    }
+
+    private static int loadShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new IllegalStateException("Cannot compile shader: " + log);
+        }
+        return shader;
+    }
+}
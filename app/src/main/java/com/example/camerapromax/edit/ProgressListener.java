@@ -0,0 +1,13 @@
+package com.example.camerapromax.edit;
+
+/**
+ * Слушатель прогресса долгих операций редактирования.
+ */
+public interface ProgressListener {
+    /**
+     * Вызывается в рабочем потоке не чаще одного раза на процент.
+     *
+     * @param fraction Доля выполненной работы от 0 до 1.
+     */
+    void onProgress(float fraction);
+}
@@ -0,0 +1,301 @@
+package com.example.camerapromax.edit;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Собирает кадры таймлапса в MP4 по мере съемки.
+ * <p>
+ * Каждый JPEG сразу уменьшается, переводится в YUV и отдается кодировщику H.264, а закодированные
+ * сэмплы сразу уходят в {@link MediaMuxer}. В памяти держится только текущий кадр, и после остановки
+ * съемки остается дописать хвост кодировщика — видео готово через доли секунды, а не после
+ * повторного чтения всех снимков. Время кадра задается номером кадра, а не временем съемки:
+ * пропущенный снимок не оставляет паузы в ролике.
+ * <p>
+ * Не потокобезопасен: все методы вызываются из одного фонового потока.
+ */
+@RequiresApi(Build.VERSION_CODES.O)
+public final class TimelapseEncoder {
+
+    private static final String TAG = "TimelapseEncoder";
+    private static final String OUTPUT_MIME = "video/avc";
+    private static final long TIMEOUT_US = 10_000;
+    // 0.1 бит на пиксель в кадре: для таймлапса, где соседние кадры сильно различаются, с запасом
+    private static final float BITS_PER_PIXEL = 0.1f;
+
+    private final ContentResolver contentResolver;
+    private final String displayName;
+    private final int maxShortSide;
+    private final int frameRate;
+
+    private Uri uri;
+    private ParcelFileDescriptor descriptor;
+    private MediaCodec encoder;
+    private MediaMuxer muxer;
+    private int muxerTrack = -1;
+    private int width;
+    private int height;
+    private int frames;
+    private int[] argb;
+    private Bitmap scaled;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    /**
+     * Создает сборщик. Файл и кодировщик создаются при первом кадре, когда известен его размер.
+     *
+     * @param contentResolver ContentResolver приложения.
+     * @param displayName     Имя итогового видео.
+     * @param maxShortSide    Наибольшая короткая сторона видео в пикселях.
+     * @param frameRate       Частота кадров ролика.
+     */
+    public TimelapseEncoder(@NonNull ContentResolver contentResolver, @NonNull String displayName,
+                            int maxShortSide, int frameRate) {
+        this.contentResolver = contentResolver;
+        this.displayName = displayName;
+        this.maxShortSide = maxShortSide;
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * Добавляет кадр в конец ролика.
+     *
+     * @param jpeg            Снимок в JPEG.
+     * @param rotationDegrees Поворот снимка; берется из первого кадра и записывается в метаданные видео.
+     * @throws IOException Если кадр не декодируется или видео нельзя записать.
+     */
+    public void addFrame(@NonNull byte[] jpeg, int rotationDegrees) throws IOException {
+        Bitmap bitmap = decode(jpeg);
+        try {
+            if (encoder == null) {
+                start(bitmap.getWidth(), bitmap.getHeight(), rotationDegrees);
+            }
+            Canvas canvas = new Canvas(scaled);
+            canvas.drawBitmap(bitmap, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        } finally {
+            bitmap.recycle();
+        }
+
+        int index = encoder.dequeueInputBuffer(-1);
+        Image image = encoder.getInputImage(index);
+        if (image == null) {
+            throw new IOException("Encoder has no input image");
+        }
+        scaled.getPixels(argb, 0, width, 0, 0, width, height);
+        writeYuv(argb, width, height, image);
+        encoder.queueInputBuffer(index, 0, width * height * 3 / 2, frames * 1_000_000L / frameRate, 0);
+        frames++;
+        drain(false);
+    }
+
+    /**
+     * Дописывает хвост кодировщика, закрывает файл и публикует видео.
+     *
+     * @return URI видео или {@code null}, если не было ни одного кадра.
+     * @throws IOException Если видео нельзя дописать.
+     */
+    @Nullable
+    public Uri finish() throws IOException {
+        if (encoder == null) {
+            return null;
+        }
+        int index = encoder.dequeueInputBuffer(-1);
+        encoder.queueInputBuffer(index, 0, 0, frames * 1_000_000L / frameRate, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        drain(true);
+        Uri result = uri;
+        release();
+        VideoFiles.publish(contentResolver, result);
+        return result;
+    }
+
+    /**
+     * Прерывает сборку и удаляет недописанный файл.
+     */
+    public void cancel() {
+        Uri partial = uri;
+        release();
+        if (partial != null) {
+            contentResolver.delete(partial, null, null);
+        }
+    }
+
+    /**
+     * Получает количество кадров, отданных кодировщику.
+     *
+     * @return Количество кадров.
+     */
+    public int getFrameCount() {
+        return frames;
+    }
+
+    private void start(int sourceWidth, int sourceHeight, int rotationDegrees) throws IOException {
+        float scale = Math.min(1f, (float) maxShortSide / Math.min(sourceWidth, sourceHeight));
+        // кодировщики надежно принимают только размеры, кратные 16
+        width = Math.max(16, Math.round(sourceWidth * scale) / 16 * 16);
+        height = Math.max(16, Math.round(sourceHeight * scale) / 16 * 16);
+        scaled = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        argb = new int[width * height];
+
+        MediaFormat format = MediaFormat.createVideoFormat(OUTPUT_MIME, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, (int) (width * height * frameRate * BITS_PER_PIXEL));
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+
+        uri = VideoFiles.insertPending(contentResolver, displayName);
+        try {
+            descriptor = contentResolver.openFileDescriptor(uri, "rw");
+            if (descriptor == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            muxer = new MediaMuxer(descriptor.getFileDescriptor(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(rotationDegrees);
+            encoder = MediaCodec.createEncoderByType(OUTPUT_MIME);
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+        } catch (IOException | RuntimeException e) {
+            cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * Декодирует JPEG с прореживанием: полный 12-мегапиксельный кадр для ролика 1080p не нужен.
+     */
+    private Bitmap decode(byte[] jpeg) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not a JPEG frame");
+        }
+        int shortSide = Math.min(options.outWidth, options.outHeight);
+        options.inSampleSize = 1;
+        while (shortSide / (options.inSampleSize * 2) >= maxShortSide) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode frame");
+        }
+        return bitmap;
+    }
+
+    private void drain(boolean endOfStream) {
+        while (true) {
+            int index = encoder.dequeueOutputBuffer(bufferInfo, endOfStream ? TIMEOUT_US : 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream) {
+                    return;
+                }
+                continue;
+            }
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                muxerTrack = muxer.addTrack(encoder.getOutputFormat());
+                muxer.start();
+                continue;
+            }
+            if (index < 0) {
+                continue;
+            }
+            ByteBuffer encoded = encoder.getOutputBuffer(index);
+            boolean config = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+            if (!config && bufferInfo.size > 0 && encoded != null && muxerTrack >= 0) {
+                muxer.writeSampleData(muxerTrack, encoded, bufferInfo);
+            }
+            encoder.releaseOutputBuffer(index, false);
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Переводит ARGB в YUV 4:2:0 (BT.601, ограниченный диапазон) прямо в буфер кодировщика.
+     * Раскладка плоскостей (I420 или NV12) берется из шагов {@link Image.Plane}, поэтому код
+     * не зависит от формата конкретного кодировщика.
+     */
+    private static void writeYuv(int[] argb, int width, int height, Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer yBuffer = planes[0].getBuffer();
+        ByteBuffer uBuffer = planes[1].getBuffer();
+        ByteBuffer vBuffer = planes[2].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int yPixelStride = planes[0].getPixelStride();
+        int uRowStride = planes[1].getRowStride();
+        int uPixelStride = planes[1].getPixelStride();
+        int vRowStride = planes[2].getRowStride();
+        int vPixelStride = planes[2].getPixelStride();
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int color = argb[row + x];
+                int r = (color >> 16) & 0xff;
+                int g = (color >> 8) & 0xff;
+                int b = color & 0xff;
+                yBuffer.put(y * yRowStride + x * yPixelStride, (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16));
+                if ((y & 1) == 0 && (x & 1) == 0) {
+                    int cx = x >> 1;
+                    int cy = y >> 1;
+                    uBuffer.put(cy * uRowStride + cx * uPixelStride, (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128));
+                    vBuffer.put(cy * vRowStride + cx * vPixelStride, (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128));
+                }
+            }
+        }
+    }
+
+    private void release() {
+        if (encoder != null) {
+            try {
+                encoder.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Encoder was not running", e);
+            }
+            encoder.release();
+            encoder = null;
+        }
+        if (muxer != null) {
+            try {
+                if (muxerTrack >= 0) {
+                    muxer.stop();
+                }
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Muxer stop failed", e);
+            }
+            muxer.release();
+            muxer = null;
+        }
+        if (descriptor != null) {
+            try {
+                descriptor.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close " + uri, e);
+            }
+            descriptor = null;
+        }
+        if (scaled != null) {
+            scaled.recycle();
+            scaled = null;
+        }
+        uri = null;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.camerapromax.edit;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkContinuation;
+import androidx.work.WorkManager;
+import com.example.camerapromax.gallery.MediaFile;
+import java.util.List;
+
+/**
+ * Очередь сжатия видео на основе WorkManager.
+ * <p>
+ * Все задачи добавляются в одну цепочку с уникальным именем, поэтому видео перекодируются строго
+ * по одному и не борются за аппаратный кодировщик. WorkManager хранит очередь в своей базе,
+ * так что она переживает смерть процесса и перезагрузку устройства.
+ */
+public final class TranscodeQueue {
+
+    /** Имя уникальной цепочки задач сжатия. */
+    public static final String WORK_NAME = "video_transcode";
+
+    /** Короткая сторона для пресета 720p. */
+    public static final int PRESET_720P_SHORT_SIDE = 720;
+    /** Битрейт для пресета 720p. */
+    public static final int PRESET_720P_BITRATE = 4_000_000;
+    /** Короткая сторона для пресета 1080p. */
+    public static final int PRESET_1080P_SHORT_SIDE = 1080;
+    /** Битрейт для пресета 1080p. */
+    public static final int PRESET_1080P_BITRATE = 8_000_000;
+
+    private TranscodeQueue() {
+    }
+
+    /**
+     * Добавляет видео в конец очереди.
+     *
+     * @param context      Контекст.
+     * @param videos       Видео для сжатия; файлы других типов пропускаются.
+     * @param maxShortSide Наибольшая короткая сторона результата в пикселях.
+     * @param bitrate      Целевой битрейт в бит/с.
+     * @return Количество поставленных в очередь видео.
+     */
+    public static int enqueue(@NonNull Context context, @NonNull List<MediaFile> videos, int maxShortSide, int bitrate) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiresBatteryNotLow(true)
+                .setRequiresStorageNotLow(true)
+                .build();
+        WorkManager workManager = WorkManager.getInstance(context);
+        WorkContinuation continuation = null;
+        int count = 0;
+        for (MediaFile video : videos) {
+            if (!video.getType().startsWith("video")) {
+                continue;
+            }
+            OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(TranscodeWorker.class)
+                    .setConstraints(constraints)
+                    .setInputData(new Data.Builder()
+                            .putString(TranscodeWorker.KEY_URI, video.getUri().toString())
+                            .putString(TranscodeWorker.KEY_NAME, video.getName())
+                            .putInt(TranscodeWorker.KEY_MAX_SHORT_SIDE, maxShortSide)
+                            .putInt(TranscodeWorker.KEY_BITRATE, bitrate)
+                            .build())
+                    .addTag(WORK_NAME)
+                    .build();
+            // APPEND_OR_REPLACE: новая пачка встает за текущей, а если предыдущая цепочка сломалась — заменяет её
+            continuation = continuation == null
+                    ? workManager.beginUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+                    : continuation.then(request);
+            count++;
+        }
+        if (continuation != null) {
+            continuation.enqueue();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.camerapromax.edit;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.ServiceInfo;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import androidx.work.Data;
+import androidx.work.ForegroundInfo;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import com.example.camerapromax.R;
+import com.example.camerapromax.gallery.MediaFilter;
+import com.example.camerapromax.metrics.MetricsLog;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Задача очереди сжатия: перекодирует одно видео и заменяет им оригинал.
+ * <p>
+ * Оригинал удаляется только после того, как результат прошел {@link VideoTranscoder#verify(File, long)},
+ * оказался меньше исходного файла и был полностью записан в MediaStore. Ошибка одного видео не
+ * прерывает очередь: задача завершается успешно, а причина пишется в журнал.
+ */
+public class TranscodeWorker extends Worker {
+
+    static final String KEY_URI = "uri";
+    static final String KEY_NAME = "name";
+    static final String KEY_MAX_SHORT_SIDE = "max_short_side";
+    static final String KEY_BITRATE = "bitrate";
+    /** Ключ прогресса задачи в {@link androidx.work.WorkInfo#getProgress()}, от 0 до 100. */
+    public static final String KEY_PROGRESS = "progress";
+
+    private static final String TAG = "TranscodeWorker";
+    private static final String CHANNEL_ID = "transcode";
+    private static final int NOTIFICATION_ID = 3101;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    /**
+     * Создает задачу. Вызывается WorkManager.
+     *
+     * @param context Контекст приложения.
+     * @param params  Параметры задачи.
+     */
+    public TranscodeWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Перекодирует видео из входных данных задачи.
+     *
+     * @return Результат задачи.
+     */
+    @NonNull
+    @Override
+    public Result doWork() {
+        Data input = getInputData();
+        String uriString = input.getString(KEY_URI);
+        String name = input.getString(KEY_NAME);
+        if (uriString == null) {
+            return Result.success();
+        }
+        Uri source = Uri.parse(uriString);
+        ContentResolver resolver = getApplicationContext().getContentResolver();
+        // процесс мог быть убит после публикации результата, но до завершения задачи
+        if (!exists(resolver, source)) {
+            Log.i(TAG, "Source already gone: " + source);
+            return Result.success();
+        }
+
+        // перекодирование длинного видео легко занимает больше 10 минут, отведенных обычной задаче
+        setForegroundAsync(createForegroundInfo(name, 0));
+
+        File dir = new File(getApplicationContext().getCacheDir(), "transcode");
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        File output = new File(dir, getId() + ".mp4");
+        try {
+            final int[] lastPercent = {0};
+            VideoTranscoder.Stats stats = new VideoTranscoder(resolver).transcode(source, output,
+                    input.getInt(KEY_MAX_SHORT_SIDE, TranscodeQueue.PRESET_720P_SHORT_SIDE),
+                    input.getInt(KEY_BITRATE, TranscodeQueue.PRESET_720P_BITRATE),
+                    fraction -> {
+                        int percent = (int) (fraction * 100);
+                        if (percent != lastPercent[0]) {
+                            lastPercent[0] = percent;
+                            setProgressAsync(new Data.Builder().putInt(KEY_PROGRESS, percent).build());
+                            setForegroundAsync(createForegroundInfo(name, percent));
+                        }
+                    },
+                    cancelled);
+            if (stats == null) {
+                Log.i(TAG, "Already within target, skipped: " + source);
+                return Result.success();
+            }
+            long outputBytes = output.length();
+            recordThroughput(stats, outputBytes);
+
+            if (!VideoTranscoder.verify(output, stats.durationUs)) {
+                Log.e(TAG, "Output failed verification, original kept: " + source);
+                return Result.success();
+            }
+            if (outputBytes >= stats.inputBytes) {
+                Log.i(TAG, "Output is not smaller, original kept: " + source);
+                return Result.success();
+            }
+            replaceOriginal(resolver, source, output, name != null ? name : output.getName());
+            return Result.success();
+        } catch (CancellationException e) {
+            // WorkManager запустит задачу заново, если она была остановлена системой
+            return Result.retry();
+        } catch (Exception e) {
+            Log.e(TAG, "Transcode failed for " + source, e);
+            return Result.success();
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            output.delete();
+        }
+    }
+
+    /**
+     * Вызывается, когда WorkManager останавливает задачу. Прерывает перекодирование.
+     */
+    @Override
+    public void onStopped() {
+        super.onStopped();
+        cancelled.set(true);
+    }
+
+    /**
+     * Записывает проверенный результат новой записью MediaStore и только затем удаляет оригинал.
+     * Новая запись создается в папке оригинала, с его временем съемки и под свободным именем:
+     * файл с тем же именем в той же папке — это сам оригинал, и открытие его на запись обнулило бы его.
+     */
+    private static void replaceOriginal(ContentResolver resolver, Uri source, File output, String name) throws IOException {
+        String relativeDir = MediaFilter.APP_VIDEO_DIR;
+        long dateTaken = 0;
+        String location = Build.VERSION.SDK_INT > Build.VERSION_CODES.P
+                ? MediaStore.MediaColumns.RELATIVE_PATH : MediaStore.MediaColumns.DATA;
+        try (Cursor cursor = resolver.query(source, new String[]{location, MediaStore.Video.VideoColumns.DATE_TAKEN},
+                null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                String dir = sourceDirectory(cursor.getString(0));
+                if (dir != null) {
+                    relativeDir = dir;
+                }
+                dateTaken = cursor.getLong(1);
+            }
+        }
+        Uri target = VideoFiles.insertPending(resolver, name, relativeDir, dateTaken);
+        boolean copied = false;
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(target, "w")) {
+            if (descriptor == null) {
+                throw new FileNotFoundException("Cannot open " + target);
+            }
+            try (FileChannel in = new FileInputStream(output).getChannel();
+                 FileChannel out = new FileOutputStream(descriptor.getFileDescriptor()).getChannel()) {
+                long position = 0;
+                long size = in.size();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+            copied = true;
+        } finally {
+            if (!copied) {
+                resolver.delete(target, null, null);
+            }
+        }
+        VideoFiles.publish(resolver, target);
+        try {
+            resolver.delete(source, null, null);
+        } catch (SecurityException e) {
+            // чужой файл (например, после переустановки) без подтверждения пользователя не удалить
+            Log.w(TAG, "Cannot delete original, both copies kept: " + source, e);
+        }
+    }
+
+    /**
+     * Переводит путь оригинала в папку относительно корня общего хранилища.
+     *
+     * @param location {@code RELATIVE_PATH} на Android 10+ или абсолютный {@code DATA} до него.
+     * @return Папка или {@code null}, если оригинал лежит вне общего хранилища (например, на SD-карте).
+     */
+    @SuppressWarnings("deprecation")
+    private static String sourceDirectory(String location) {
+        if (location == null || location.isEmpty()) {
+            return null;
+        }
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.P) {
+            return location;
+        }
+        File parent = new File(location).getParentFile();
+        String root = Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator;
+        if (parent == null || !parent.getAbsolutePath().startsWith(root)) {
+            return null;
+        }
+        return parent.getAbsolutePath().substring(root.length());
+    }
+
+    private static boolean exists(ContentResolver resolver, Uri uri) {
+        try (Cursor cursor = resolver.query(uri, new String[]{BaseColumns._ID}, null, null, null)) {
+            return cursor != null && cursor.moveToFirst();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void recordThroughput(VideoTranscoder.Stats stats, long outputBytes) {
+        double seconds = Math.max(1, stats.elapsedMs) / 1000.0;
+        MetricsLog.record("transcode", String.format(Locale.US,
+                "frames=%d elapsed_ms=%d fps=%.1f realtime=%.2fx in_mb=%.1f out_mb=%.1f in_mb_s=%.2f",
+                stats.frames, stats.elapsedMs, stats.frames / seconds,
+                stats.durationUs / 1_000_000.0 / seconds,
+                stats.inputBytes / 1048576.0, outputBytes / 1048576.0,
+                stats.inputBytes / 1048576.0 / seconds));
+    }
+
+    private ForegroundInfo createForegroundInfo(String name, int percent) {
+        Context context = getApplicationContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = context.getSystemService(NotificationManager.class);
+            if (manager.getNotificationChannel(CHANNEL_ID) == null) {
+                manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                        context.getString(R.string.compress_channel), NotificationManager.IMPORTANCE_LOW));
+            }
+        }
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_upload)
+                .setContentTitle(context.getString(R.string.compressing))
+                .setContentText(name)
+                .setProgress(100, percent, false)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return new ForegroundInfo(NOTIFICATION_ID, builder.build(), ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        }
+        return new ForegroundInfo(NOTIFICATION_ID, builder.build());
+    }
+}
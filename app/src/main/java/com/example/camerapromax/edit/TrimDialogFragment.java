@@ -0,0 +1,195 @@
+package com.example.camerapromax.edit;
+
+import android.app.Dialog;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.View;
+import android.widget.Button;
+import android.widget.Toast;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.appcompat.app.AlertDialog;
+import androidx.core.content.ContextCompat;
+import androidx.fragment.app.DialogFragment;
+import androidx.fragment.app.FragmentActivity;
+import com.example.camerapromax.R;
+import com.example.camerapromax.databinding.DialogTrimBinding;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Диалог обрезки видео: выбор диапазона ползунком и выполнение {@link VideoTrimmer} с прогрессом.
+ * Закрытие диалога во время обрезки отменяет её, недописанный файл удаляется.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public class TrimDialogFragment extends DialogFragment {
+
+    /** Тег, под которым диалог добавляется в FragmentManager. */
+    public static final String TAG = "TrimDialogFragment";
+
+    private static final String ARG_URI = "uri";
+    private static final String ARG_NAME = "name";
+    private static final String ARG_DURATION_MS = "duration_ms";
+    private static final String FILENAME_FORMAT = "yyyy-MM-dd-HH-mm-ss-SSS";
+
+    private DialogTrimBinding binding;
+    private final ExecutorService trimExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private boolean isTrimming;
+
+    /**
+     * Создает диалог обрезки.
+     *
+     * @param uri        URI видео.
+     * @param name       Имя исходного файла; из него строится имя результата.
+     * @param durationMs Длительность видео в миллисекундах.
+     * @return Новый диалог.
+     */
+    public static TrimDialogFragment newInstance(@NonNull Uri uri, @Nullable String name, long durationMs) {
+        Bundle args = new Bundle();
+        args.putParcelable(ARG_URI, uri);
+        args.putString(ARG_NAME, name);
+        args.putLong(ARG_DURATION_MS, durationMs);
+        TrimDialogFragment fragment = new TrimDialogFragment();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    /**
+     * Создает диалог с ползунком диапазона.
+     *
+     * @param savedInstanceState Сохраненное состояние или null.
+     * @return Диалог.
+     */
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(@Nullable Bundle savedInstanceState) {
+        binding = DialogTrimBinding.inflate(getLayoutInflater());
+        long durationMs = requireArguments().getLong(ARG_DURATION_MS);
+        float durationSec = Math.max(1f, durationMs / 1000f);
+        binding.trimSlider.setValueTo(durationSec);
+        binding.trimSlider.setValues(Arrays.asList(0f, durationSec));
+        binding.trimSlider.setLabelFormatter(value -> DateUtils.formatElapsedTime((long) value));
+        binding.trimSlider.addOnChangeListener((slider, value, fromUser) -> updateRangeText());
+        updateRangeText();
+
+        AlertDialog dialog = new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.trim_video)
+                .setView(binding.getRoot())
+                .setPositiveButton(R.string.trim, null)
+                .setNegativeButton(android.R.string.cancel, null)
+                .create();
+        // своя кнопка «Обрезать», чтобы диалог не закрывался, пока идет обрезка
+        dialog.setOnShowListener(d -> {
+            Button trimButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
+            trimButton.setOnClickListener(v -> startTrim(trimButton));
+        });
+        return dialog;
+    }
+
+    private void updateRangeText() {
+        List<Float> values = binding.trimSlider.getValues();
+        binding.trimRangeText.setText(getString(R.string.trim_range,
+                DateUtils.formatElapsedTime(values.get(0).longValue()),
+                DateUtils.formatElapsedTime(values.get(1).longValue())));
+    }
+
+    /**
+     * Запускает обрезку выбранного диапазона в фоне.
+     */
+    private void startTrim(Button trimButton) {
+        if (isTrimming) {
+            return;
+        }
+        isTrimming = true;
+        trimButton.setEnabled(false);
+        binding.trimSlider.setEnabled(false);
+        binding.trimProgress.setVisibility(View.VISIBLE);
+
+        Bundle args = requireArguments();
+        final Uri source = args.getParcelable(ARG_URI);
+        final String displayName = outputName(args.getString(ARG_NAME));
+        List<Float> values = binding.trimSlider.getValues();
+        final long startUs = (long) (values.get(0) * 1_000_000L);
+        final long endUs = (long) (values.get(1) * 1_000_000L);
+        final ContentResolver resolver = requireContext().getContentResolver();
+        final Context appContext = requireContext().getApplicationContext();
+        final Executor mainExecutor = ContextCompat.getMainExecutor(appContext);
+
+        trimExecutor.execute(() -> {
+            Uri result = null;
+            try {
+                result = new VideoTrimmer(resolver).trim(source, displayName, startUs, endUs,
+                        fraction -> mainExecutor.execute(() -> {
+                            if (binding != null) {
+                                binding.trimProgress.setProgressCompat((int) (fraction * 100), true);
+                            }
+                        }),
+                        cancelled);
+            } catch (CancellationException e) {
+                return;
+            } catch (Exception e) {
+                Log.e(TAG, "Trim failed for " + source, e);
+            }
+            final boolean success = result != null;
+            mainExecutor.execute(() -> {
+                // После поворота экрана этот экземпляр уже отсоединен, но результат все равно
+                // показываем через контекст приложения.
+                Toast.makeText(appContext, success ? R.string.trim_done : R.string.trim_failed,
+                        Toast.LENGTH_SHORT).show();
+                if (isAdded()) {
+                    dismissAllowingStateLoss();
+                }
+            });
+        });
+    }
+
+    /**
+     * Строит имя результата из имени исходного файла и текущего времени.
+     */
+    private static String outputName(@Nullable String sourceName) {
+        String base = sourceName != null ? sourceName : "video";
+        int dot = base.lastIndexOf('.');
+        if (dot > 0) {
+            base = base.substring(0, dot);
+        }
+        String stamp = new SimpleDateFormat(FILENAME_FORMAT, Locale.US).format(System.currentTimeMillis());
+        return base + "-trim-" + stamp + ".mp4";
+    }
+
+    /**
+     * Вызывается, когда представление диалога уничтожается. Обнуляет привязку.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        binding = null;
+    }
+
+    /**
+     * Вызывается, когда диалог больше не используется. Отменяет незавершенную обрезку,
+     * если диалог закрыт пользователем; при смене конфигурации обрезка доводится до конца.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        FragmentActivity activity = getActivity();
+        if (activity == null || !activity.isChangingConfigurations()) {
+            cancelled.set(true);
+        }
+        trimExecutor.shutdown();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.camerapromax.edit;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.example.camerapromax.gallery.MediaFilter;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Общие операции с видеофайлами, которые создают инструменты редактирования и замедленная съемка.
+ */
+public final class VideoFiles {
+
+    private static final String TAG = "VideoFiles";
+
+    private VideoFiles() {
+    }
+
+    /**
+     * Создает пустую запись видео в папке приложения, той же, куда пишет {@code VideoFragment}.
+     * На Android 10+ запись скрыта флагом {@code IS_PENDING}, пока не будет вызван
+     * {@link #publish(ContentResolver, Uri)}.
+     *
+     * @param contentResolver ContentResolver приложения.
+     * @param displayName     Имя файла.
+     * @return URI новой записи.
+     * @throws IOException Если запись не удалось создать.
+     */
+    @NonNull
+    public static Uri insertPending(@NonNull ContentResolver contentResolver, @NonNull String displayName) throws IOException {
+        return insertPending(contentResolver, displayName, MediaFilter.APP_VIDEO_DIR, 0);
+    }
+
+    /**
+     * Создает пустую запись видео в заданной папке. Имя файла не совпадет с уже существующим:
+     * новая запись никогда не указывает на файл другой записи.
+     *
+     * @param contentResolver ContentResolver приложения.
+     * @param displayName     Имя файла.
+     * @param relativeDir     Папка относительно корня общего хранилища.
+     * @param dateTaken       Время съемки в миллисекундах или 0, чтобы не задавать его.
+     * @return URI новой записи.
+     * @throws IOException Если запись не удалось создать.
+     */
+    @NonNull
+    public static Uri insertPending(@NonNull ContentResolver contentResolver, @NonNull String displayName,
+                                    @NonNull String relativeDir, long dateTaken) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, displayName);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, "video/mp4");
+        if (dateTaken > 0) {
+            values.put(MediaStore.Video.VideoColumns.DATE_TAKEN, dateTaken);
+        }
+        MediaFilter.putLocation(values, relativeDir, displayName);
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.P) {
+            values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        }
+        Uri uri = contentResolver.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) {
+            throw new IOException("Cannot create MediaStore entry " + displayName);
+        }
+        return uri;
+    }
+
+    /**
+     * Снимает флаг {@code IS_PENDING}, делая файл видимым для других приложений.
+     *
+     * @param contentResolver ContentResolver приложения.
+     * @param uri             URI из {@link #insertPending(ContentResolver, String)}.
+     */
+    public static void publish(@NonNull ContentResolver contentResolver, @NonNull Uri uri) {
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.P) {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+            contentResolver.update(uri, values, null, null);
+        }
+    }
+
+    /**
+     * Читает поворот видео из метаданных, чтобы сохранить его в результате.
+     *
+     * @param descriptor Открытый файл видео.
+     * @return Поворот в градусах или 0, если его не удалось прочитать.
+     */
+    static int readRotation(@NonNull FileDescriptor descriptor) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(descriptor);
+            String rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+            return rotation != null ? Integer.parseInt(rotation) : 0;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot read rotation", e);
+            return 0;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.w(TAG, "Cannot release retriever", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.camerapromax.edit;
+
+import android.content.ContentResolver;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Перекодирование видео аппаратным {@link MediaCodec} с меньшим битрейтом и разрешением.
+ * <p>
+ * Видео идет по пути Surface → Surface: декодер выводит кадры в {@link DecoderOutputSurface},
+ * GPU масштабирует их в {@link CodecInputSurface} кодировщика, и ни один кадр не копируется в память
+ * приложения. Звук не перекодируется — сжатые сэмплы копируются как есть и перемежаются с видео
+ * по времени. Результат пишется во временный файл; публикует его вызывающая сторона после
+ * {@link #verify(File, long)}.
+ */
+final class VideoTranscoder {
+
+    private static final String TAG = "VideoTranscoder";
+    private static final String OUTPUT_MIME = "video/avc";
+    private static final long TIMEOUT_US = 10_000;
+    private static final int DEFAULT_FRAME_RATE = 30;
+    private static final int AUDIO_BUFFER_SIZE = 256 * 1024;
+
+    private final ContentResolver contentResolver;
+
+    /**
+     * Итог перекодирования.
+     */
+    static final class Stats {
+        /** Количество закодированных кадров. */
+        final int frames;
+        /** Длительность исходного видео в микросекундах. */
+        final long durationUs;
+        /** Размер исходного файла в байтах. */
+        final long inputBytes;
+        /** Затраченное время в миллисекундах. */
+        final long elapsedMs;
+
+        Stats(int frames, long durationUs, long inputBytes, long elapsedMs) {
+            this.frames = frames;
+            this.durationUs = durationUs;
+            this.inputBytes = inputBytes;
+            this.elapsedMs = elapsedMs;
+        }
+    }
+
+    VideoTranscoder(@NonNull ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Перекодирует видео во временный файл. Блокирует поток; вызывается только в фоне.
+     *
+     * @param source       URI исходного видео.
+     * @param output       Файл результата; перезаписывается.
+     * @param maxShortSide Наибольшая короткая сторона результата в пикселях.
+     * @param bitrate      Целевой битрейт видео в бит/с.
+     * @param listener     Слушатель прогресса или {@code null}.
+     * @param cancelled    Флаг отмены; проверяется на каждой итерации.
+     * @return Статистика или {@code null}, если видео уже не больше цели и перекодировать нечего.
+     * @throws IOException           Если файл нельзя прочитать или записать.
+     * @throws CancellationException Если работа отменена.
+     */
+    @Nullable
+    Stats transcode(@NonNull Uri source, @NonNull File output, int maxShortSide, int bitrate,
+                    @Nullable ProgressListener listener, @NonNull AtomicBoolean cancelled) throws IOException {
+        long startMs = SystemClock.elapsedRealtime();
+        MediaExtractor videoExtractor = new MediaExtractor();
+        MediaExtractor audioExtractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        MediaCodec encoder = null;
+        CodecInputSurface inputSurface = null;
+        DecoderOutputSurface outputSurface = null;
+        MediaMuxer muxer = null;
+        boolean muxerStarted = false;
+
+        try (ParcelFileDescriptor descriptor = contentResolver.openFileDescriptor(source, "r")) {
+            if (descriptor == null) {
+                throw new FileNotFoundException("Cannot open " + source);
+            }
+            long inputBytes = descriptor.getStatSize();
+            videoExtractor.setDataSource(descriptor.getFileDescriptor());
+            int videoTrack = selectTrack(videoExtractor, "video/");
+            if (videoTrack < 0) {
+                throw new IOException("No video track in " + source);
+            }
+            MediaFormat inputFormat = videoExtractor.getTrackFormat(videoTrack);
+            int width = inputFormat.getInteger(MediaFormat.KEY_WIDTH);
+            int height = inputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+            long durationUs = inputFormat.containsKey(MediaFormat.KEY_DURATION)
+                    ? inputFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+
+            // выигрыша не будет: видео уже не больше цели ни по размеру, ни по битрейту
+            long sourceBitrate = durationUs > 0 ? inputBytes * 8 * 1_000_000L / durationUs : Long.MAX_VALUE;
+            if (Math.min(width, height) <= maxShortSide && sourceBitrate <= bitrate) {
+                return null;
+            }
+
+            float scale = Math.min(1f, (float) maxShortSide / Math.min(width, height));
+            // кодировщики надежно принимают только размеры, кратные 16
+            int outWidth = Math.max(16, Math.round(width * scale) / 16 * 16);
+            int outHeight = Math.max(16, Math.round(height * scale) / 16 * 16);
+            int frameRate = inputFormat.containsKey(MediaFormat.KEY_FRAME_RATE)
+                    ? inputFormat.getInteger(MediaFormat.KEY_FRAME_RATE) : DEFAULT_FRAME_RATE;
+
+            MediaFormat encoderFormat = MediaFormat.createVideoFormat(OUTPUT_MIME, outWidth, outHeight);
+            encoderFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            encoderFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+            encoderFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+            encoderFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+
+            encoder = MediaCodec.createEncoderByType(OUTPUT_MIME);
+            encoder.configure(encoderFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = new CodecInputSurface(encoder.createInputSurface());
+            inputSurface.makeCurrent();
+            encoder.start();
+
+            outputSurface = new DecoderOutputSurface();
+            decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                // иначе декодер отдаст уже повернутые кадры, а поворот еще раз запишется в заголовок MP4:
+                // единственным поворотом должна остаться подсказка muxer'а
+                inputFormat.setInteger(MediaFormat.KEY_ROTATION, 0);
+            }
+            decoder.configure(inputFormat, outputSurface.getSurface(), null, 0);
+            decoder.start();
+
+            audioExtractor.setDataSource(descriptor.getFileDescriptor());
+            int audioTrack = selectTrack(audioExtractor, "audio/");
+            MediaFormat audioFormat = audioTrack >= 0 ? audioExtractor.getTrackFormat(audioTrack) : null;
+
+            muxer = new MediaMuxer(output.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(VideoFiles.readRotation(descriptor.getFileDescriptor()));
+            int muxerVideoTrack = -1;
+            int muxerAudioTrack = -1;
+
+            ByteBuffer audioBuffer = ByteBuffer.allocateDirect(AUDIO_BUFFER_SIZE);
+            MediaCodec.BufferInfo decoderInfo = new MediaCodec.BufferInfo();
+            MediaCodec.BufferInfo encoderInfo = new MediaCodec.BufferInfo();
+            MediaCodec.BufferInfo audioInfo = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean decoderDone = false;
+            boolean outputDone = false;
+            boolean audioDone = audioFormat == null;
+            int frames = 0;
+            int lastPercent = -1;
+
+            while (!outputDone) {
+                if (cancelled.get()) {
+                    throw new CancellationException("Transcode cancelled");
+                }
+
+                // 1. сжатые видеосэмплы → декодер
+                if (!inputDone) {
+                    int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (index >= 0) {
+                        ByteBuffer buffer = decoder.getInputBuffer(index);
+                        int size = buffer != null ? videoExtractor.readSampleData(buffer, 0) : -1;
+                        if (size < 0) {
+                            decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            decoder.queueInputBuffer(index, 0, size, videoExtractor.getSampleTime(), 0);
+                            videoExtractor.advance();
+                        }
+                    }
+                }
+
+                // 2. кадр декодера → текстура → поверхность кодировщика
+                if (!decoderDone) {
+                    int index = decoder.dequeueOutputBuffer(decoderInfo, TIMEOUT_US);
+                    if (index >= 0) {
+                        boolean render = decoderInfo.size > 0;
+                        decoder.releaseOutputBuffer(index, render);
+                        if (render) {
+                            outputSurface.awaitNewImage();
+                            outputSurface.drawImage(outWidth, outHeight);
+                            inputSurface.setPresentationTime(decoderInfo.presentationTimeUs * 1000);
+                            inputSurface.swapBuffers();
+                        }
+                        if ((decoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            encoder.signalEndOfInputStream();
+                            decoderDone = true;
+                        }
+                    }
+                }
+
+                // 3. выход кодировщика → muxer, звук дописывается до времени последнего кадра
+                while (true) {
+                    int index = encoder.dequeueOutputBuffer(encoderInfo, TIMEOUT_US);
+                    if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                        break;
+                    }
+                    if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        muxerVideoTrack = muxer.addTrack(encoder.getOutputFormat());
+                        if (audioFormat != null) {
+                            muxerAudioTrack = muxer.addTrack(audioFormat);
+                        }
+                        muxer.start();
+                        muxerStarted = true;
+                        continue;
+                    }
+                    if (index < 0) {
+                        continue;
+                    }
+                    ByteBuffer encoded = encoder.getOutputBuffer(index);
+                    boolean config = (encoderInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                    if (!config && encoderInfo.size > 0 && encoded != null && muxerStarted) {
+                        muxer.writeSampleData(muxerVideoTrack, encoded, encoderInfo);
+                        frames++;
+                        if (!audioDone) {
+                            audioDone = copyAudio(audioExtractor, muxer, muxerAudioTrack, audioBuffer, audioInfo,
+                                    encoderInfo.presentationTimeUs);
+                        }
+                        if (listener != null && durationUs > 0) {
+                            int percent = (int) Math.min(100, 100 * encoderInfo.presentationTimeUs / durationUs);
+                            if (percent != lastPercent) {
+                                lastPercent = percent;
+                                listener.onProgress(percent / 100f);
+                            }
+                        }
+                    }
+                    encoder.releaseOutputBuffer(index, false);
+                    if ((encoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        outputDone = true;
+                        break;
+                    }
+                }
+            }
+            if (!audioDone && muxerStarted) {
+                copyAudio(audioExtractor, muxer, muxerAudioTrack, audioBuffer, audioInfo, Long.MAX_VALUE);
+            }
+
+            muxer.stop();
+            muxerStarted = false;
+            return new Stats(frames, durationUs, inputBytes, SystemClock.elapsedRealtime() - startMs);
+        } finally {
+            videoExtractor.release();
+            audioExtractor.release();
+            if (decoder != null) {
+                releaseCodec(decoder);
+            }
+            if (encoder != null) {
+                releaseCodec(encoder);
+            }
+            if (outputSurface != null) {
+                outputSurface.release();
+            }
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+            if (muxer != null) {
+                if (muxerStarted) {
+                    try {
+                        muxer.stop();
+                    } catch (IllegalStateException e) {
+                        Log.w(TAG, "Muxer stop failed", e);
+                    }
+                }
+                muxer.release();
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что результат читается и по длительности совпадает с исходным видео.
+     *
+     * @param file               Файл результата.
+     * @param expectedDurationUs Длительность исходного видео в микросекундах.
+     * @return {@code true}, если результатом можно заменить исходный файл.
+     */
+    static boolean verify(@NonNull File file, long expectedDurationUs) {
+        if (!file.isFile() || file.length() == 0) {
+            return false;
+        }
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getPath());
+            int track = selectTrack(extractor, "video/");
+            if (track < 0) {
+                return false;
+            }
+            MediaFormat format = extractor.getTrackFormat(track);
+            if (expectedDurationUs > 0) {
+                if (!format.containsKey(MediaFormat.KEY_DURATION)) {
+                    return false;
+                }
+                // допускаем расхождение в последний кадр и округление контейнера
+                long tolerance = Math.max(1_000_000L, expectedDurationUs / 20);
+                if (Math.abs(format.getLong(MediaFormat.KEY_DURATION) - expectedDurationUs) > tolerance) {
+                    return false;
+                }
+            }
+            // первый сэмпл должен быть опорным кадром, иначе файл не начнет воспроизводиться
+            return extractor.getSampleTime() >= 0
+                    && (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot verify " + file, e);
+            return false;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * Копирует сэмплы звука с временем не позже {@code untilUs}.
+     *
+     * @return {@code true}, если звук закончился.
+     */
+    private static boolean copyAudio(MediaExtractor extractor, MediaMuxer muxer, int muxerTrack,
+                                     ByteBuffer buffer, MediaCodec.BufferInfo info, long untilUs) {
+        while (true) {
+            long timeUs = extractor.getSampleTime();
+            if (timeUs < 0) {
+                return true;
+            }
+            if (timeUs > untilUs) {
+                return false;
+            }
+            buffer.clear();
+            int size = extractor.readSampleData(buffer, 0);
+            if (size < 0) {
+                return true;
+            }
+            info.offset = 0;
+            info.size = size;
+            info.presentationTimeUs = timeUs;
+            info.flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                    ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            muxer.writeSampleData(muxerTrack, buffer, info);
+            extractor.advance();
+        }
+    }
+
+    /**
+     * Выбирает первую дорожку с MIME-типом, начинающимся с {@code prefix}.
+     *
+     * @return Индекс дорожки или -1.
+     */
+    private static int selectTrack(MediaExtractor extractor, String prefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(prefix)) {
+                extractor.selectTrack(i);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void releaseCodec(MediaCodec codec) {
+        try {
+            codec.stop();
+        } catch (IllegalStateException e) {
+            // кодек мог не успеть запуститься
+            Log.w(TAG, "Codec stop failed", e);
+        }
+        codec.release();
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.camerapromax.edit;
+
+import android.content.ContentResolver;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Обрезка видео без перекодирования.
+ * <p>
+ * Сжатые сэмплы H.264/AAC копируются из {@link MediaExtractor} в {@link MediaMuxer} как есть:
+ * начало сдвигается назад к ближайшему опорному кадру, поэтому декодировать ничего не нужно,
+ * и обрезка файла любого размера идет со скоростью копирования хранилища. Все сэмплы проходят
+ * через один переиспользуемый direct {@link ByteBuffer}.
+ * <p>
+ * Результат записывается новой записью MediaStore; на Android 10+ она скрыта флагом
+ * {@code IS_PENDING}, пока файл не будет дописан. Методы блокируют поток и вызываются только в фоне.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O) // MediaMuxer с FileDescriptor
+public class VideoTrimmer {
+
+    private static final String TAG = "VideoTrimmer";
+    /** Размер буфера, если контейнер не сообщает максимальный размер сэмпла. */
+    private static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final ContentResolver contentResolver;
+
+    /**
+     * Создает обрезчик.
+     *
+     * @param contentResolver ContentResolver приложения.
+     */
+    public VideoTrimmer(@NonNull ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Копирует фрагмент видео в новый файл MediaStore.
+     *
+     * @param source      URI исходного видео.
+     * @param displayName Имя нового файла.
+     * @param startUs     Желаемое начало в микросекундах; фактическое начало — ближайший опорный кадр не позже него.
+     * @param endUs       Конец фрагмента в микросекундах.
+     * @param listener    Слушатель прогресса или {@code null}.
+     * @param cancelled   Флаг отмены; проверяется на каждом сэмпле.
+     * @return URI созданного видео.
+     * @throws IOException           Если исходный файл нельзя прочитать или результат нельзя записать.
+     * @throws CancellationException Если обрезка отменена; недописанный файл удаляется.
+     */
+    @NonNull
+    public Uri trim(@NonNull Uri source, @NonNull String displayName, long startUs, long endUs,
+                    @Nullable ProgressListener listener, @NonNull AtomicBoolean cancelled) throws IOException {
+        Uri output = null;
+        boolean success = false;
+        MediaExtractor extractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        ParcelFileDescriptor outputDescriptor = null;
+        boolean muxerStarted = false;
+
+        try (ParcelFileDescriptor inputDescriptor = contentResolver.openFileDescriptor(source, "r")) {
+            if (inputDescriptor == null) {
+                throw new FileNotFoundException("Cannot open " + source);
+            }
+            extractor.setDataSource(inputDescriptor.getFileDescriptor());
+
+            output = VideoFiles.insertPending(contentResolver, displayName);
+            outputDescriptor = contentResolver.openFileDescriptor(output, "rw");
+            if (outputDescriptor == null) {
+                throw new FileNotFoundException("Cannot open " + output);
+            }
+            muxer = new MediaMuxer(outputDescriptor.getFileDescriptor(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(VideoFiles.readRotation(inputDescriptor.getFileDescriptor()));
+
+            // индекс дорожки extractor → индекс дорожки muxer, -1 для дорожек, которые не копируются
+            int trackCount = extractor.getTrackCount();
+            int[] muxerTracks = new int[trackCount];
+            int videoTrack = -1;
+            int bufferSize = DEFAULT_BUFFER_SIZE;
+            for (int i = 0; i < trackCount; i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                muxerTracks[i] = -1;
+                if (mime == null || !(mime.startsWith("video/") || mime.startsWith("audio/"))) {
+                    continue;
+                }
+                if (mime.startsWith("video/") && videoTrack == -1) {
+                    videoTrack = i;
+                }
+                if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                    bufferSize = Math.max(bufferSize, format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+                }
+                extractor.selectTrack(i);
+                muxerTracks[i] = muxer.addTrack(format);
+            }
+            if (videoTrack == -1) {
+                throw new IOException("No video track in " + source);
+            }
+
+            // начало сдвигаем к опорному кадру не позже startUs — с него декодер сможет начать без предыдущих кадров
+            extractor.seekTo(startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            long firstUs = -1;
+            for (int i = 0; i < 64 && firstUs < 0; i++) {
+                if (extractor.getSampleTrackIndex() == videoTrack) {
+                    firstUs = extractor.getSampleTime();
+                } else if (!extractor.advance()) {
+                    break;
+                }
+            }
+            if (firstUs < 0) {
+                firstUs = Math.max(0, startUs);
+            }
+            extractor.seekTo(firstUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+            muxer.start();
+            muxerStarted = true;
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean[] finished = new boolean[trackCount];
+            int remainingTracks = 0;
+            for (int muxerTrack : muxerTracks) {
+                if (muxerTrack >= 0) {
+                    remainingTracks++;
+                }
+            }
+            long spanUs = Math.max(1, endUs - firstUs);
+            int lastPercent = -1;
+
+            while (remainingTracks > 0) {
+                if (cancelled.get()) {
+                    throw new CancellationException("Trim cancelled");
+                }
+                int track = extractor.getSampleTrackIndex();
+                if (track < 0) {
+                    break;
+                }
+                long timeUs = extractor.getSampleTime();
+                if (muxerTracks[track] < 0 || finished[track] || timeUs < firstUs) {
+                    // аудио до первого видеокадра и уже завершенные дорожки пропускаем
+                    extractor.advance();
+                    continue;
+                }
+                if (timeUs > endUs) {
+                    finished[track] = true;
+                    remainingTracks--;
+                    extractor.advance();
+                    continue;
+                }
+
+                buffer.clear();
+                int size = extractor.readSampleData(buffer, 0);
+                if (size < 0) {
+                    break;
+                }
+                info.offset = 0;
+                info.size = size;
+                info.presentationTimeUs = timeUs - firstUs;
+                info.flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                        ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                muxer.writeSampleData(muxerTracks[track], buffer, info);
+
+                if (listener != null) {
+                    int percent = (int) (100 * (timeUs - firstUs) / spanUs);
+                    if (percent != lastPercent) {
+                        lastPercent = percent;
+                        listener.onProgress(Math.min(1f, percent / 100f));
+                    }
+                }
+                extractor.advance();
+            }
+
+            muxer.stop();
+            muxerStarted = false;
+            muxer.release();
+            muxer = null;
+            outputDescriptor.close();
+            outputDescriptor = null;
+            VideoFiles.publish(contentResolver, output);
+            success = true;
+            if (listener != null) {
+                listener.onProgress(1f);
+            }
+            return output;
+        } finally {
+            extractor.release();
+            if (muxer != null) {
+                try {
+                    if (muxerStarted) {
+                        muxer.stop();
+                    }
+                } catch (IllegalStateException e) {
+                    // stop() без записанных сэмплов бросает исключение — файл всё равно будет удален
+                    Log.w(TAG, "Muxer stop failed", e);
+                }
+                muxer.release();
+            }
+            if (outputDescriptor != null) {
+                outputDescriptor.close();
+            }
+            if (!success && output != null) {
+                contentResolver.delete(output, null, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.camerapromax.export;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.camerapromax.edit.ProgressListener;
+import com.example.camerapromax.gallery.MediaFile;
+import com.example.camerapromax.metrics.MetricsLog;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Экспорт выбранных медиафайлов одним ZIP-архивом.
+ * <p>
+ * Файлы читаются напрямую из MediaStore через {@link FileChannel} и пишутся в архив
+ * {@link StoredZipWriter} без сжатия, поэтому память не зависит от количества и размера файлов.
+ * Экспорт выполняется в общем фоновом потоке и не привязан к жизненному циклу экрана.
+ */
+public final class MediaExporter {
+
+    private static final String TAG = "MediaExporter";
+
+    /** Один поток: экспорты не конкурируют между собой за хранилище. */
+    static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private MediaExporter() {
+    }
+
+    /**
+     * Результат экспорта.
+     */
+    public interface Callback {
+        /**
+         * Вызывается в фоновом потоке по завершении экспорта.
+         *
+         * @param exported Количество файлов, попавших в архив.
+         * @param error    Ошибка или {@code null}, если архив записан полностью.
+         */
+        void onFinished(int exported, @Nullable Exception error);
+    }
+
+    /**
+     * Запускает экспорт в файл, выбранный пользователем через SAF.
+     *
+     * @param contentResolver ContentResolver приложения.
+     * @param files           Файлы для экспорта.
+     * @param destination     URI документа из {@code ACTION_CREATE_DOCUMENT}.
+     * @param callback        Слушатель завершения.
+     */
+    public static void exportAsync(@NonNull ContentResolver contentResolver, @NonNull List<MediaFile> files,
+                                   @NonNull Uri destination, @NonNull Callback callback) {
+        EXECUTOR.execute(() -> {
+            int exported = 0;
+            Exception error = null;
+            try (ParcelFileDescriptor descriptor = openForWrite(contentResolver, destination)) {
+                exported = export(contentResolver, files, descriptor, null, new AtomicBoolean());
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Export to " + destination + " failed", e);
+                error = e;
+            }
+            // слушатель вызывается ровно один раз, уже после закрытия дескриптора
+            callback.onFinished(exported, error);
+        });
+    }
+
+    /**
+     * Записывает архив в открытый для записи файл или канал. Блокирует поток; вызывается только в фоне.
+     * Файлы, которые не удалось открыть (например, удаленные во время экспорта), пропускаются.
+     *
+     * @param contentResolver ContentResolver приложения.
+     * @param files           Файлы для экспорта.
+     * @param destination     Назначение: обычный файл или запись в pipe.
+     * @param listener        Слушатель прогресса или {@code null}.
+     * @param cancelled       Флаг отмены; проверяется между файлами.
+     * @return Количество файлов, попавших в архив.
+     * @throws IOException           Если архив нельзя записать.
+     * @throws CancellationException Если экспорт отменен.
+     */
+    static int export(@NonNull ContentResolver contentResolver, @NonNull List<MediaFile> files,
+                      @NonNull ParcelFileDescriptor destination, @Nullable ProgressListener listener,
+                      @NonNull AtomicBoolean cancelled) throws IOException {
+        long startMs = SystemClock.elapsedRealtime();
+        long bytes = 0;
+        int exported = 0;
+        try (StoredZipWriter zip = new StoredZipWriter(destination.getFileDescriptor(),
+                new FileOutputStream(destination.getFileDescriptor()).getChannel())) {
+            for (int i = 0; i < files.size(); i++) {
+                if (cancelled.get()) {
+                    throw new CancellationException("Export cancelled");
+                }
+                MediaFile file = files.get(i);
+                try (ParcelFileDescriptor source = contentResolver.openFileDescriptor(file.getUri(), "r")) {
+                    if (source == null) {
+                        continue;
+                    }
+                    try (FileChannel channel = new FileInputStream(source.getFileDescriptor()).getChannel()) {
+                        bytes += channel.size();
+                        zip.addEntry(file.getName() != null ? file.getName() : String.valueOf(file.getId()),
+                                file.getDateModified() * 1000, channel);
+                        exported++;
+                    }
+                } catch (FileNotFoundException | SecurityException e) {
+                    Log.w(TAG, "Skipping " + file.getUri(), e);
+                }
+                if (listener != null) {
+                    listener.onProgress((i + 1f) / files.size());
+                }
+            }
+            zip.finish();
+        }
+        long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - startMs);
+        MetricsLog.record("zip_export", String.format(Locale.US, "files=%d mb=%.1f elapsed_ms=%d mb_s=%.1f",
+                exported, bytes / 1048576.0, elapsedMs, bytes / 1048576.0 / (elapsedMs / 1000.0)));
+        return exported;
+    }
+
+    private static ParcelFileDescriptor openForWrite(ContentResolver contentResolver, Uri uri) throws IOException {
+        ParcelFileDescriptor descriptor;
+        try {
+            // архив пишется с начала файла, старое содержимое нужно отрезать
+            descriptor = contentResolver.openFileDescriptor(uri, "wt");
+        } catch (IllegalArgumentException | FileNotFoundException e) {
+            // не все провайдеры документов поддерживают режим "wt"; новый документ и так пуст
+            descriptor = contentResolver.openFileDescriptor(uri, "w");
+        }
+        if (descriptor == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        return descriptor;
+    }
+}
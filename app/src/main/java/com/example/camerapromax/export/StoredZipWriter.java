@@ -0,0 +1,352 @@
+package com.example.camerapromax.export;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import androidx.annotation.NonNull;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Потоковая запись ZIP-архива без сжатия (метод STORED) с поддержкой ZIP64.
+ * <p>
+ * JPEG и MP4 уже сжаты, поэтому данные записываются как есть. STORED требует CRC-32 и размеры
+ * в локальном заголовке до данных, и способ их получить зависит от назначения:
+ * <ul>
+ *     <li>обычный файл (например, выбранный через SAF) — данные один раз проходят через буфер,
+ *     CRC считается на лету, а заголовок исправляется позиционной записью;</li>
+ *     <li>канал без перемотки (pipe) — CRC считается предварительным проходом через тот же буфер,
+ *     затем данные передаются {@link FileChannel#transferTo}, минуя память приложения.</li>
+ * </ul>
+ * Все данные идут через один переиспользуемый буфер; на каждую запись в памяти остается только
+ * строка центрального каталога.
+ */
+final class StoredZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int VERSION_DEFAULT = 10;
+    private static final int VERSION_ZIP64 = 45;
+    // бит 11: имена в UTF-8
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final long ZIP32_MAX = 0xFFFFFFFFL;
+    private static final int ZIP32_MAX_ENTRIES = 0xFFFF;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    // смещение поля CRC-32 в локальном заголовке
+    private static final int LOCAL_CRC_OFFSET = 14;
+
+    private final FileChannel out;
+    private final boolean seekable;
+    private final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+    private final ByteBuffer copyView = ByteBuffer.wrap(copyBuffer);
+    private final ByteBuffer header = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private final Calendar calendar = Calendar.getInstance();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private long position;
+    private boolean finished;
+
+    /**
+     * Строка центрального каталога.
+     */
+    private static final class Entry {
+        final byte[] name;
+        final int dosTime;
+        final long crc;
+        final long size;
+        final long offset;
+
+        Entry(byte[] name, int dosTime, long crc, long size, long offset) {
+            this.name = name;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        boolean needsZip64() {
+            return size >= ZIP32_MAX || offset >= ZIP32_MAX;
+        }
+    }
+
+    /**
+     * Создает архив поверх открытого для записи файла или канала.
+     *
+     * @param descriptor Назначение; обычный файл должен быть пустым.
+     * @param out        Канал записи поверх {@code descriptor}.
+     * @throws IOException Если назначение нельзя проверить.
+     */
+    StoredZipWriter(@NonNull FileDescriptor descriptor, @NonNull FileChannel out) throws IOException {
+        this.out = out;
+        try {
+            seekable = OsConstants.S_ISREG(Os.fstat(descriptor).st_mode);
+        } catch (ErrnoException e) {
+            throw new IOException("Cannot stat destination", e);
+        }
+    }
+
+    /**
+     * Добавляет файл в архив.
+     *
+     * @param name           Имя внутри архива; при совпадении к нему добавляется номер.
+     * @param modifiedMillis Время изменения файла.
+     * @param source         Канал исходного файла, позиция в начале.
+     * @throws IOException Если файл нельзя прочитать или архив нельзя записать.
+     */
+    void addEntry(@NonNull String name, long modifiedMillis, @NonNull FileChannel source) throws IOException {
+        byte[] nameBytes = uniqueName(name).getBytes(StandardCharsets.UTF_8);
+        int dosTime = toDosTime(modifiedMillis);
+        long size = source.size();
+        long offset = position;
+
+        long entryCrc = 0;
+        if (!seekable) {
+            // в pipe нельзя вернуться к заголовку — CRC нужен заранее
+            entryCrc = computeCrc(source);
+            source.position(0);
+        }
+        writeLocalHeader(nameBytes, dosTime, entryCrc, size);
+
+        if (seekable) {
+            entryCrc = copyWithCrc(source, size);
+            // размеры известны заранее, исправить нужно только CRC
+            header.clear();
+            header.putInt((int) entryCrc).flip();
+            long patchAt = offset + LOCAL_CRC_OFFSET;
+            while (header.hasRemaining()) {
+                patchAt += out.write(header, patchAt);
+            }
+        } else {
+            transfer(source, size);
+        }
+        entries.add(new Entry(nameBytes, dosTime, entryCrc, size, offset));
+    }
+
+    /**
+     * Дописывает центральный каталог. Данные в назначении после этого образуют корректный архив.
+     *
+     * @throws IOException Если архив нельзя записать.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long directoryOffset = position;
+        boolean zip64 = entries.size() >= ZIP32_MAX_ENTRIES;
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+            zip64 |= entry.needsZip64();
+        }
+        long directorySize = position - directoryOffset;
+        zip64 |= directoryOffset >= ZIP32_MAX || directorySize >= ZIP32_MAX;
+
+        header.clear();
+        if (zip64) {
+            long zip64EndOffset = position;
+            header.putInt(ZIP64_END_SIGNATURE)
+                    .putLong(44) // размер записи без первых 12 байт
+                    .putShort((short) VERSION_ZIP64)
+                    .putShort((short) VERSION_ZIP64)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(entries.size())
+                    .putLong(entries.size())
+                    .putLong(directorySize)
+                    .putLong(directoryOffset);
+            header.putInt(ZIP64_LOCATOR_SIGNATURE)
+                    .putInt(0)
+                    .putLong(zip64EndOffset)
+                    .putInt(1);
+        }
+        int entryCount = (int) Math.min(entries.size(), ZIP32_MAX_ENTRIES);
+        header.putInt(END_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) entryCount)
+                .putShort((short) entryCount)
+                .putInt((int) Math.min(directorySize, ZIP32_MAX))
+                .putInt((int) Math.min(directoryOffset, ZIP32_MAX))
+                .putShort((short) 0);
+        writeHeader();
+    }
+
+    /**
+     * Закрывает канал назначения. Без {@link #finish()} архив останется неполным.
+     *
+     * @throws IOException Если канал нельзя закрыть.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeLocalHeader(byte[] name, int dosTime, long entryCrc, long size) throws IOException {
+        boolean zip64 = size >= ZIP32_MAX;
+        header.clear();
+        header.putInt(LOCAL_HEADER_SIGNATURE)
+                .putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT))
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) 0) // STORED
+                .putInt(dosTime)
+                .putInt((int) entryCrc)
+                .putInt((int) (zip64 ? ZIP32_MAX : size))
+                .putInt((int) (zip64 ? ZIP32_MAX : size))
+                .putShort((short) name.length)
+                .putShort((short) (zip64 ? 20 : 0));
+        writeHeader();
+        writeBytes(name);
+        if (zip64) {
+            header.clear();
+            header.putShort((short) ZIP64_EXTRA_ID)
+                    .putShort((short) 16)
+                    .putLong(size)
+                    .putLong(size);
+            writeHeader();
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        boolean sizeZip64 = entry.size >= ZIP32_MAX;
+        boolean offsetZip64 = entry.offset >= ZIP32_MAX;
+        int extraLength = (sizeZip64 ? 16 : 0) + (offsetZip64 ? 8 : 0);
+        int version = entry.needsZip64() ? VERSION_ZIP64 : VERSION_DEFAULT;
+        header.clear();
+        header.putInt(CENTRAL_HEADER_SIGNATURE)
+                .putShort((short) version)
+                .putShort((short) version)
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) 0)
+                .putInt(entry.dosTime)
+                .putInt((int) entry.crc)
+                .putInt((int) (sizeZip64 ? ZIP32_MAX : entry.size))
+                .putInt((int) (sizeZip64 ? ZIP32_MAX : entry.size))
+                .putShort((short) entry.name.length)
+                .putShort((short) (extraLength > 0 ? extraLength + 4 : 0))
+                .putShort((short) 0) // комментарий
+                .putShort((short) 0) // номер диска
+                .putShort((short) 0) // внутренние атрибуты
+                .putInt(0) // внешние атрибуты
+                .putInt((int) (offsetZip64 ? ZIP32_MAX : entry.offset));
+        writeHeader();
+        writeBytes(entry.name);
+        if (extraLength > 0) {
+            header.clear();
+            header.putShort((short) ZIP64_EXTRA_ID).putShort((short) extraLength);
+            if (sizeZip64) {
+                header.putLong(entry.size).putLong(entry.size);
+            }
+            if (offsetZip64) {
+                header.putLong(entry.offset);
+            }
+            writeHeader();
+        }
+    }
+
+    private long computeCrc(FileChannel source) throws IOException {
+        crc.reset();
+        while (true) {
+            copyView.clear();
+            int read = source.read(copyView);
+            if (read < 0) {
+                return crc.getValue();
+            }
+            crc.update(copyBuffer, 0, read);
+        }
+    }
+
+    private long copyWithCrc(FileChannel source, long size) throws IOException {
+        crc.reset();
+        long copied = 0;
+        while (copied < size) {
+            copyView.clear();
+            int read = source.read(copyView);
+            if (read < 0) {
+                throw new IOException("Source shrank while exporting");
+            }
+            crc.update(copyBuffer, 0, read);
+            copyView.flip();
+            while (copyView.hasRemaining()) {
+                out.write(copyView);
+            }
+            copied += read;
+        }
+        position += copied;
+        return crc.getValue();
+    }
+
+    private void transfer(FileChannel source, long size) throws IOException {
+        long transferred = 0;
+        while (transferred < size) {
+            long count = source.transferTo(transferred, size - transferred, out);
+            if (count <= 0) {
+                throw new IOException("Source shrank while exporting");
+            }
+            transferred += count;
+        }
+        position += transferred;
+    }
+
+    private void writeHeader() throws IOException {
+        header.flip();
+        position += header.remaining();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        position += bytes.length;
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Возвращает имя, которого ещё нет в архиве: {@code photo.jpg}, {@code photo (2).jpg}, ...
+     */
+    private String uniqueName(String name) {
+        String candidate = name;
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 2; !names.add(candidate); i++) {
+            candidate = base + " (" + i + ")" + extension;
+        }
+        return candidate;
+    }
+
+    /**
+     * Переводит время в формат MS-DOS, который хранится в заголовках ZIP.
+     */
+    private int toDosTime(long millis) {
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+}
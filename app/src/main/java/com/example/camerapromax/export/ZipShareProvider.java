@@ -0,0 +1,210 @@
+package com.example.camerapromax.export;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.camerapromax.gallery.MediaFile;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Отдает выбранные файлы другим приложениям одним ZIP-архивом, который собирается на лету.
+ * <p>
+ * Архив не сохраняется на диск: при открытии URI создается pipe, и {@link MediaExporter} пишет
+ * в него, пока получатель читает. Если получатель закрывает свой конец, запись прерывается.
+ * Наборы файлов живут в памяти процесса и забываются через {@link #SHARE_TTL_MS} мс после последнего
+ * обращения получателя: один и тот же URI часто открывают несколько раз (превью в окне выбора,
+ * затем сама отправка), поэтому набор нельзя удалить сразу после первой записи архива.
+ */
+public class ZipShareProvider extends ContentProvider {
+
+    private static final String TAG = "ZipShareProvider";
+    private static final String MIME_TYPE = "application/zip";
+    /** Сколько набор живет после регистрации или последнего обращения к нему. */
+    private static final long SHARE_TTL_MS = 60 * 60 * 1000;
+
+    private static final Map<String, Share> SHARES = new ConcurrentHashMap<>();
+    // у каждого получателя свой поток записи: медленный читатель не должен задерживать остальных
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool();
+
+    /**
+     * Набор файлов, доступный по одному URI.
+     */
+    private static final class Share {
+        final String displayName;
+        final List<MediaFile> files;
+        volatile long lastAccess = SystemClock.elapsedRealtime();
+
+        Share(String displayName, List<MediaFile> files) {
+            this.displayName = displayName;
+            this.files = files;
+        }
+    }
+
+    /**
+     * Регистрирует набор файлов и возвращает URI архива для {@code Intent.ACTION_SEND}.
+     * Получателю нужно выдать {@code FLAG_GRANT_READ_URI_PERMISSION}.
+     *
+     * @param context     Контекст.
+     * @param files       Файлы для архива.
+     * @param displayName Имя архива, которое увидит получатель.
+     * @return URI архива.
+     */
+    public static Uri register(@NonNull Context context, @NonNull List<MediaFile> files, @NonNull String displayName) {
+        removeExpired();
+        String token = UUID.randomUUID().toString();
+        SHARES.put(token, new Share(displayName, new ArrayList<>(files)));
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(context.getPackageName() + ".export")
+                .appendPath(token)
+                .appendPath(displayName)
+                .build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    /**
+     * Открывает архив на чтение: возвращает читающий конец pipe и начинает запись в фоне.
+     *
+     * @param uri  URI из {@link #register(Context, List, String)}.
+     * @param mode Режим; поддерживается только чтение.
+     * @return Читающий конец pipe.
+     * @throws FileNotFoundException Если URI неизвестен или запрошена запись.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Read-only: " + uri);
+        }
+        Share share = find(uri);
+        if (share == null) {
+            throw new FileNotFoundException("Unknown export " + uri);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            // «надежный» pipe передает читателю ошибку записи, а не обрывает архив молча
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create pipe: " + e.getMessage());
+        }
+        final ParcelFileDescriptor writeSide = pipe[1];
+        WRITERS.execute(() -> {
+            try {
+                MediaExporter.export(getContext().getContentResolver(), share.files, writeSide, null, new AtomicBoolean());
+                writeSide.close();
+            } catch (Exception e) {
+                Log.w(TAG, "Streaming " + uri + " stopped", e);
+                try {
+                    writeSide.closeWithError(String.valueOf(e.getMessage()));
+                } catch (IOException closeError) {
+                    Log.w(TAG, "Cannot close pipe", closeError);
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    /**
+     * Отдает имя архива; размер неизвестен, так как архив собирается во время чтения.
+     */
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        Share share = find(uri);
+        if (share == null) {
+            return null;
+        }
+        String[] columns = projection != null ? projection : new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(columns[i])) {
+                row[i] = share.displayName;
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return MIME_TYPE;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    /**
+     * Находит набор по URI и продлевает ему жизнь. Просроченный набор удаляется и не находится.
+     */
+    @Nullable
+    private static Share find(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return null;
+        }
+        Share share = SHARES.get(segments.get(0));
+        if (share == null) {
+            return null;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now - share.lastAccess > SHARE_TTL_MS) {
+            SHARES.remove(segments.get(0));
+            return null;
+        }
+        share.lastAccess = now;
+        return share;
+    }
+
+    /**
+     * Удаляет наборы, к которым давно не обращались. Вызывается при каждой регистрации,
+     * поэтому в памяти не копятся списки файлов от всех отправок за время жизни процесса.
+     */
+    private static void removeExpired() {
+        long now = SystemClock.elapsedRealtime();
+        for (Iterator<Share> it = SHARES.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().lastAccess > SHARE_TTL_MS) {
+                it.remove();
+            }
+        }
+    }
+}
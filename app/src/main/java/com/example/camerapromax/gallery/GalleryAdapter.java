@@ -5,10 +5,11 @@ import android.view.View;
 import android.view.ViewGroup;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
-import com.bumptech.glide.Glide;
-import com.example.camerapromax.R;
 import com.example.camerapromax.databinding.GalleryItemBinding;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Адаптер для отображения медиафайлов в RecyclerView.
@@ -16,8 +17,16 @@ import java.util.List;
  */
 public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryViewHolder> {
 
+    // payload для перерисовки только отметки выбора, без перезагрузки миниатюры
+    private static final Object PAYLOAD_SELECTION = new Object();
+
     private final List<MediaFile> mediaFiles;
     private final OnItemClickListener onItemClickListener;
+    private final Set<Long> selectedIds = new HashSet<>();
+    private OnSelectionChangedListener onSelectionChangedListener;
+    private final ThumbnailLoader thumbnailLoader;
+    private int thumbnailTier = ThumbnailSizer.tierFor(0);
+    private boolean decodePaused;
 
     /**
      * Интерфейс для обработки кликов по элементам в RecyclerView.
@@ -31,17 +40,112 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryV
         void onItemClick(MediaFile mediaFile);
     }
 
+    /**
+     * Интерфейс для отслеживания множественного выбора.
+     */
+    public interface OnSelectionChangedListener {
+        /**
+         * Вызывается после каждого изменения выбора.
+         *
+         * @param selectedCount Количество выбранных файлов; 0 означает выход из режима выбора.
+         */
+        void onSelectionChanged(int selectedCount);
+    }
+
     /**
      * Создает новый GalleryAdapter.
      *
      * @param mediaFiles        Список медиафайлов для отображения.
+     * @param thumbnailLoader   Загрузчик миниатюр.
      * @param onItemClickListener Слушатель кликов по элементам.
      */
-    public GalleryAdapter(List<MediaFile> mediaFiles, OnItemClickListener onItemClickListener) {
+    public GalleryAdapter(List<MediaFile> mediaFiles, ThumbnailLoader thumbnailLoader, OnItemClickListener onItemClickListener) {
         this.mediaFiles = mediaFiles;
+        this.thumbnailLoader = thumbnailLoader;
         this.onItemClickListener = onItemClickListener;
     }
 
+    /**
+     * Задает размер ячейки сетки, по которому выбирается уровень миниатюр.
+     * Уже привязанные ячейки не перерисовываются — для этого вызывающая сторона уведомляет адаптер об изменении.
+     *
+     * @param cellSizePx Сторона ячейки в пикселях.
+     */
+    public void setCellSize(int cellSizePx) {
+        thumbnailTier = ThumbnailSizer.tierFor(cellSizePx);
+    }
+
+    /**
+     * Задает слушатель изменения выбора. Долгое нажатие на ячейку включает режим выбора,
+     * в котором обычное нажатие выбирает файл вместо вызова {@link OnItemClickListener}.
+     *
+     * @param listener Слушатель или {@code null}.
+     */
+    public void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        onSelectionChangedListener = listener;
+    }
+
+    /**
+     * @return {@code true}, если выбран хотя бы один файл.
+     */
+    public boolean isSelectionMode() {
+        return !selectedIds.isEmpty();
+    }
+
+    /**
+     * Возвращает выбранные файлы в порядке их следования в списке.
+     *
+     * @return Новый список выбранных файлов.
+     */
+    public List<MediaFile> getSelectedFiles() {
+        List<MediaFile> result = new ArrayList<>(selectedIds.size());
+        for (MediaFile mediaFile : mediaFiles) {
+            if (selectedIds.contains(mediaFile.getId())) {
+                result.add(mediaFile);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Снимает выбор со всех файлов и выходит из режима выбора.
+     */
+    public void clearSelection() {
+        if (selectedIds.isEmpty()) {
+            return;
+        }
+        selectedIds.clear();
+        notifyItemRangeChanged(0, mediaFiles.size(), PAYLOAD_SELECTION);
+        dispatchSelectionChanged();
+    }
+
+    private void toggleSelection(MediaFile mediaFile, int position) {
+        if (position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        if (!selectedIds.remove(mediaFile.getId())) {
+            selectedIds.add(mediaFile.getId());
+        }
+        notifyItemChanged(position, PAYLOAD_SELECTION);
+        dispatchSelectionChanged();
+    }
+
+    private void dispatchSelectionChanged() {
+        if (onSelectionChangedListener != null) {
+            onSelectionChangedListener.onSelectionChanged(selectedIds.size());
+        }
+    }
+
+    /**
+     * Приостанавливает догрузку миниатюр лучшего качества.
+     * Пока пауза включена, ячейки показывают то, что уже есть в памяти, и декодируют только отсутствующие миниатюры.
+     *
+     * @param paused {@code true}, чтобы приостановить улучшение миниатюр.
+     */
+    public void setDecodePaused(boolean paused) {
+        decodePaused = paused;
+    }
+
     /**
      * Вызывается, когда RecyclerView необходим новый {@link GalleryViewHolder} данного типа для представления элемента.
      *
@@ -66,6 +170,26 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryV
         holder.bind(mediaFiles.get(position));
     }
 
+    /**
+     * Частичная привязка: при изменении только выбора миниатюра не перезагружается.
+     *
+     * @param holder   GalleryViewHolder для обновления.
+     * @param position Позиция элемента в наборе данных адаптера.
+     * @param payloads Список payload-объектов изменения.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull GalleryViewHolder holder, int position, @NonNull List<Object> payloads) {
+        boolean selectionOnly = !payloads.isEmpty();
+        for (Object payload : payloads) {
+            selectionOnly &= payload == PAYLOAD_SELECTION;
+        }
+        if (selectionOnly) {
+            holder.bindSelection(mediaFiles.get(position));
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
+    }
+
     /**
      * Возвращает общее количество элементов в наборе данных, хранящемся адаптером.
      *
@@ -99,9 +223,7 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryV
          * @param mediaFile {@link MediaFile} для привязки.
          */
         public void bind(MediaFile mediaFile) {
-            Glide.with(itemView.getContext())
-                    .load(mediaFile.getUri())
-                    .into(binding.mediaThumbnail);
+            thumbnailLoader.load(binding.mediaThumbnail, mediaFile, thumbnailTier, !decodePaused);
 
             if (mediaFile.getType().startsWith("video")) {
                 binding.playIcon.setVisibility(View.VISIBLE);
@@ -109,7 +231,29 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.GalleryV
                 binding.playIcon.setVisibility(View.GONE);
             }
 
-            itemView.setOnClickListener(v -> onItemClickListener.onItemClick(mediaFile));
+            bindSelection(mediaFile);
+            itemView.setOnClickListener(v -> {
+                if (isSelectionMode()) {
+                    toggleSelection(mediaFile, getAdapterPosition());
+                } else {
+                    onItemClickListener.onItemClick(mediaFile);
+                }
+            });
+            itemView.setOnLongClickListener(v -> {
+                toggleSelection(mediaFile, getAdapterPosition());
+                return true;
+            });
+        }
+
+        /**
+         * Обновляет отметку выбора ячейки.
+         *
+         * @param mediaFile {@link MediaFile} этой ячейки.
+         */
+        void bindSelection(MediaFile mediaFile) {
+            boolean selected = selectedIds.contains(mediaFile.getId());
+            binding.selectionCheck.setVisibility(selected ? View.VISIBLE : View.GONE);
+            binding.mediaThumbnail.setAlpha(selected ? 0.6f : 1f);
         }
     }
 }
\ No newline at end of file
@@ -1,21 +1,50 @@
 package com.example.camerapromax.gallery;
 
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.text.format.DateUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Toast;
+import androidx.activity.OnBackPressedCallback;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
+import androidx.core.content.ContextCompat;
+import androidx.core.util.Pair;
 import androidx.fragment.app.Fragment;
+import androidx.navigation.fragment.NavHostFragment;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.example.camerapromax.R;
 import com.example.camerapromax.databinding.FragmentGalleryBinding;
+import com.example.camerapromax.edit.TranscodeQueue;
+import com.example.camerapromax.export.MediaExporter;
+import com.example.camerapromax.export.ZipShareProvider;
+import com.example.camerapromax.metrics.FrameTimeMonitor;
+import com.example.camerapromax.viewer.MediaViewerFragment;
+import com.google.android.material.datepicker.MaterialDatePicker;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Фрагмент для отображения галереи медиафайлов (изображений и видео).
@@ -24,9 +53,40 @@ import java.util.List;
  */
 public class GalleryFragment extends Fragment {
 
+    private static final String TAG = "GalleryFragment";
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+    // во сколько раз нужно развести или свести пальцы, чтобы изменить количество колонок на одну
+    private static final float ZOOM_STEP = 1.25f;
+    private static final Object PAYLOAD_THUMBNAIL = new Object();
+    private static final String ARCHIVE_NAME_FORMAT = "yyyy-MM-dd-HH-mm-ss";
+
     private FragmentGalleryBinding binding;
     private GalleryAdapter adapter;
+    private MediaRepository repository;
+    private ThumbnailLoader thumbnailLoader;
+    private FrameTimeMonitor zoomFrameMonitor;
+    private int spanCount = 3;
     private final List<MediaFile> mediaFiles = new ArrayList<>();
+    private final ExecutorService loaderExecutor = Executors.newSingleThreadExecutor();
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    // «Назад» в режиме выбора снимает выбор, а не закрывает галерею
+    private final OnBackPressedCallback clearSelectionCallback = new OnBackPressedCallback(false) {
+        @Override
+        public void handleOnBackPressed() {
+            adapter.clearSelection();
+        }
+    };
+
+    // файлы, которые будут записаны в архив, когда пользователь выберет место сохранения
+    private List<MediaFile> pendingExport;
+    private final ActivityResultLauncher<String> exportLauncher = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument("application/zip"), this::exportTo);
+
+    private MediaFilter currentFilter = MediaFilter.ALL;
+    // увеличивается при смене фильтра, чтобы отбрасывать ответы устаревших запросов
+    private int loadGeneration;
+    private boolean isLoading;
+    private boolean endReached;
 
     /**
      * Создает макет для этого фрагмента.
@@ -45,7 +105,7 @@ public class GalleryFragment extends Fragment {
 
     /**
      * Вызывается сразу после возврата из {@link #onCreateView(LayoutInflater, ViewGroup, Bundle)}, но до восстановления сохраненного состояния в представление.
-     * Этот метод инициализирует RecyclerView и загружает медиафайлы из хранилища устройства.
+     * Этот метод инициализирует RecyclerView и фильтры и загружает первую страницу медиафайлов из хранилища устройства.
      *
      * @param view               Представление, возвращенное методом {@link #onCreateView(LayoutInflater, ViewGroup, Bundle)}.
      * @param savedInstanceState Если не null, этот фрагмент восстанавливается из предыдущего сохраненного состояния, как указано здесь.
@@ -53,8 +113,15 @@ public class GalleryFragment extends Fragment {
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
+        repository = MediaRepository.getInstance(requireContext());
+        thumbnailLoader = new ThumbnailLoader(requireContext());
+        zoomFrameMonitor = new FrameTimeMonitor("gallery_zoom", view.getDisplay() != null
+                ? view.getDisplay().getRefreshRate()
+                : requireActivity().getWindowManager().getDefaultDisplay().getRefreshRate());
         setupRecyclerView();
-        loadMediaFiles();
+        setupSelection();
+        setupFilters();
+        applyFilter(currentFilter);
     }
 
     /**
@@ -62,23 +129,15 @@ public class GalleryFragment extends Fragment {
      * Также определяет слушатель кликов для элементов галереи, позволяя пользователям просматривать или удалять их.
      */
     private void setupRecyclerView() {
-        adapter = new GalleryAdapter(mediaFiles, mediaFile -> {
+        adapter = new GalleryAdapter(mediaFiles, thumbnailLoader, mediaFile -> {
             new AlertDialog.Builder(requireContext())
                     .setTitle("Choose an action")
                     .setItems(new CharSequence[]{"View", "Delete"}, (dialog, which) -> {
                         if (which == 0) {
-                            // Intent — это сообщение Android системе: "Я хочу выполнить действие X с данными Y"
-                            Intent intent = new Intent(Intent.ACTION_VIEW); // "Я хочу ПРОСМОТРЕТЬ что-то"
-                            // передается: URI — где лежит файл, MIME type — что это за файл
-                            // Зачем нужен MIME type? Android должен понять: КАКОЕ приложение может открыть этот файл
-                            intent.setDataAndType(mediaFile.getUri(), mediaFile.getType());
-                            // "Я временно разрешаю приложению, которое откроет intent, прочитать этот URI"
-                            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                            // Android:
-                            // 1. смотрит action (VIEW)
-                            // 2. смотрит MIME type
-                            // 3. ищет приложение, которое умеет открыть.
-                            startActivity(intent);
+                            // просмотр внутри приложения: без переключения процесса и полного декодирования
+                            NavHostFragment.findNavController(this).navigate(
+                                    R.id.action_galleryFragment_to_mediaViewerFragment,
+                                    MediaViewerFragment.createArguments(currentFilter, mediaFiles.indexOf(mediaFile)));
                         } else {
                             deleteMediaFile(mediaFile);
                         }
@@ -86,74 +145,377 @@ public class GalleryFragment extends Fragment {
                     .show();
         });
         // GridLayoutManager получает context чтобы: узнать плотность пикселей экрана и рассчитать размеры элементов
-        binding.galleryRecyclerview.setLayoutManager(new GridLayoutManager(requireContext(), 3));
+        binding.galleryRecyclerview.setLayoutManager(new GridLayoutManager(requireContext(), spanCount));
+        adapter.setCellSize(ThumbnailSizer.cellSize(getResources().getDisplayMetrics().widthPixels, spanCount));
         binding.galleryRecyclerview.setAdapter(adapter);
+        setupPinchToZoom();
+        // подгружаем следующую страницу, когда до конца списка остается меньше одной страницы
+        binding.galleryRecyclerview.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager != null && layoutManager.findLastVisibleItemPosition()
+                        >= mediaFiles.size() - MediaRepository.PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
     }
 
     /**
-     * Загружает медиафайлы (изображения и видео) из внешнего хранилища устройства с помощью ContentResolver.
-     * Загруженные файлы добавляются в список {@code mediaFiles}, и адаптер уведомляется об изменении данных.
+     * Настраивает режим множественного выбора: панель действий над выбранными файлами
+     * и выход из режима по кнопке «Назад».
      */
-    /* Полная схема работы
-        1. очистить список
-        2. сформировать запрос
-        3. ContentResolver → MediaStore
-        4. получить Cursor
-        5. пройтись по строкам
-        6. создать URI
-        7. добавить в список
-        8. обновить UI
-     */
-    private void loadMediaFiles() {
-        // Удаляем старые данные (избегание дубликатов)
-        mediaFiles.clear();
-        // MediaStore - системная база данных
-        String[] projection = {
-                // какие столбцы нужно вернуть
-                MediaStore.Files.FileColumns._ID,
-                MediaStore.Files.FileColumns.DISPLAY_NAME,
-                MediaStore.Files.FileColumns.MEDIA_TYPE,
-                MediaStore.Files.FileColumns.MIME_TYPE
-        };
-        // фильтр (игнорируем: аудио, документы, другие файлы)
-        String selection = MediaStore.Files.FileColumns.MEDIA_TYPE + "=" +
-                MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE + " OR " +
-                MediaStore.Files.FileColumns.MEDIA_TYPE + "=" +
-                MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO;
-
-        // Cursor - результат запроса
-        // ContentProvider — это слой доступа к данным. В данном случае: MediaStore = ContentProvider
-        try (Cursor cursor = requireContext().getContentResolver().query( // try-with-resources - Автоматически cursor.close()
-                // "external" = внешнее хранилище
-                MediaStore.Files.getContentUri("external"),
-                projection,
-                selection,
-                null,
-                MediaStore.Files.FileColumns.DATE_ADDED + " DESC"
-        )) {
-            if (cursor != null) {
-                // Cursor хранит данные как таблицу, по этому необходимо узнать индекс столбца
-                int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID);
-                int nameColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME);
-                int mimeTypeColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE);
-
-                while (cursor.moveToNext()) {
-                    // Получаем значения колонок. Это ссылка через ContentProvider
-                    long id = cursor.getLong(idColumn);
-                    String name = cursor.getString(nameColumn);
-                    String mimeType = cursor.getString(mimeTypeColumn);
-                    // создание URI
-                    Uri contentUri = Uri.withAppendedPath(
-                            MediaStore.Files.getContentUri("external"),
-                            String.valueOf(id)
-                    );
-                    // формируем модель для UI
-                    mediaFiles.add(new MediaFile(contentUri, name, mimeType));
-                }
+    private void setupSelection() {
+        requireActivity().getOnBackPressedDispatcher().addCallback(getViewLifecycleOwner(), clearSelectionCallback);
+        adapter.setOnSelectionChangedListener(selectedCount -> {
+            boolean selectionMode = selectedCount > 0;
+            clearSelectionCallback.setEnabled(selectionMode);
+            binding.selectionBar.setVisibility(selectionMode ? View.VISIBLE : View.GONE);
+            binding.addFab.setVisibility(selectionMode ? View.GONE : View.VISIBLE);
+            binding.selectionCount.setText(getString(R.string.selected_count, selectedCount));
+        });
+        binding.compressButton.setOnClickListener(v -> showCompressDialog());
+        binding.exportButton.setOnClickListener(v -> {
+            pendingExport = adapter.getSelectedFiles();
+            exportLauncher.launch(archiveName());
+        });
+        binding.shareButton.setOnClickListener(v -> shareSelection());
+    }
+
+    /**
+     * Записывает выбранные файлы в ZIP-архив по адресу, выбранному через SAF.
+     *
+     * @param destination URI созданного документа или {@code null}, если пользователь отменил выбор.
+     */
+    private void exportTo(@Nullable Uri destination) {
+        List<MediaFile> files = pendingExport;
+        pendingExport = null;
+        if (destination == null || files == null || files.isEmpty()) {
+            return;
+        }
+        adapter.clearSelection();
+        final Context appContext = requireContext().getApplicationContext();
+        final Executor mainExecutor = ContextCompat.getMainExecutor(appContext);
+        // экспорт продолжается, даже если пользователь уйдет с экрана
+        MediaExporter.exportAsync(appContext.getContentResolver(), files, destination, (exported, error) ->
+                mainExecutor.execute(() -> Toast.makeText(appContext,
+                        appContext.getString(error == null ? R.string.export_done : R.string.export_failed, exported),
+                        Toast.LENGTH_LONG).show()));
+    }
+
+    /**
+     * Делится выбранными файлами одним ZIP-архивом, который собирается по мере чтения получателем.
+     */
+    private void shareSelection() {
+        List<MediaFile> files = adapter.getSelectedFiles();
+        if (files.isEmpty()) {
+            return;
+        }
+        Uri archive = ZipShareProvider.register(requireContext(), files, archiveName());
+        Intent intent = new Intent(Intent.ACTION_SEND)
+                .setType("application/zip")
+                .putExtra(Intent.EXTRA_STREAM, archive)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, getString(R.string.share)));
+        adapter.clearSelection();
+    }
+
+    private static String archiveName() {
+        return "CameraX-" + new SimpleDateFormat(ARCHIVE_NAME_FORMAT, Locale.US).format(System.currentTimeMillis()) + ".zip";
+    }
+
+    /**
+     * Предлагает пресет сжатия и ставит выбранные видео в очередь {@link TranscodeQueue}.
+     */
+    private void showCompressDialog() {
+        List<MediaFile> selected = adapter.getSelectedFiles();
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.compress)
+                .setItems(new CharSequence[]{getString(R.string.compress_720p), getString(R.string.compress_1080p)},
+                        (dialog, which) -> {
+                            int queued = which == 0
+                                    ? TranscodeQueue.enqueue(requireContext(), selected,
+                                    TranscodeQueue.PRESET_720P_SHORT_SIDE, TranscodeQueue.PRESET_720P_BITRATE)
+                                    : TranscodeQueue.enqueue(requireContext(), selected,
+                                    TranscodeQueue.PRESET_1080P_SHORT_SIDE, TranscodeQueue.PRESET_1080P_BITRATE);
+                            Toast.makeText(requireContext(), queued > 0
+                                            ? getString(R.string.compress_queued, queued)
+                                            : getString(R.string.compress_no_videos),
+                                    Toast.LENGTH_SHORT).show();
+                            if (queued > 0) {
+                                adapter.clearSelection();
+                            }
+                        })
+                .show();
+    }
+
+    /**
+     * Настраивает изменение количества колонок жестом масштабирования.
+     * Во время жеста миниатюры лучшего качества не догружаются, а время кадров измеряется;
+     * после жеста видимые ячейки обновляются до нужного уровня.
+     */
+    private void setupPinchToZoom() {
+        ScaleGestureDetector scaleDetector = new ScaleGestureDetector(requireContext(),
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    // накопленный масштаб с момента последней смены количества колонок
+                    private float accumulatedScale = 1f;
+
+                    @Override
+                    public boolean onScaleBegin(@NonNull ScaleGestureDetector detector) {
+                        accumulatedScale = 1f;
+                        adapter.setDecodePaused(true);
+                        zoomFrameMonitor.start();
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onScale(@NonNull ScaleGestureDetector detector) {
+                        accumulatedScale *= detector.getScaleFactor();
+                        if (accumulatedScale > ZOOM_STEP) {
+                            // пальцы разводятся — ячейки крупнее, колонок меньше
+                            setSpanCount(spanCount - 1);
+                            accumulatedScale = 1f;
+                        } else if (accumulatedScale < 1f / ZOOM_STEP) {
+                            setSpanCount(spanCount + 1);
+                            accumulatedScale = 1f;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public void onScaleEnd(@NonNull ScaleGestureDetector detector) {
+                        zoomFrameMonitor.stop();
+                        adapter.setDecodePaused(false);
+                        upgradeVisibleThumbnails();
+                    }
+                });
+
+        binding.galleryRecyclerview.addOnItemTouchListener(new RecyclerView.SimpleOnItemTouchListener() {
+            @Override
+            public boolean onInterceptTouchEvent(@NonNull RecyclerView rv, @NonNull MotionEvent e) {
+                scaleDetector.onTouchEvent(e);
+                // во время жеста прокрутка и клики по ячейкам не нужны
+                return scaleDetector.isInProgress();
+            }
+
+            @Override
+            public void onTouchEvent(@NonNull RecyclerView rv, @NonNull MotionEvent e) {
+                scaleDetector.onTouchEvent(e);
             }
+        });
+    }
+
+    /**
+     * Меняет количество колонок сетки.
+     *
+     * @param newSpanCount Желаемое количество колонок; ограничивается диапазоном {@link ThumbnailSizer}.
+     */
+    private void setSpanCount(int newSpanCount) {
+        newSpanCount = ThumbnailSizer.clampSpan(newSpanCount);
+        if (newSpanCount == spanCount || binding == null) {
+            return;
+        }
+        spanCount = newSpanCount;
+        GridLayoutManager layoutManager = (GridLayoutManager) binding.galleryRecyclerview.getLayoutManager();
+        if (layoutManager != null) {
+            layoutManager.setSpanCount(spanCount);
         }
-        // обновление RecyclerView
+        adapter.setCellSize(ThumbnailSizer.cellSize(binding.galleryRecyclerview.getWidth(), spanCount));
+    }
+
+    /**
+     * Перепривязывает видимые ячейки, чтобы они догрузили миниатюры нужного уровня.
+     */
+    private void upgradeVisibleThumbnails() {
+        GridLayoutManager layoutManager = (GridLayoutManager) binding.galleryRecyclerview.getLayoutManager();
+        if (layoutManager == null) {
+            return;
+        }
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first != RecyclerView.NO_POSITION && last >= first) {
+            // payload отключает анимацию смены элемента
+            adapter.notifyItemRangeChanged(first, last - first + 1, PAYLOAD_THUMBNAIL);
+        }
+    }
+
+    /**
+     * Настраивает поле поиска и чипы фильтров.
+     * Каждое изменение создает новый {@link MediaFilter} и перезагружает галерею.
+     */
+    private void setupFilters() {
+        binding.chipPhotos.setOnCheckedChangeListener((chip, checked) -> {
+            // "Фото" и "Видео" взаимоисключающие; ни один не выбран = показываем всё
+            if (checked) {
+                binding.chipVideos.setChecked(false);
+            }
+            applyFilter(currentFilter.withType(typeFromChips()));
+        });
+        binding.chipVideos.setOnCheckedChangeListener((chip, checked) -> {
+            if (checked) {
+                binding.chipPhotos.setChecked(false);
+            }
+            applyFilter(currentFilter.withType(typeFromChips()));
+        });
+        binding.chipAppFolders.setOnCheckedChangeListener((chip, checked) ->
+                applyFilter(currentFilter.withAppFoldersOnly(checked)));
+        // первая сортировка разбирает метаданные всех файлов фильтра, дальше время берется из кэша
+        binding.chipCaptureTime.setOnCheckedChangeListener((chip, checked) ->
+                applyFilter(currentFilter.withSortByCaptureTime(checked)));
+        binding.chipDate.setOnClickListener(v -> showDateRangePicker());
+        binding.chipDate.setOnCloseIconClickListener(v -> {
+            binding.chipDate.setText(R.string.filter_date);
+            binding.chipDate.setCloseIconVisible(false);
+            applyFilter(currentFilter.withDateRange(0, 0));
+        });
+
+        binding.searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // не отправляем запрос на каждую букву — ждём паузу в наборе
+                String query = s.toString().trim();
+                searchHandler.removeCallbacksAndMessages(null);
+                searchHandler.postDelayed(() -> applyFilter(currentFilter.withNameQuery(query)), SEARCH_DEBOUNCE_MS);
+            }
+        });
+    }
+
+    /**
+     * Определяет тип медиа по состоянию чипов "Фото" и "Видео".
+     *
+     * @return Тип для {@link MediaFilter#withType(int)}.
+     */
+    private int typeFromChips() {
+        if (binding.chipPhotos.isChecked()) {
+            return MediaFilter.TYPE_IMAGES;
+        }
+        if (binding.chipVideos.isChecked()) {
+            return MediaFilter.TYPE_VIDEOS;
+        }
+        return MediaFilter.TYPE_ALL;
+    }
+
+    /**
+     * Показывает выбор диапазона дат и применяет его к фильтру.
+     */
+    private void showDateRangePicker() {
+        MaterialDatePicker<Pair<Long, Long>> picker = MaterialDatePicker.Builder.dateRangePicker()
+                .setTitleText(R.string.filter_date)
+                .build();
+        picker.addOnPositiveButtonClickListener(selection -> {
+            if (selection == null || selection.first == null || selection.second == null || binding == null) {
+                return;
+            }
+            // MaterialDatePicker отдает полночь UTC выбранных дней, а пользователь выбирал дни своего часового пояса;
+            // DATE_ADDED хранится в секундах
+            long fromMillis = toLocalDayStart(selection.first);
+            long lastDayMillis = toLocalDayStart(selection.second);
+            long toMillis = toLocalDayStart(selection.second + TimeUnit.DAYS.toMillis(1)) - 1;
+            long fromSeconds = fromMillis / 1000;
+            long toSeconds = toMillis / 1000;
+            binding.chipDate.setText(DateUtils.formatDateRange(requireContext(), fromMillis, lastDayMillis,
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_ABBREV_MONTH));
+            binding.chipDate.setCloseIconVisible(true);
+            applyFilter(currentFilter.withDateRange(fromSeconds, toSeconds));
+        });
+        picker.show(getChildFragmentManager(), "date_range");
+    }
+
+    /**
+     * Переводит полночь UTC дня, выбранного в {@link MaterialDatePicker}, в начало того же дня
+     * в часовом поясе устройства. Смещение берется на сам локальный момент, поэтому день перехода
+     * на летнее время тоже начинается в полночь.
+     *
+     * @param utcMidnight Полночь UTC в миллисекундах.
+     * @return Локальная полночь того же календарного дня в миллисекундах.
+     */
+    private static long toLocalDayStart(long utcMidnight) {
+        TimeZone timeZone = TimeZone.getDefault();
+        long guess = utcMidnight - timeZone.getOffset(utcMidnight);
+        return utcMidnight - timeZone.getOffset(guess);
+    }
+
+    /**
+     * Переключает галерею на новый фильтр.
+     * Если результат фильтра уже есть в кэше репозитория, он показывается сразу, без запроса.
+     *
+     * @param filter Новый фильтр.
+     */
+    private void applyFilter(MediaFilter filter) {
+        if (filter.equals(currentFilter) && !mediaFiles.isEmpty()) {
+            return;
+        }
+        currentFilter = filter;
+        // результаты запросов старого фильтра больше не нужны
+        loadGeneration++;
+        isLoading = false;
+        // выбор относится к старому списку
+        adapter.clearSelection();
+        mediaFiles.clear();
+
+        MediaRepository.Result cached = repository.getCached(filter);
+        if (cached != null && cached.size() > 0) {
+            mediaFiles.addAll(cached.getItems());
+            endReached = cached.isEndReached();
+            adapter.notifyDataSetChanged();
+            return;
+        }
+        endReached = false;
         adapter.notifyDataSetChanged();
+        loadNextPage();
+    }
+
+    /**
+     * Загружает следующую страницу медиафайлов для текущего фильтра в фоновом потоке.
+     * Загруженные файлы добавляются в конец списка {@code mediaFiles}, и адаптер уведомляется о вставке.
+     */
+    /* Полная схема работы
+        1. запомнить фильтр и номер поколения
+        2. в фоне: фильтр → selection + аргументы → ContentResolver → MediaStore
+        3. получить страницу из Cursor (в MediaRepository)
+        4. в UI-потоке: если фильтр не сменился — добавить страницу в список
+        5. обновить UI
+     */
+    private void loadNextPage() {
+        if (isLoading || endReached) {
+            return;
+        }
+        isLoading = true;
+        final MediaFilter filter = currentFilter;
+        final int generation = loadGeneration;
+        final int offset = mediaFiles.size();
+        final Executor mainExecutor = ContextCompat.getMainExecutor(requireContext());
+
+        loaderExecutor.execute(() -> {
+            List<MediaFile> page;
+            try {
+                page = repository.loadPage(filter, offset);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to load media page", e);
+                page = new ArrayList<>();
+            }
+            final List<MediaFile> result = page;
+            mainExecutor.execute(() -> {
+                // за время запроса пользователь мог сменить фильтр или уйти с экрана
+                if (binding == null || generation != loadGeneration) {
+                    return;
+                }
+                isLoading = false;
+                endReached = result.size() < MediaRepository.PAGE_SIZE;
+                int start = mediaFiles.size();
+                mediaFiles.addAll(result);
+                adapter.notifyItemRangeInserted(start, result.size());
+            });
+        });
     }
 
     /**
@@ -190,6 +552,22 @@ public class GalleryFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        searchHandler.removeCallbacksAndMessages(null);
+        zoomFrameMonitor.stop();
+        thumbnailLoader.shutdown();
+        // незавершенный запрос будет отброшен, следующий экран начнет загрузку заново
+        loadGeneration++;
+        isLoading = false;
         binding = null;
     }
+
+    /**
+     * Вызывается, когда фрагмент больше не используется.
+     * Завершает работу фонового исполнителя запросов.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        loaderExecutor.shutdown();
+    }
 }
\ No newline at end of file
@@ -4,24 +4,39 @@ import android.net.Uri;
 
 /**
  * Класс данных, представляющий медиафайл.
- * Этот класс содержит URI, имя и MIME-тип медиафайла.
+ * Этот класс содержит идентификатор MediaStore, URI, имя, MIME-тип и время последнего изменения медиафайла.
  */
 public class MediaFile {
+    private final long id;
     private final Uri uri;
     private final String name;
     private final String type;
+    private final long dateModified;
 
     /**
      * Создает новый MediaFile.
      *
-     * @param uri  URI медиафайла.
-     * @param name Имя медиафайла.
-     * @param type MIME-тип медиафайла.
+     * @param id           Значение столбца {@code _ID} в MediaStore.
+     * @param uri          URI медиафайла.
+     * @param name         Имя медиафайла.
+     * @param type         MIME-тип медиафайла.
+     * @param dateModified Время последнего изменения в секундах Unix-времени.
      */
-    public MediaFile(Uri uri, String name, String type) {
+    public MediaFile(long id, Uri uri, String name, String type, long dateModified) {
+        this.id = id;
         this.uri = uri;
         this.name = name;
         this.type = type;
+        this.dateModified = dateModified;
+    }
+
+    /**
+     * Получает идентификатор медиафайла в MediaStore.
+     *
+     * @return Значение столбца {@code _ID}.
+     */
+    public long getId() {
+        return id;
     }
 
     /**
@@ -50,4 +65,13 @@ public class MediaFile {
     public String getType() {
         return type;
     }
-}
\ No newline at end of file
+
+    /**
+     * Получает время последнего изменения медиафайла.
+     *
+     * @return Время изменения в секундах Unix-времени.
+     */
+    public long getDateModified() {
+        return dateModified;
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.camerapromax.gallery;
+
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Неизменяемое описание фильтра галереи.
+ * Фильтр целиком превращается в SQL-выражение selection и его аргументы для запроса к MediaStore,
+ * поэтому после запроса в Java ничего дополнительно не отбрасывается.
+ * Экземпляры сравниваются по значению и используются как ключи кэша результатов.
+ * Фильтр сериализуем, чтобы передавать его в аргументах фрагментов.
+ */
+public final class MediaFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Показывать и изображения, и видео. */
+    public static final int TYPE_ALL = 0;
+    /** Показывать только изображения. */
+    public static final int TYPE_IMAGES = 1;
+    /** Показывать только видео. */
+    public static final int TYPE_VIDEOS = 2;
+
+    /** Папка, в которую {@code PhotoFragment} сохраняет снимки. */
+    public static final String APP_IMAGE_DIR = "Pictures/CameraX-Image";
+    /** Папка, в которую {@code VideoFragment} сохраняет видео. */
+    public static final String APP_VIDEO_DIR = "Movies/CameraX-Video";
+
+    /**
+     * Указывает папку нового файла MediaStore. На Android 10+ это {@code RELATIVE_PATH}, а раньше
+     * MediaStore сам кладет файл в корень {@code Pictures/} или {@code Movies/}, поэтому путь задается
+     * целиком в {@code DATA}. Если файл с таким именем уже есть, к имени добавляется номер, как это
+     * делает MediaStore на Android 10+.
+     *
+     * @param values      Значения новой записи.
+     * @param relativeDir Папка относительно корня общего хранилища, например {@link #APP_VIDEO_DIR}.
+     * @param fileName    Имя файла с расширением; используется только до Android 10.
+     */
+    @SuppressWarnings("deprecation")
+    public static void putLocation(@NonNull ContentValues values, @NonNull String relativeDir, @NonNull String fileName) {
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.P) {
+            values.put(MediaStore.MediaColumns.RELATIVE_PATH, relativeDir);
+            return;
+        }
+        File dir = new File(Environment.getExternalStorageDirectory(), relativeDir);
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        File file = new File(dir, fileName);
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        for (int i = 1; file.exists(); i++) {
+            file = new File(dir, base + " (" + i + ")" + extension);
+        }
+        values.put(MediaStore.MediaColumns.DATA, file.getAbsolutePath());
+    }
+
+    /** Фильтр по умолчанию: все изображения и видео. */
+    public static final MediaFilter ALL = new MediaFilter(TYPE_ALL, false, 0, 0, null, false);
+
+    private final int type;
+    private final boolean appFoldersOnly;
+    private final long fromSeconds;
+    private final long toSeconds;
+    @Nullable
+    private final String nameQuery;
+    private final boolean sortByCaptureTime;
+
+    // selection и аргументы строятся один раз — фильтр неизменяемый
+    private transient String selection;
+    private transient String[] selectionArgs;
+
+    private MediaFilter(int type, boolean appFoldersOnly, long fromSeconds, long toSeconds, @Nullable String nameQuery,
+                        boolean sortByCaptureTime) {
+        this.type = type;
+        this.appFoldersOnly = appFoldersOnly;
+        this.fromSeconds = fromSeconds;
+        this.toSeconds = toSeconds;
+        this.nameQuery = TextUtils.isEmpty(nameQuery) ? null : nameQuery;
+        this.sortByCaptureTime = sortByCaptureTime;
+    }
+
+    /**
+     * Возвращает копию фильтра с другим типом медиа.
+     *
+     * @param type Один из {@link #TYPE_ALL}, {@link #TYPE_IMAGES}, {@link #TYPE_VIDEOS}.
+     * @return Новый фильтр.
+     */
+    public MediaFilter withType(int type) {
+        return new MediaFilter(type, appFoldersOnly, fromSeconds, toSeconds, nameQuery, sortByCaptureTime);
+    }
+
+    /**
+     * Возвращает копию фильтра, ограниченную папками этого приложения.
+     *
+     * @param appFoldersOnly {@code true}, чтобы показывать только файлы из папок CameraX.
+     * @return Новый фильтр.
+     */
+    public MediaFilter withAppFoldersOnly(boolean appFoldersOnly) {
+        return new MediaFilter(type, appFoldersOnly, fromSeconds, toSeconds, nameQuery, sortByCaptureTime);
+    }
+
+    /**
+     * Возвращает копию фильтра с диапазоном дат добавления.
+     *
+     * @param fromSeconds Начало диапазона в секундах Unix-времени или 0, если без ограничения.
+     * @param toSeconds   Конец диапазона (включительно) в секундах Unix-времени или 0, если без ограничения.
+     * @return Новый фильтр.
+     */
+    public MediaFilter withDateRange(long fromSeconds, long toSeconds) {
+        return new MediaFilter(type, appFoldersOnly, fromSeconds, toSeconds, nameQuery, sortByCaptureTime);
+    }
+
+    /**
+     * Возвращает копию фильтра с подстрокой имени файла.
+     *
+     * @param nameQuery Подстрока имени или {@code null}, чтобы убрать ограничение.
+     * @return Новый фильтр.
+     */
+    public MediaFilter withNameQuery(@Nullable String nameQuery) {
+        return new MediaFilter(type, appFoldersOnly, fromSeconds, toSeconds, nameQuery, sortByCaptureTime);
+    }
+
+    /**
+     * Возвращает копию фильтра с другим порядком сортировки.
+     *
+     * @param sortByCaptureTime {@code true}, чтобы сортировать по времени съемки из метаданных,
+     *                          {@code false} — по дате добавления в MediaStore.
+     * @return Новый фильтр.
+     */
+    public MediaFilter withSortByCaptureTime(boolean sortByCaptureTime) {
+        return new MediaFilter(type, appFoldersOnly, fromSeconds, toSeconds, nameQuery, sortByCaptureTime);
+    }
+
+    /**
+     * Получает тип медиа, по которому фильтруются файлы.
+     *
+     * @return Один из {@link #TYPE_ALL}, {@link #TYPE_IMAGES}, {@link #TYPE_VIDEOS}.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Проверяет, ограничен ли фильтр папками этого приложения.
+     *
+     * @return {@code true}, если показываются только файлы из папок CameraX.
+     */
+    public boolean isAppFoldersOnly() {
+        return appFoldersOnly;
+    }
+
+    /**
+     * Проверяет, задан ли диапазон дат.
+     *
+     * @return {@code true}, если задана хотя бы одна граница диапазона.
+     */
+    public boolean hasDateRange() {
+        return fromSeconds > 0 || toSeconds > 0;
+    }
+
+    /**
+     * Проверяет, сортируются ли файлы по времени съемки.
+     *
+     * @return {@code true}, если порядок задает время съемки из EXIF или метаданных видео.
+     */
+    public boolean isSortByCaptureTime() {
+        return sortByCaptureTime;
+    }
+
+    /**
+     * Возвращает SQL-выражение WHERE (без самого слова WHERE) с плейсхолдерами {@code ?}.
+     *
+     * @return Строка selection для {@link android.content.ContentResolver#query}.
+     */
+    @NonNull
+    public synchronized String getSelection() {
+        if (selection == null) {
+            build();
+        }
+        return selection;
+    }
+
+    /**
+     * Возвращает значения для плейсхолдеров из {@link #getSelection()} в том же порядке.
+     *
+     * @return Аргументы selection.
+     */
+    @NonNull
+    public synchronized String[] getSelectionArgs() {
+        if (selectionArgs == null) {
+            build();
+        }
+        return selectionArgs.clone();
+    }
+
+    private void build() {
+        StringBuilder sb = new StringBuilder();
+        List<String> args = new ArrayList<>();
+
+        // тип медиа — всегда есть, чтобы не попадали аудио и документы
+        String mediaType = MediaStore.Files.FileColumns.MEDIA_TYPE;
+        switch (type) {
+            case TYPE_IMAGES:
+                sb.append(mediaType).append("=?");
+                args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
+                break;
+            case TYPE_VIDEOS:
+                sb.append(mediaType).append("=?");
+                args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
+                break;
+            default:
+                sb.append('(').append(mediaType).append("=? OR ").append(mediaType).append("=?)");
+                args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
+                args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
+                break;
+        }
+
+        if (appFoldersOnly) {
+            // До Android 10 нет RELATIVE_PATH, поэтому сравниваем абсолютный путь;
+            // приложение пишет туда же через putLocation()
+            if (Build.VERSION.SDK_INT > Build.VERSION_CODES.P) {
+                String column = MediaStore.MediaColumns.RELATIVE_PATH;
+                sb.append(" AND (").append(column).append(" LIKE ? OR ").append(column).append(" LIKE ?)");
+                args.add(APP_IMAGE_DIR + "%");
+                args.add(APP_VIDEO_DIR + "%");
+            } else {
+                String column = MediaStore.MediaColumns.DATA;
+                sb.append(" AND (").append(column).append(" LIKE ? OR ").append(column).append(" LIKE ?)");
+                args.add("%/" + APP_IMAGE_DIR + "/%");
+                args.add("%/" + APP_VIDEO_DIR + "/%");
+            }
+        }
+
+        if (fromSeconds > 0) {
+            sb.append(" AND ").append(MediaStore.MediaColumns.DATE_ADDED).append(">=?");
+            args.add(String.valueOf(fromSeconds));
+        }
+        if (toSeconds > 0) {
+            sb.append(" AND ").append(MediaStore.MediaColumns.DATE_ADDED).append("<=?");
+            args.add(String.valueOf(toSeconds));
+        }
+
+        if (nameQuery != null) {
+            // % и _ в запросе пользователя должны искаться буквально
+            sb.append(" AND ").append(MediaStore.MediaColumns.DISPLAY_NAME).append(" LIKE ? ESCAPE '\\'");
+            args.add("%" + escapeLike(nameQuery) + "%");
+        }
+
+        selection = sb.toString();
+        selectionArgs = args.toArray(new String[0]);
+    }
+
+    private static String escapeLike(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 4);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MediaFilter)) {
+            return false;
+        }
+        MediaFilter other = (MediaFilter) o;
+        return type == other.type
+                && appFoldersOnly == other.appFoldersOnly
+                && fromSeconds == other.fromSeconds
+                && toSeconds == other.toSeconds
+                && TextUtils.equals(nameQuery, other.nameQuery)
+                && sortByCaptureTime == other.sortByCaptureTime;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = type;
+        result = 31 * result + (appFoldersOnly ? 1 : 0);
+        result = 31 * result + (int) (fromSeconds ^ (fromSeconds >>> 32));
+        result = 31 * result + (int) (toSeconds ^ (toSeconds >>> 32));
+        result = 31 * result + (nameQuery != null ? nameQuery.hashCode() : 0);
+        result = 31 * result + (sortByCaptureTime ? 1 : 0);
+        return result;
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.camerapromax.gallery;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.example.camerapromax.metadata.MediaMetadata;
+import com.example.camerapromax.metadata.MetadataService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Источник медиафайлов для галереи.
+ * Загружает файлы из MediaStore постранично, передавая весь {@link MediaFilter} в запрос ContentResolver.
+ * Последние несколько результатов фильтров хранятся в памяти, чтобы повторное включение фильтра было мгновенным.
+ * Кэш сбрасывается при любом изменении коллекции MediaStore.
+ * <p>
+ * Времени съемки нет в MediaStore, поэтому для сортировки по нему загружаются сразу все строки фильтра,
+ * время берется из {@link MetadataService} и список сортируется в памяти; дальше страницы отдаются из кэша.
+ */
+public class MediaRepository {
+
+    /** Количество строк, загружаемых одним запросом. */
+    public static final int PAGE_SIZE = 120;
+    /** Сколько последних результатов фильтров держать в памяти. */
+    private static final int CACHE_SIZE = 4;
+
+    static final String[] PROJECTION = {
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.Files.FileColumns.DISPLAY_NAME,
+            MediaStore.Files.FileColumns.MIME_TYPE,
+            MediaStore.Files.FileColumns.DATE_MODIFIED
+    };
+    // _ID добавлен, чтобы порядок был стабильным между страницами при одинаковой дате
+    private static final String SORT_ORDER = MediaStore.Files.FileColumns.DATE_ADDED + " DESC, " +
+            MediaStore.Files.FileColumns._ID + " DESC";
+
+    private static MediaRepository instance;
+    @Nullable
+    private static Uri collectionOverride;
+
+    private final ContentResolver contentResolver;
+    private final Uri collection;
+    private final MetadataService metadataService;
+    private final ContentObserver observer;
+    private final LruCache<MediaFilter, Result> cache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Снимок загруженных строк для одного фильтра.
+     */
+    public static final class Result {
+        private final List<MediaFile> items = new ArrayList<>();
+        private boolean endReached;
+
+        /**
+         * Получает загруженные к этому моменту файлы.
+         *
+         * @return Неизменяемая копия списка файлов.
+         */
+        public synchronized List<MediaFile> getItems() {
+            return Collections.unmodifiableList(new ArrayList<>(items));
+        }
+
+        /**
+         * Проверяет, загружены ли все строки, подходящие под фильтр.
+         *
+         * @return {@code true}, если больше страниц нет.
+         */
+        public synchronized boolean isEndReached() {
+            return endReached;
+        }
+
+        synchronized int size() {
+            return items.size();
+        }
+
+        synchronized void append(List<MediaFile> page, boolean last) {
+            items.addAll(page);
+            endReached = last;
+        }
+    }
+
+    /**
+     * Возвращает общий для процесса экземпляр репозитория.
+     *
+     * @param context Любой контекст; сохраняется только контекст приложения.
+     * @return Экземпляр репозитория.
+     */
+    public static synchronized MediaRepository getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new MediaRepository(context.getApplicationContext().getContentResolver(),
+                    collectionOverride != null ? collectionOverride : MediaStore.Files.getContentUri("external"),
+                    MetadataService.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * Подменяет коллекцию, из которой читаются файлы, — например, синтетической коллекцией
+     * для нагрузочных тестов. Коллекция должна отдавать колонки {@link MediaStore.Files} и уведомлять
+     * об изменениях. Текущий экземпляр отбрасывается, следующий {@link #getInstance(Context)} создаст новый.
+     * Метаданные подмененной коллекции кэшируются в отдельной базе, по authority коллекции.
+     *
+     * @param collection URI коллекции или {@code null}, чтобы вернуться к MediaStore.
+     */
+    @VisibleForTesting
+    public static synchronized void setCollection(@Nullable Uri collection) {
+        collectionOverride = collection;
+        MetadataService.setNamespace(collection != null ? collection.getAuthority() : null);
+        if (instance != null) {
+            instance.contentResolver.unregisterContentObserver(instance.observer);
+            instance = null;
+        }
+    }
+
+    private MediaRepository(ContentResolver contentResolver, Uri collection, MetadataService metadataService) {
+        this.contentResolver = contentResolver;
+        this.collection = collection;
+        this.metadataService = metadataService;
+        // новые снимки и удаления делают закэшированные результаты устаревшими
+        observer = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+        contentResolver.registerContentObserver(collection, true, observer);
+    }
+
+    /**
+     * Возвращает закэшированный результат для фильтра, не выполняя запрос.
+     *
+     * @param filter Фильтр галереи.
+     * @return Результат или {@code null}, если фильтра нет в кэше.
+     */
+    @Nullable
+    public Result getCached(@NonNull MediaFilter filter) {
+        return cache.get(filter);
+    }
+
+    /**
+     * Загружает следующую страницу для фильтра и добавляет её в кэш.
+     * Выполняет запрос к ContentResolver, поэтому должен вызываться не в главном потоке.
+     * <p>
+     * В кэш попадает только страница, которая продолжает уже закэшированные строки. Если кэш сброшен
+     * (изменение MediaStore или вытеснение), пока вызывающая сторона листает с середины, страница
+     * отдается без кэширования: иначе {@link #getCached(MediaFilter)} вернул бы хвост списка как его начало.
+     * Проверка размера, запрос и добавление выполняются под блокировкой результата фильтра, поэтому
+     * галерея и просмотрщик не добавляют одну и ту же страницу дважды.
+     *
+     * @param filter Фильтр галереи.
+     * @param offset Сколько строк уже загружено вызывающей стороной.
+     * @return Строки новой страницы (может быть пустой).
+     */
+    @NonNull
+    public List<MediaFile> loadPage(@NonNull MediaFilter filter, int offset) {
+        Result result;
+        // LruCache синхронизируется на себе, поэтому поиск и вставка под этой же блокировкой атомарны
+        synchronized (cache) {
+            result = cache.get(filter);
+            if (result == null) {
+                result = new Result();
+                cache.put(filter, result);
+            }
+        }
+
+        synchronized (result) {
+            // страница уже есть в кэше — например, её загрузил другой экран
+            if (result.size() > offset || result.isEndReached()) {
+                List<MediaFile> items = result.getItems();
+                return new ArrayList<>(items.subList(Math.min(offset, items.size()),
+                        Math.min(offset + PAGE_SIZE, items.size())));
+            }
+
+            if (filter.isSortByCaptureTime()) {
+                // загружаются сразу все строки, поэтому результат полон при любом offset
+                List<MediaFile> all = loadSortedByCaptureTime(filter);
+                result.append(all, true);
+                return new ArrayList<>(all.subList(Math.min(offset, all.size()),
+                        Math.min(offset + PAGE_SIZE, all.size())));
+            }
+
+            List<MediaFile> page = new ArrayList<>(PAGE_SIZE);
+            try (Cursor cursor = query(filter, offset, PAGE_SIZE)) {
+                readRows(cursor, collection, page);
+            }
+            if (offset == result.size()) {
+                result.append(page, page.size() < PAGE_SIZE);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Сбрасывает все закэшированные результаты.
+     */
+    public void invalidate() {
+        cache.evictAll();
+    }
+
+    /**
+     * Загружает все строки фильтра и сортирует их по времени съемки, от новых к старым.
+     * Сортировка устойчивая, поэтому файлы с одинаковым временем остаются в порядке MediaStore.
+     */
+    private List<MediaFile> loadSortedByCaptureTime(MediaFilter filter) {
+        List<MediaFile> all = new ArrayList<>();
+        try (Cursor cursor = query(filter, 0, 0)) {
+            readRows(cursor, collection, all);
+        }
+        final Map<Long, MediaMetadata> metadata = metadataService.getAll(all);
+        Collections.sort(all, (a, b) -> Long.compare(
+                metadata.get(b.getId()).getCaptureTime(), metadata.get(a.getId()).getCaptureTime()));
+        return all;
+    }
+
+    /**
+     * Превращает строки курсора с колонками {@link #PROJECTION} в модели.
+     *
+     * @param cursor     Курсор MediaStore или {@code null}.
+     * @param collection Коллекция, к которой относятся идентификаторы строк.
+     * @param out        Куда добавлять файлы.
+     */
+    static void readRows(@Nullable Cursor cursor, @NonNull Uri collection, @NonNull List<MediaFile> out) {
+        if (cursor == null) {
+            return;
+        }
+        int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID);
+        int nameColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME);
+        int mimeTypeColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE);
+        int dateModifiedColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DATE_MODIFIED);
+
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(idColumn);
+            Uri contentUri = Uri.withAppendedPath(collection, String.valueOf(id));
+            out.add(new MediaFile(id, contentUri, cursor.getString(nameColumn),
+                    cursor.getString(mimeTypeColumn), cursor.getLong(dateModifiedColumn)));
+        }
+    }
+
+    /**
+     * Выполняет запрос одной страницы или, если {@code limit} равен 0, всех строк фильтра.
+     * Начиная с Android 11 MediaStore не принимает LIMIT в sortOrder, поэтому используются аргументы Bundle.
+     */
+    @Nullable
+    private Cursor query(MediaFilter filter, int offset, int limit) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, filter.getSelection());
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, filter.getSelectionArgs());
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, SORT_ORDER);
+            if (limit > 0) {
+                queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+                queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+            }
+            return contentResolver.query(collection, PROJECTION, queryArgs, null);
+        }
+        return contentResolver.query(
+                collection,
+                PROJECTION,
+                filter.getSelection(),
+                filter.getSelectionArgs(),
+                limit > 0 ? SORT_ORDER + " LIMIT " + limit + " OFFSET " + offset : SORT_ORDER
+        );
+    }
+}
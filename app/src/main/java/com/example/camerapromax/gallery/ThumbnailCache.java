@@ -0,0 +1,106 @@
+package com.example.camerapromax.gallery;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Общий для процесса кэш миниатюр в памяти, разбитый по уровням размера из {@link ThumbnailSizer}.
+ * Для одного файла могут одновременно храниться миниатюры нескольких уровней.
+ * При запросе отдается лучшая из имеющихся: точный уровень, затем больший (он просто
+ * масштабируется при отрисовке), затем меньший как временная замена до загрузки нужного.
+ */
+public final class ThumbnailCache {
+
+    private static ThumbnailCache instance;
+
+    private final LruCache<String, Bitmap> cache;
+
+    /**
+     * Миниатюра, найденная в кэше, вместе с её уровнем.
+     */
+    public static final class Entry {
+        public final Bitmap bitmap;
+        public final int tier;
+
+        Entry(Bitmap bitmap, int tier) {
+            this.bitmap = bitmap;
+            this.tier = tier;
+        }
+    }
+
+    /**
+     * Возвращает общий экземпляр кэша.
+     *
+     * @return Экземпляр кэша.
+     */
+    public static synchronized ThumbnailCache getInstance() {
+        if (instance == null) {
+            // 1/8 доступной приложению памяти, размер считается в килобайтах
+            int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+            instance = new ThumbnailCache(maxKb);
+        }
+        return instance;
+    }
+
+    private ThumbnailCache(int maxKb) {
+        cache = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Сохраняет миниатюру.
+     *
+     * @param mediaFile Файл, которому принадлежит миниатюра.
+     * @param tier      Уровень размера.
+     * @param bitmap    Декодированная миниатюра.
+     */
+    public void put(@NonNull MediaFile mediaFile, int tier, @NonNull Bitmap bitmap) {
+        cache.put(key(mediaFile, tier), bitmap);
+    }
+
+    /**
+     * Ищет лучшую миниатюру для нужного уровня.
+     *
+     * @param mediaFile Файл.
+     * @param tier      Нужный уровень.
+     * @return Найденная миниатюра или {@code null}, если в памяти нет ни одного уровня.
+     */
+    @Nullable
+    public Entry getBest(@NonNull MediaFile mediaFile, int tier) {
+        int[] tiers = ThumbnailSizer.TIERS;
+        // точный или больший уровень — декодирование не нужно
+        for (int candidate : tiers) {
+            if (candidate < tier) {
+                continue;
+            }
+            Bitmap bitmap = cache.get(key(mediaFile, candidate));
+            if (bitmap != null) {
+                return new Entry(bitmap, candidate);
+            }
+        }
+        // меньший уровень — показываем сразу, а нужный догружаем
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (tiers[i] >= tier) {
+                continue;
+            }
+            Bitmap bitmap = cache.get(key(mediaFile, tiers[i]));
+            if (bitmap != null) {
+                return new Entry(bitmap, tiers[i]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Формирует ключ кэша. Время изменения входит в ключ, чтобы отредактированный файл не показывал старую миниатюру.
+     */
+    static String key(MediaFile mediaFile, int tier) {
+        return mediaFile.getUri() + "#" + mediaFile.getDateModified() + "@" + tier;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.camerapromax.gallery;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.ImageView;
+import androidx.annotation.NonNull;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Загружает миниатюры в ячейки галереи через {@link ThumbnailCache}.
+ * Если в памяти есть подходящий или больший уровень, он показывается без декодирования.
+ * Если есть только меньший, он показывается сразу, а нужный уровень догружается в фоне (прогрессивное улучшение).
+ * Само декодирование выполняет Glide, но без его кэша в памяти: миниатюры живут только в нашем кэше,
+ * а дисковый кэш Glide делает повторное декодирование того же уровня дешевым.
+ */
+public class ThumbnailLoader {
+
+    private static final String TAG = "ThumbnailLoader";
+
+    private final Context appContext;
+    private final ThumbnailCache cache = ThumbnailCache.getInstance();
+    private final ExecutorService decodeExecutor = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // ключи, которые уже декодируются, и ячейки, которые ждут каждый из них:
+    // одно и то же не декодируется дважды, а результат получают все ждущие ячейки
+    private final Map<String, List<WeakReference<ImageView>>> inFlight = new HashMap<>();
+
+    /**
+     * Создает загрузчик.
+     *
+     * @param context Любой контекст; сохраняется только контекст приложения.
+     */
+    public ThumbnailLoader(@NonNull Context context) {
+        this.appContext = context.getApplicationContext();
+    }
+
+    /**
+     * Показывает миниатюру файла в ImageView. Вызывается в главном потоке.
+     *
+     * @param imageView   Ячейка, в которую нужно показать миниатюру.
+     * @param mediaFile   Файл.
+     * @param tier        Нужный уровень размера.
+     * @param allowDecode {@code false}, чтобы показывать только то, что уже есть в памяти (например, во время жеста).
+     *                    Если в памяти нет ничего, декодирование всё равно запускается.
+     */
+    public void load(@NonNull ImageView imageView, @NonNull MediaFile mediaFile, int tier, boolean allowDecode) {
+        String key = ThumbnailCache.key(mediaFile, tier);
+        imageView.setTag(key);
+
+        ThumbnailCache.Entry best = cache.getBest(mediaFile, tier);
+        if (best != null) {
+            imageView.setImageBitmap(best.bitmap);
+            if (best.tier >= tier || !allowDecode) {
+                return;
+            }
+        } else {
+            imageView.setImageDrawable(null);
+        }
+        decode(imageView, mediaFile, tier, key);
+    }
+
+    /**
+     * Декодирует миниатюру нужного уровня в фоне и показывает её во всех ячейках, которые всё ещё ждут этот файл.
+     * Если декодирование уже идет, ячейка только добавляется к ждущим.
+     */
+    private void decode(ImageView imageView, MediaFile mediaFile, int tier, String key) {
+        synchronized (inFlight) {
+            List<WeakReference<ImageView>> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(new WeakReference<>(imageView));
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(new WeakReference<>(imageView));
+            inFlight.put(key, waiting);
+        }
+        decodeExecutor.execute(() -> {
+            Bitmap bitmap = null;
+            List<WeakReference<ImageView>> waiting;
+            try {
+                // все ждавшие ячейки уже переиспользовали для других файлов — декодировать незачем
+                if (isAwaited(key)) {
+                    // FutureTarget не очищается намеренно: bitmap принадлежит нашему кэшу и не должен вернуться в пул Glide
+                    bitmap = Glide.with(appContext)
+                            .asBitmap()
+                            .load(mediaFile.getUri())
+                            .override(tier)
+                            .centerCrop()
+                            .skipMemoryCache(true)
+                            .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+                            .submit()
+                            .get();
+                    cache.put(mediaFile, tier, bitmap);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Thumbnail decode failed for " + mediaFile.getUri(), e);
+            } finally {
+                // запрос после этого момента найдет миниатюру в кэше или запустит новое декодирование
+                synchronized (inFlight) {
+                    waiting = inFlight.remove(key);
+                }
+            }
+            if (bitmap == null || waiting == null) {
+                return;
+            }
+            final Bitmap result = bitmap;
+            final List<WeakReference<ImageView>> targets = waiting;
+            mainHandler.post(() -> {
+                for (WeakReference<ImageView> ref : targets) {
+                    ImageView view = ref.get();
+                    if (view != null && key.equals(view.getTag())) {
+                        view.setImageBitmap(result);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Проверяет, ждет ли ключ хотя бы одна ячейка.
+     */
+    private boolean isAwaited(String key) {
+        synchronized (inFlight) {
+            List<WeakReference<ImageView>> waiting = inFlight.get(key);
+            if (waiting == null) {
+                return false;
+            }
+            for (WeakReference<ImageView> ref : waiting) {
+                ImageView view = ref.get();
+                if (view != null && key.equals(view.getTag())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Останавливает фоновые потоки декодирования.
+     */
+    public void shutdown() {
+        decodeExecutor.shutdownNow();
+    }
+}
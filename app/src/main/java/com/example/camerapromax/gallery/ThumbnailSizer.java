@@ -0,0 +1,57 @@
+package com.example.camerapromax.gallery;
+
+/**
+ * Расчет размеров миниатюр.
+ * Размер ячейки сетки округляется вверх до одного из фиксированных уровней, чтобы при изменении
+ * количества колонок миниатюры декодировались только при пересечении границы уровня,
+ * а не на каждом шаге жеста.
+ */
+public final class ThumbnailSizer {
+
+    /** Доступные размеры миниатюр в пикселях, по возрастанию. */
+    static final int[] TIERS = {128, 192, 256, 384, 512, 768};
+
+    /** Минимальное количество колонок сетки. */
+    public static final int MIN_SPAN = 2;
+    /** Максимальное количество колонок сетки. */
+    public static final int MAX_SPAN = 8;
+
+    private ThumbnailSizer() {
+    }
+
+    /**
+     * Подбирает уровень миниатюры для ячейки.
+     *
+     * @param cellPx Сторона ячейки в пикселях.
+     * @return Наименьший уровень, не меньший стороны ячейки, или наибольший уровень.
+     */
+    public static int tierFor(int cellPx) {
+        for (int tier : TIERS) {
+            if (tier >= cellPx) {
+                return tier;
+            }
+        }
+        return TIERS[TIERS.length - 1];
+    }
+
+    /**
+     * Вычисляет сторону ячейки сетки.
+     *
+     * @param widthPx   Ширина списка в пикселях.
+     * @param spanCount Количество колонок.
+     * @return Сторона квадратной ячейки в пикселях.
+     */
+    public static int cellSize(int widthPx, int spanCount) {
+        return widthPx / Math.max(1, spanCount);
+    }
+
+    /**
+     * Ограничивает количество колонок допустимым диапазоном.
+     *
+     * @param spanCount Желаемое количество колонок.
+     * @return Значение в диапазоне {@link #MIN_SPAN}..{@link #MAX_SPAN}.
+     */
+    public static int clampSpan(int spanCount) {
+        return Math.max(MIN_SPAN, Math.min(MAX_SPAN, spanCount));
+    }
+}
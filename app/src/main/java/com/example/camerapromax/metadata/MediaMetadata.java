@@ -0,0 +1,175 @@
+package com.example.camerapromax.metadata;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Метаданные одного медиафайла: время съемки, размеры, камера и место.
+ * Неизменяемый; неизвестные числовые поля равны 0, неизвестные координаты — {@link Double#NaN}.
+ */
+public final class MediaMetadata {
+
+    private final long id;
+    private final long dateModified;
+    private final long captureTime;
+    private final int width;
+    private final int height;
+    private final int rotation;
+    private final long durationMs;
+    @Nullable
+    private final String make;
+    @Nullable
+    private final String model;
+    @Nullable
+    private final String lens;
+    private final double focalLength;
+    private final double latitude;
+    private final double longitude;
+
+    MediaMetadata(long id, long dateModified, long captureTime, int width, int height, int rotation, long durationMs,
+                  @Nullable String make, @Nullable String model, @Nullable String lens, double focalLength,
+                  double latitude, double longitude) {
+        this.id = id;
+        this.dateModified = dateModified;
+        this.captureTime = captureTime;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.durationMs = durationMs;
+        this.make = make;
+        this.model = model;
+        this.lens = lens;
+        this.focalLength = focalLength;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Получает идентификатор файла в MediaStore.
+     *
+     * @return Идентификатор файла в MediaStore.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Получает время изменения файла, для которого извлечены метаданные.
+     *
+     * @return Время изменения файла в секундах, для которого извлечены метаданные.
+     */
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    /**
+     * Получает время съемки из EXIF или метаданных видео. Если его нет в файле,
+     * используется время изменения файла.
+     *
+     * @return Время съемки в миллисекундах Unix-времени.
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * Получает ширину кадра.
+     *
+     * @return Ширина в пикселях без учета поворота или 0.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Получает высоту кадра.
+     *
+     * @return Высота в пикселях без учета поворота или 0.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Получает поворот, с которым кадр нужно показывать.
+     *
+     * @return Поворот в градусах: 0, 90, 180 или 270.
+     */
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Получает длительность видео.
+     *
+     * @return Длительность видео в миллисекундах или 0 для изображений.
+     */
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Получает производителя камеры.
+     *
+     * @return Производитель камеры или {@code null}.
+     */
+    @Nullable
+    public String getMake() {
+        return make;
+    }
+
+    /**
+     * Получает модель камеры.
+     *
+     * @return Модель камеры или {@code null}.
+     */
+    @Nullable
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * Получает модель объектива.
+     *
+     * @return Модель объектива или {@code null}.
+     */
+    @Nullable
+    public String getLens() {
+        return lens;
+    }
+
+    /**
+     * Получает фокусное расстояние.
+     *
+     * @return Фокусное расстояние в миллиметрах или 0.
+     */
+    public double getFocalLength() {
+        return focalLength;
+    }
+
+    /**
+     * Проверяет, известны ли координаты съемки.
+     *
+     * @return {@code true}, если известны координаты съемки.
+     */
+    public boolean hasLocation() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
+    /**
+     * Получает широту места съемки.
+     *
+     * @return Широта или {@link Double#NaN}.
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * Получает долготу места съемки.
+     *
+     * @return Долгота или {@link Double#NaN}.
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+}
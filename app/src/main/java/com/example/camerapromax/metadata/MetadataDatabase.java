@@ -0,0 +1,168 @@
+package com.example.camerapromax.metadata;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Постоянный кэш метаданных в SQLite.
+ * <p>
+ * Одна строка на файл, ключ — {@code _ID} из MediaStore, который и есть rowid таблицы.
+ * Строка действительна, пока совпадает {@code date_modified}: изменение файла делает её устаревшей,
+ * и метаданные извлекаются заново. Все значения хранятся числами или короткими строками,
+ * поэтому таблица на десятки тысяч файлов занимает единицы мегабайт.
+ */
+final class MetadataDatabase extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "metadata.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "media_metadata";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_DATE_MODIFIED = "date_modified";
+    private static final String COLUMN_CAPTURE_TIME = "capture_time";
+    private static final String COLUMN_WIDTH = "width";
+    private static final String COLUMN_HEIGHT = "height";
+    private static final String COLUMN_ROTATION = "rotation";
+    private static final String COLUMN_DURATION = "duration";
+    private static final String COLUMN_MAKE = "make";
+    private static final String COLUMN_MODEL = "model";
+    private static final String COLUMN_LENS = "lens";
+    private static final String COLUMN_FOCAL_LENGTH = "focal_length";
+    private static final String COLUMN_LATITUDE = "latitude";
+    private static final String COLUMN_LONGITUDE = "longitude";
+
+    private static final String[] COLUMNS = {
+            COLUMN_ID, COLUMN_DATE_MODIFIED, COLUMN_CAPTURE_TIME, COLUMN_WIDTH, COLUMN_HEIGHT, COLUMN_ROTATION,
+            COLUMN_DURATION, COLUMN_MAKE, COLUMN_MODEL, COLUMN_LENS, COLUMN_FOCAL_LENGTH, COLUMN_LATITUDE,
+            COLUMN_LONGITUDE
+    };
+    // SQLite ограничивает количество параметров запроса (999 в старых версиях)
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    MetadataDatabase(@NonNull Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Открывает кэш для отдельной коллекции: идентификаторы разных коллекций не должны смешиваться.
+     *
+     * @param context   Контекст.
+     * @param namespace Имя коллекции или {@code null} для MediaStore.
+     */
+    MetadataDatabase(@NonNull Context context, @Nullable String namespace) {
+        super(context, namespace == null ? DATABASE_NAME : "metadata-" + namespace + ".db", null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_DATE_MODIFIED + " INTEGER NOT NULL, "
+                + COLUMN_CAPTURE_TIME + " INTEGER NOT NULL, "
+                + COLUMN_WIDTH + " INTEGER, "
+                + COLUMN_HEIGHT + " INTEGER, "
+                + COLUMN_ROTATION + " INTEGER, "
+                + COLUMN_DURATION + " INTEGER, "
+                + COLUMN_MAKE + " TEXT, "
+                + COLUMN_MODEL + " TEXT, "
+                + COLUMN_LENS + " TEXT, "
+                + COLUMN_FOCAL_LENGTH + " REAL, "
+                + COLUMN_LATITUDE + " REAL, "
+                + COLUMN_LONGITUDE + " REAL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // это кэш — при смене схемы его проще построить заново
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Читает строки для набора идентификаторов.
+     *
+     * @param ids Идентификаторы файлов.
+     * @param out Куда складывать найденные строки по идентификатору; устаревшие строки тоже попадают сюда.
+     */
+    void read(@NonNull List<Long> ids, @NonNull Map<Long, MediaMetadata> out) {
+        SQLiteDatabase db = getReadableDatabase();
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_QUERY) {
+            List<Long> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_IDS_PER_QUERY));
+            StringBuilder selection = new StringBuilder(COLUMN_ID).append(" IN (");
+            String[] args = new String[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                args[i] = String.valueOf(chunk.get(i));
+            }
+            selection.append(')');
+            try (Cursor cursor = db.query(TABLE, COLUMNS, selection.toString(), args, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    MediaMetadata metadata = fromCursor(cursor);
+                    out.put(metadata.getId(), metadata);
+                }
+            }
+        }
+    }
+
+    /**
+     * Записывает строки одной транзакцией, заменяя устаревшие.
+     *
+     * @param items Метаданные для записи.
+     */
+    void write(@NonNull List<MediaMetadata> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (MediaMetadata item : items) {
+                values.clear();
+                values.put(COLUMN_ID, item.getId());
+                values.put(COLUMN_DATE_MODIFIED, item.getDateModified());
+                values.put(COLUMN_CAPTURE_TIME, item.getCaptureTime());
+                values.put(COLUMN_WIDTH, item.getWidth());
+                values.put(COLUMN_HEIGHT, item.getHeight());
+                values.put(COLUMN_ROTATION, item.getRotation());
+                values.put(COLUMN_DURATION, item.getDurationMs());
+                values.put(COLUMN_MAKE, item.getMake());
+                values.put(COLUMN_MODEL, item.getModel());
+                values.put(COLUMN_LENS, item.getLens());
+                values.put(COLUMN_FOCAL_LENGTH, item.getFocalLength());
+                if (item.hasLocation()) {
+                    values.put(COLUMN_LATITUDE, item.getLatitude());
+                    values.put(COLUMN_LONGITUDE, item.getLongitude());
+                }
+                db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static MediaMetadata fromCursor(Cursor cursor) {
+        return new MediaMetadata(
+                cursor.getLong(0),
+                cursor.getLong(1),
+                cursor.getLong(2),
+                cursor.getInt(3),
+                cursor.getInt(4),
+                cursor.getInt(5),
+                cursor.getLong(6),
+                cursor.getString(7),
+                cursor.getString(8),
+                cursor.getString(9),
+                cursor.getDouble(10),
+                cursor.isNull(11) ? Double.NaN : cursor.getDouble(11),
+                cursor.isNull(12) ? Double.NaN : cursor.getDouble(12));
+    }
+}
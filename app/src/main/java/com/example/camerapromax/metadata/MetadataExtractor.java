@@ -0,0 +1,288 @@
+package com.example.camerapromax.metadata;
+
+import android.content.ContentResolver;
+import android.media.MediaMetadataRetriever;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+import com.example.camerapromax.gallery.MediaFile;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Извлекает метаданные одного файла, не декодируя пиксели.
+ * <p>
+ * Для JPEG {@link ExifInterface} читает поток только до начала сжатых данных, а поток дополнительно
+ * ограничен {@link #EXIF_READ_LIMIT} байтами — сегмент EXIF находится в начале файла и не больше 64 КБ.
+ * Остальные изображения (HEIF, PNG, WebP) читаются через файловый дескриптор, по которому
+ * ExifInterface сам переходит к нужным блокам. Для видео используется {@link MediaMetadataRetriever},
+ * который читает только заголовки контейнера.
+ * <p>
+ * Без разрешения {@code ACCESS_MEDIA_LOCATION} Android 10+ скрывает координаты в чужих файлах;
+ * в этом случае место съемки остается неизвестным.
+ */
+final class MetadataExtractor {
+
+    private static final String TAG = "MetadataExtractor";
+    /** Сколько байт начала JPEG достаточно для всех APP-сегментов на практике. */
+    private static final int EXIF_READ_LIMIT = 256 * 1024;
+    private static final Pattern ISO6709 = Pattern.compile("([+-]\\d+(?:\\.\\d+)?)([+-]\\d+(?:\\.\\d+)?)");
+
+    private final ContentResolver contentResolver;
+
+    MetadataExtractor(@NonNull ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Извлекает метаданные файла. Никогда не бросает исключений: если файл не читается,
+     * возвращаются метаданные с временем изменения вместо времени съемки, чтобы файл не
+     * извлекался повторно до следующего изменения.
+     *
+     * @param file Медиафайл.
+     * @return Метаданные.
+     */
+    @NonNull
+    MediaMetadata extract(@NonNull MediaFile file) {
+        try {
+            if (file.getType() != null && file.getType().startsWith("video")) {
+                return extractVideo(file);
+            }
+            return extractImage(file);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read metadata of " + file.getUri(), e);
+            return fallback(file);
+        }
+    }
+
+    private MediaMetadata extractImage(MediaFile file) throws IOException {
+        ExifInterface exif;
+        if ("image/jpeg".equals(file.getType())) {
+            try (InputStream in = contentResolver.openInputStream(file.getUri())) {
+                if (in == null) {
+                    return fallback(file);
+                }
+                exif = new ExifInterface(new LimitedInputStream(new BufferedInputStream(in), EXIF_READ_LIMIT));
+            }
+        } else {
+            try (ParcelFileDescriptor descriptor = contentResolver.openFileDescriptor(file.getUri(), "r")) {
+                if (descriptor == null) {
+                    return fallback(file);
+                }
+                exif = new ExifInterface(descriptor.getFileDescriptor());
+            }
+        }
+
+        long captureTime = parseExifTime(exif.getAttribute(ExifInterface.TAG_DATETIME_ORIGINAL),
+                exif.getAttribute(ExifInterface.TAG_SUBSEC_TIME_ORIGINAL),
+                exif.getAttribute(ExifInterface.TAG_OFFSET_TIME_ORIGINAL));
+        if (captureTime <= 0) {
+            captureTime = parseExifTime(exif.getAttribute(ExifInterface.TAG_DATETIME), null,
+                    exif.getAttribute(ExifInterface.TAG_OFFSET_TIME));
+        }
+        int width = exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0);
+        int height = exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0);
+        if (width == 0 || height == 0) {
+            width = exif.getAttributeInt(ExifInterface.TAG_PIXEL_X_DIMENSION, 0);
+            height = exif.getAttributeInt(ExifInterface.TAG_PIXEL_Y_DIMENSION, 0);
+        }
+        double[] latLong = exif.getLatLong();
+        return new MediaMetadata(file.getId(), file.getDateModified(),
+                captureTime > 0 ? captureTime : file.getDateModified() * 1000,
+                width, height, exif.getRotationDegrees(), 0,
+                trimToNull(exif.getAttribute(ExifInterface.TAG_MAKE)),
+                trimToNull(exif.getAttribute(ExifInterface.TAG_MODEL)),
+                trimToNull(exif.getAttribute(ExifInterface.TAG_LENS_MODEL)),
+                exif.getAttributeDouble(ExifInterface.TAG_FOCAL_LENGTH, 0),
+                latLong != null ? latLong[0] : Double.NaN,
+                latLong != null ? latLong[1] : Double.NaN);
+    }
+
+    private MediaMetadata extractVideo(MediaFile file) throws IOException {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try (ParcelFileDescriptor descriptor = contentResolver.openFileDescriptor(file.getUri(), "r")) {
+            if (descriptor == null) {
+                return fallback(file);
+            }
+            retriever.setDataSource(descriptor.getFileDescriptor());
+            long captureTime = parseVideoTime(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DATE));
+            double latitude = Double.NaN;
+            double longitude = Double.NaN;
+            String location = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_LOCATION);
+            if (location != null) {
+                Matcher matcher = ISO6709.matcher(location);
+                if (matcher.find()) {
+                    latitude = Double.parseDouble(matcher.group(1));
+                    longitude = Double.parseDouble(matcher.group(2));
+                }
+            }
+            return new MediaMetadata(file.getId(), file.getDateModified(),
+                    captureTime > 0 ? captureTime : file.getDateModified() * 1000,
+                    parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)),
+                    parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)),
+                    parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION)),
+                    parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)),
+                    null, null, null, 0, latitude, longitude);
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.w(TAG, "Cannot release retriever", e);
+            }
+        }
+    }
+
+    /**
+     * Создает метаданные без чтения файла: время съемки берется из времени изменения.
+     *
+     * @param file Медиафайл.
+     * @return Метаданные.
+     */
+    @NonNull
+    static MediaMetadata fallback(@NonNull MediaFile file) {
+        return new MediaMetadata(file.getId(), file.getDateModified(), file.getDateModified() * 1000,
+                0, 0, 0, 0, null, null, null, 0, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Разбирает время EXIF вида {@code 2024:05:17 14:03:22}. Без смещения часового пояса
+     * время считается местным — так его записывают камеры.
+     *
+     * @return Время в миллисекундах или 0.
+     */
+    static long parseExifTime(@Nullable String dateTime, @Nullable String subSeconds, @Nullable String offset) {
+        if (dateTime == null || dateTime.length() < 19) {
+            return 0;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US);
+        if (offset != null && offset.matches("[+-]\\d{2}:\\d{2}")) {
+            format.setTimeZone(TimeZone.getTimeZone("GMT" + offset));
+        }
+        try {
+            Date date = format.parse(dateTime.substring(0, 19));
+            if (date == null) {
+                return 0;
+            }
+            long millis = date.getTime();
+            if (subSeconds != null && subSeconds.matches("\\d+")) {
+                // доли секунды: "5" = 500 мс, "05" = 50 мс, "123456" = 123 мс
+                String padded = (subSeconds + "000").substring(0, 3);
+                millis += Integer.parseInt(padded);
+            }
+            return millis;
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Разбирает время из контейнера видео вида {@code 20240517T140322.000Z} (всегда UTC).
+     *
+     * @return Время в миллисекундах или 0.
+     */
+    static long parseVideoTime(@Nullable String value) {
+        if (value == null || value.length() < 15) {
+            return 0;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            Date date = format.parse(value.substring(0, 15));
+            // контейнеры без даты часто хранят 1904-01-01 — это не время съемки
+            return date != null && date.getTime() > 0 ? date.getTime() : 0;
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private static int parseInt(@Nullable String value) {
+        return (int) parseLong(value);
+    }
+
+    private static long parseLong(@Nullable String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Nullable
+    private static String trimToNull(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return TextUtils.isEmpty(trimmed) ? null : trimmed;
+    }
+
+    /**
+     * Поток, который после заданного количества байт сообщает о конце данных.
+     * Гарантирует, что разбор заголовков не прочитает файл целиком, даже если он поврежден.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.camerapromax.metadata;
+
+import android.content.Context;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.example.camerapromax.gallery.MediaFile;
+import com.example.camerapromax.metrics.MetricsLog;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Источник метаданных медиафайлов для галереи.
+ * <p>
+ * Метаданные извлекаются лениво — только для файлов, которые запросили, — и сохраняются в
+ * {@link MetadataDatabase}. Повторный запрос читает только таблицу, файлы при этом не открываются.
+ * Недостающие файлы разбираются параллельно на ограниченном пуле: когда очередь заполнена,
+ * задачу выполняет вызывающий поток, поэтому тысячи файлов не создают тысячи задач в памяти.
+ * Все методы блокируют поток и вызываются только в фоне.
+ */
+public final class MetadataService {
+
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static MetadataService instance;
+    @Nullable
+    private static String namespace;
+
+    private final MetadataDatabase database;
+    private final MetadataExtractor extractor;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Возвращает общий для процесса экземпляр сервиса.
+     *
+     * @param context Любой контекст; сохраняется только контекст приложения.
+     * @return Экземпляр сервиса.
+     */
+    public static synchronized MetadataService getInstance(@NonNull Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new MetadataService(new MetadataDatabase(appContext, namespace),
+                    new MetadataExtractor(appContext.getContentResolver()));
+        }
+        return instance;
+    }
+
+    /**
+     * Переключает кэш метаданных на отдельную базу — например, для синтетической коллекции нагрузочных
+     * тестов, чьи {@code _ID} совпадают с идентификаторами настоящего MediaStore. Текущий экземпляр
+     * отбрасывается, следующий {@link #getInstance(Context)} откроет базу этого пространства имен.
+     *
+     * @param collectionNamespace Имя коллекции или {@code null}, чтобы вернуться к кэшу MediaStore.
+     */
+    @VisibleForTesting
+    public static synchronized void setNamespace(@Nullable String collectionNamespace) {
+        namespace = collectionNamespace;
+        if (instance != null) {
+            instance.executor.shutdown();
+            instance.database.close();
+            instance = null;
+        }
+    }
+
+    private MetadataService(MetadataDatabase database, MetadataExtractor extractor) {
+        this.database = database;
+        this.extractor = extractor;
+        // разбор заголовков упирается в ввод-вывод хранилища, больше 4 потоков не ускоряет
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Получает метаданные одного файла.
+     *
+     * @param file Медиафайл.
+     * @return Метаданные.
+     */
+    @NonNull
+    public MediaMetadata get(@NonNull MediaFile file) {
+        return getAll(Collections.singletonList(file)).get(file.getId());
+    }
+
+    /**
+     * Получает метаданные набора файлов. Файлы без актуальной строки в кэше разбираются
+     * параллельно, и результаты записываются одной транзакцией.
+     *
+     * @param files Медиафайлы.
+     * @return Метаданные по идентификатору файла; есть для каждого файла из списка.
+     */
+    @NonNull
+    public Map<Long, MediaMetadata> getAll(@NonNull List<MediaFile> files) {
+        long startMs = SystemClock.elapsedRealtime();
+        List<Long> ids = new ArrayList<>(files.size());
+        for (MediaFile file : files) {
+            ids.add(file.getId());
+        }
+        Map<Long, MediaMetadata> result = new HashMap<>(files.size() * 2);
+        database.read(ids, result);
+
+        List<MediaFile> missing = new ArrayList<>();
+        for (MediaFile file : files) {
+            MediaMetadata cached = result.get(file.getId());
+            // изменение файла меняет date_modified, и строка кэша становится устаревшей
+            if (cached == null || cached.getDateModified() != file.getDateModified()) {
+                missing.add(file);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        List<Future<MediaMetadata>> futures = new ArrayList<>(missing.size());
+        for (final MediaFile file : missing) {
+            futures.add(executor.submit(() -> extractor.extract(file)));
+        }
+        List<MediaMetadata> extracted = new ArrayList<>(missing.size());
+        boolean interrupted = false;
+        for (Future<MediaMetadata> future : futures) {
+            if (interrupted) {
+                future.cancel(false);
+                continue;
+            }
+            try {
+                extracted.add(future.get());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // extract() сам перехватывает ошибки чтения — сюда попадают только ошибки программы
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        // то, что успели разобрать, сохраняется даже при прерывании
+        database.write(extracted);
+        for (MediaMetadata metadata : extracted) {
+            result.put(metadata.getId(), metadata);
+        }
+        if (interrupted) {
+            // остальным файлам — время изменения вместо времени съемки, без записи в кэш
+            for (MediaFile file : missing) {
+                MediaMetadata known = result.get(file.getId());
+                if (known == null || known.getDateModified() != file.getDateModified()) {
+                    result.put(file.getId(), MetadataExtractor.fallback(file));
+                }
+            }
+        }
+
+        MetricsLog.record("metadata", String.format(Locale.US, "files=%d cached=%d extracted=%d elapsed_ms=%d",
+                files.size(), files.size() - missing.size(), extracted.size(),
+                SystemClock.elapsedRealtime() - startMs));
+        return result;
+    }
+}
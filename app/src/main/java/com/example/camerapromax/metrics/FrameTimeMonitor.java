@@ -0,0 +1,69 @@
+package com.example.camerapromax.metrics;
+
+import android.view.Choreographer;
+
+/**
+ * Измеряет интервалы между кадрами UI-потока с помощью {@link Choreographer}.
+ * Запускается на время интересующего действия (например, жеста) и по остановке
+ * пишет сводку в {@link MetricsLog}. Все методы вызываются в главном потоке.
+ */
+public class FrameTimeMonitor implements Choreographer.FrameCallback {
+
+    private final String event;
+    private final LatencyStats stats;
+    private long lastFrameNanos;
+    private boolean running;
+
+    /**
+     * Создает монитор.
+     *
+     * @param event       Имя события для {@link MetricsLog}.
+     * @param refreshRate Частота обновления экрана в Гц; кадр дольше полутора периодов считается пропущенным.
+     */
+    public FrameTimeMonitor(String event, float refreshRate) {
+        this.event = event;
+        this.stats = new LatencyStats((long) (1_000_000_000L / refreshRate * 1.5f));
+    }
+
+    /**
+     * Начинает измерение. Повторный вызов во время измерения ничего не делает.
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+        stats.reset();
+        lastFrameNanos = 0;
+        running = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Вызывается Choreographer перед отрисовкой каждого кадра.
+     *
+     * @param frameTimeNanos Время начала кадра в наносекундах монотонных часов.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+        if (lastFrameNanos != 0) {
+            stats.add(frameTimeNanos - lastFrameNanos);
+        }
+        lastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Останавливает измерение и записывает сводку в поток метрик.
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        MetricsLog.record(event, stats.summary());
+    }
+}
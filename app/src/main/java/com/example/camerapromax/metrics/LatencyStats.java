@@ -0,0 +1,110 @@
+package com.example.camerapromax.metrics;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Накопитель длительностей в наносекундах с расчетом перцентилей.
+ * Не потокобезопасен: значения должны добавляться из одного потока.
+ */
+public class LatencyStats {
+
+    private long[] samples = new long[256];
+    private int count;
+    private long overBudget;
+    private final long budgetNanos;
+
+    /**
+     * Создает накопитель.
+     *
+     * @param budgetNanos Допустимая длительность; значения больше неё считаются отдельно. 0 — без бюджета.
+     */
+    public LatencyStats(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Добавляет одно измерение.
+     *
+     * @param nanos Длительность в наносекундах.
+     */
+    public void add(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+        if (budgetNanos > 0 && nanos > budgetNanos) {
+            overBudget++;
+        }
+    }
+
+    /**
+     * Удаляет все накопленные измерения.
+     */
+    public void reset() {
+        count = 0;
+        overBudget = 0;
+    }
+
+    /**
+     * Получает количество измерений.
+     *
+     * @return Количество добавленных значений.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Получает количество измерений, превысивших бюджет.
+     *
+     * @return Количество значений больше бюджета.
+     */
+    public long getOverBudget() {
+        return overBudget;
+    }
+
+    /**
+     * Вычисляет перцентиль по методу ближайшего ранга.
+     *
+     * @param percentile Перцентиль от 0 до 100.
+     * @return Значение в наносекундах или 0, если измерений нет.
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, rank))];
+    }
+
+    /**
+     * Возвращает наибольшее измерение.
+     *
+     * @return Максимум в наносекундах или 0, если измерений нет.
+     */
+    public long max() {
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, samples[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Формирует краткую сводку для {@link MetricsLog}.
+     *
+     * @return Строка вида {@code n=.. p50=..ms p95=..ms p99=..ms max=..ms over=..}.
+     */
+    public String summary() {
+        return String.format(Locale.US, "n=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms over=%d",
+                count, toMillis(percentile(50)), toMillis(percentile(95)), toMillis(percentile(99)),
+                toMillis(max()), overBudget);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
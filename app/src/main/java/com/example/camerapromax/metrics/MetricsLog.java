@@ -0,0 +1,27 @@
+package com.example.camerapromax.metrics;
+
+import android.util.Log;
+
+/**
+ * Единый поток метрик приложения.
+ * Все измерения пишутся в logcat под одним тегом в виде {@code событие ключ=значение ...},
+ * чтобы их можно было собрать одной командой {@code adb logcat -s Metrics}.
+ */
+public final class MetricsLog {
+
+    /** Тег logcat, под которым пишутся метрики. */
+    public static final String TAG = "Metrics";
+
+    private MetricsLog() {
+    }
+
+    /**
+     * Записывает одно событие в поток метрик.
+     *
+     * @param event   Короткое имя события, например {@code gallery_zoom}.
+     * @param details Пары {@code ключ=значение}, разделенные пробелами.
+     */
+    public static void record(String event, String details) {
+        Log.i(TAG, event + " " + details);
+    }
+}
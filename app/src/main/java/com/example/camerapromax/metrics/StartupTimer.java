@@ -0,0 +1,51 @@
+package com.example.camerapromax.metrics;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import java.util.Locale;
+
+/**
+ * Измеряет холодный старт: от запуска процесса до первого кадра предпросмотра камеры.
+ * <p>
+ * Первый кадр отмечается через {@link Activity#reportFullyDrawn()}, поэтому то же время видит система
+ * ({@code Fully drawn} в logcat) и Macrobenchmark ({@code timeToFullDisplayMs}).
+ * Все методы вызываются в главном потоке.
+ */
+public final class StartupTimer {
+
+    private static long applicationCreatedUptime;
+    private static boolean firstPreviewReported;
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Отмечает создание {@code Application}. До Android 7 это самая ранняя точка, доступная процессу.
+     */
+    public static void markApplicationCreated() {
+        applicationCreatedUptime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Отмечает первый кадр предпросмотра. Срабатывает один раз за жизнь процесса:
+     * возврат к камере из галереи — уже не холодный старт.
+     *
+     * @param activity Активность, в которой показан предпросмотр.
+     */
+    public static void markFirstPreviewFrame(@NonNull Activity activity) {
+        if (firstPreviewReported) {
+            return;
+        }
+        firstPreviewReported = true;
+        activity.reportFullyDrawn();
+
+        long now = SystemClock.uptimeMillis();
+        long processStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartUptimeMillis() : applicationCreatedUptime;
+        MetricsLog.record("cold_start", String.format(Locale.US, "first_preview_ms=%d since_application_ms=%d",
+                now - processStart, now - applicationCreatedUptime));
+    }
+}
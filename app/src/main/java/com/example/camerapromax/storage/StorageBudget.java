@@ -0,0 +1,323 @@
+package com.example.camerapromax.storage;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.StatFs;
+import android.os.SystemClock;
+import android.os.storage.StorageManager;
+import android.util.Log;
+import android.util.Size;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.example.camerapromax.metrics.MetricsLog;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Следит за свободным местом в общем хранилище и переводит его в оставшиеся снимки и минуты видео.
+ * <p>
+ * Свободное место читается в отдельном потоке через {@link StatFs} — это место, которое есть на диске
+ * прямо сейчас. {@link StorageManager#getAllocatableBytes(UUID)} учитывает еще и кэш приложений, но
+ * система удаляет его только по {@link StorageManager#allocateBytes(UUID, long)}, поэтому решения
+ * «остановить запись» и «отказать в снимке» по нему приводили бы к заполнению диска. Вместо этого на
+ * Android 8+ кэш освобождается порциями: когда реального места остается меньше порции, а системе
+ * есть что удалить, бюджет запрашивает {@code allocateBytes} на следующую порцию. Опрос идет только
+ * пока есть подписчики: раз в {@link #IDLE_POLL_MS} мс, а во время записи видео — раз в
+ * {@link #RECORDING_POLL_MS} мс.
+ * <p>
+ * Оценки строятся по текущим настройкам: размер снимка — по разрешению {@code ImageCapture},
+ * битрейт — по разрешению и частоте записи, а во время записи — по реально записанным байтам.
+ * Из свободного места всегда вычитается запас {@link #RESERVE_BYTES} на индекс MediaStore,
+ * миниатюры и финальную запись заголовка MP4.
+ * <p>
+ * Подписчики и методы записи настроек вызываются в главном потоке.
+ */
+public final class StorageBudget {
+
+    /**
+     * Получатель обновлений свободного места.
+     */
+    public interface Listener {
+
+        /**
+         * Вызывается в главном потоке после каждого опроса хранилища.
+         *
+         * @param budget Бюджет с обновленными оценками.
+         */
+        void onStorageChanged(@NonNull StorageBudget budget);
+    }
+
+    private static final String TAG = "StorageBudget";
+    private static final long RESERVE_BYTES = 64L * 1024 * 1024;
+    private static final long IDLE_POLL_MS = 5_000;
+    private static final long RECORDING_POLL_MS = 1_000;
+    /** За сколько секунд до заполнения останавливать запись: опрос, финализация и запас на неточность битрейта. */
+    private static final long STOP_MARGIN_SECONDS = 5;
+    // JPEG с качеством по умолчанию на детальной сцене — около 3 бит на пиксель
+    private static final float JPEG_BYTES_PER_PIXEL = 0.4f;
+    // H.264 с битрейтом CameraX по умолчанию — около 0.1 бита на пиксель в кадре
+    private static final float VIDEO_BITS_PER_PIXEL = 0.1f;
+    private static final long AUDIO_BYTES_PER_SECOND = 128_000 / 8;
+    /** Порция места под запись, освобождаемая за один вызов {@code allocateBytes}. */
+    private static final long ALLOCATE_VIDEO_SECONDS = 60;
+    /** Порция места под снимки и таймлапс. */
+    private static final long ALLOCATE_SHOTS = 20;
+
+    private static StorageBudget instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Runnable poll = this::poll;
+
+    private volatile long freeBytes = -1;
+    private volatile long photoBytes = 4L * 1024 * 1024;
+    private volatile long estimatedVideoBytesPerSecond = 3L * 1024 * 1024;
+    private volatile long measuredVideoBytesPerSecond;
+    private volatile boolean recording;
+    private volatile boolean polling;
+
+    /**
+     * Возвращает общий для процесса экземпляр.
+     *
+     * @param context Любой контекст; сохраняется только контекст приложения.
+     * @return Экземпляр бюджета.
+     */
+    public static synchronized StorageBudget getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new StorageBudget(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private StorageBudget(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread("StorageBudget");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Подписывает получателя и сразу запрашивает свежее значение. Первый подписчик запускает опрос.
+     *
+     * @param listener Получатель.
+     */
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+        polling = true;
+        handler.removeCallbacks(poll);
+        handler.post(poll);
+    }
+
+    /**
+     * Отписывает получателя. Без подписчиков опрос останавливается.
+     *
+     * @param listener Получатель.
+     */
+    public void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+            polling = false;
+            handler.removeCallbacks(poll);
+        }
+    }
+
+    /**
+     * Задает разрешение снимков.
+     *
+     * @param resolution Разрешение {@code ImageCapture} или {@code null}, если оно еще неизвестно.
+     */
+    public void setPhotoResolution(@Nullable Size resolution) {
+        if (resolution != null) {
+            photoBytes = Math.max(1, (long) (resolution.getWidth() * resolution.getHeight() * JPEG_BYTES_PER_PIXEL));
+        }
+    }
+
+    /**
+     * Задает формат записи видео. Сбрасывает битрейт, измеренный в прошлой записи.
+     *
+     * @param resolution Разрешение или {@code null}, если оно еще неизвестно.
+     * @param fps        Частота кадров.
+     */
+    public void setVideoFormat(@Nullable Size resolution, int fps) {
+        if (resolution != null) {
+            estimatedVideoBytesPerSecond = (long) (resolution.getWidth() * resolution.getHeight() * fps
+                    * VIDEO_BITS_PER_PIXEL / 8) + AUDIO_BYTES_PER_SECOND;
+        }
+        measuredVideoBytesPerSecond = 0;
+    }
+
+    /**
+     * Отмечает начало или конец записи видео: во время записи хранилище опрашивается чаще.
+     *
+     * @param recording {@code true}, если запись идет.
+     */
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+        if (recording) {
+            measuredVideoBytesPerSecond = 0;
+        }
+        if (!listeners.isEmpty()) {
+            handler.removeCallbacks(poll);
+            handler.post(poll);
+        }
+    }
+
+    /**
+     * Уточняет битрейт по фактически записанному объему. Первые две секунды не учитываются:
+     * в начале записи кодировщик еще не вышел на стабильный битрейт.
+     *
+     * @param bytes         Записано байт.
+     * @param durationNanos Длительность записи.
+     */
+    public void updateRecordedBytes(long bytes, long durationNanos) {
+        if (durationNanos >= 2_000_000_000L && bytes > 0) {
+            measuredVideoBytesPerSecond = bytes * 1_000_000_000L / durationNanos;
+        }
+    }
+
+    /**
+     * Получает последнее известное свободное место.
+     *
+     * @return Доступно байт или -1, если хранилище еще не опрошено.
+     */
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * Получает оценку оставшихся снимков.
+     *
+     * @return Количество снимков или -1, если хранилище еще не опрошено.
+     */
+    public long getRemainingShots() {
+        long free = freeBytes;
+        return free < 0 ? -1 : Math.max(0, (free - RESERVE_BYTES) / photoBytes);
+    }
+
+    /**
+     * Получает оценку оставшегося времени записи видео.
+     *
+     * @return Секунды или -1, если хранилище еще не опрошено.
+     */
+    public long getRemainingVideoSeconds() {
+        long free = freeBytes;
+        return free < 0 ? -1 : Math.max(0, (free - RESERVE_BYTES) / getVideoBytesPerSecond());
+    }
+
+    /**
+     * Проверяет, поместится ли еще один снимок. Пока хранилище не опрошено, считается, что поместится.
+     *
+     * @return {@code true}, если снимок можно делать.
+     */
+    public boolean hasRoomForPhoto() {
+        return getRemainingShots() != 0;
+    }
+
+    /**
+     * Проверяет, пора ли остановить запись, чтобы она успела корректно завершиться.
+     *
+     * @return {@code true}, если места осталось меньше чем на {@link #STOP_MARGIN_SECONDS} секунд.
+     */
+    public boolean isVideoSpaceExhausted() {
+        long remaining = getRemainingVideoSeconds();
+        return remaining >= 0 && remaining < STOP_MARGIN_SECONDS;
+    }
+
+    /**
+     * Освобождает место под начало записи на Android 8+: система заранее удаляет кэш приложений,
+     * чтобы не делать этого посреди записи, когда удаление останавливает запись на диск.
+     * Резервируется одна порция в {@link #ALLOCATE_VIDEO_SECONDS} секунд; следующие порции
+     * запрашиваются при опросе, по мере того как запись расходует место.
+     */
+    public void preallocateForRecording() {
+        long bytes = getVideoBytesPerSecond() * ALLOCATE_VIDEO_SECONDS;
+        handler.post(() -> {
+            if (ensureFreeBytes(bytes)) {
+                freeBytes = queryFreeBytes();
+            }
+        });
+    }
+
+    private long getVideoBytesPerSecond() {
+        long measured = measuredVideoBytesPerSecond;
+        return Math.max(1, measured > 0 ? measured : estimatedVideoBytesPerSecond);
+    }
+
+    private void poll() {
+        if (!polling) {
+            return;
+        }
+        long free = queryFreeBytes();
+        long chunk = recording ? getVideoBytesPerSecond() * ALLOCATE_VIDEO_SECONDS : photoBytes * ALLOCATE_SHOTS;
+        if (free >= 0 && free - RESERVE_BYTES < chunk && ensureFreeBytes(chunk)) {
+            free = queryFreeBytes();
+        }
+        freeBytes = free;
+        mainHandler.post(() -> {
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onStorageChanged(this);
+            }
+        });
+        handler.postDelayed(poll, recording ? RECORDING_POLL_MS : IDLE_POLL_MS);
+    }
+
+    private long queryFreeBytes() {
+        File directory = getSharedStorageDirectory();
+        try {
+            return new StatFs(directory.getPath()).getAvailableBytes();
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Cannot stat " + directory, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Просит систему удалить кэш приложений так, чтобы на томе было свободно {@code bytes} сверх запаса.
+     * Вызывается только в потоке опроса. Ничего не делает на Android ниже 8 и когда удалять нечего.
+     *
+     * @return {@code true}, если место было запрошено и его стоит перечитать.
+     */
+    private boolean ensureFreeBytes(long bytes) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+        StorageManager storageManager = context.getSystemService(StorageManager.class);
+        long start = SystemClock.elapsedRealtime();
+        try {
+            UUID uuid = storageManager.getUuidForPath(getSharedStorageDirectory());
+            long free = queryFreeBytes();
+            long allocatable = storageManager.getAllocatableBytes(uuid);
+            if (free < 0 || allocatable <= free) {
+                // кэша, который система могла бы удалить, нет
+                return false;
+            }
+            long requested = Math.min(bytes + RESERVE_BYTES, allocatable);
+            if (requested <= free) {
+                return false;
+            }
+            storageManager.allocateBytes(uuid, requested);
+            MetricsLog.record("storage_preallocate", String.format(Locale.US, "bytes=%d freed=%d ms=%d",
+                    requested, queryFreeBytes() - free, SystemClock.elapsedRealtime() - start));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot allocate " + bytes + " bytes", e);
+            return false;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static File getSharedStorageDirectory() {
+        // тот же том, куда MediaStore пишет Pictures/ и Movies/
+        return Environment.getExternalStorageDirectory();
+    }
+}
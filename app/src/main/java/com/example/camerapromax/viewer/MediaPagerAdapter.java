@@ -0,0 +1,130 @@
+package com.example.camerapromax.viewer;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import com.bumptech.glide.Glide;
+import com.example.camerapromax.databinding.ViewerPageBinding;
+import com.example.camerapromax.gallery.MediaFile;
+import com.example.camerapromax.gallery.ThumbnailCache;
+import java.util.List;
+
+/**
+ * Адаптер страниц полноэкранного просмотрщика для ViewPager2.
+ * Каждая страница сразу показывает миниатюру из кэша галереи, а затем — изображение
+ * в разрешении экрана через {@link TiledImageView}. Для видео показывается кадр и кнопка воспроизведения.
+ */
+public class MediaPagerAdapter extends RecyclerView.Adapter<MediaPagerAdapter.PageViewHolder> {
+
+    private final List<MediaFile> mediaFiles;
+    private final OnPlayClickListener onPlayClickListener;
+
+    /**
+     * Интерфейс для обработки нажатия на кнопку воспроизведения видео.
+     */
+    public interface OnPlayClickListener {
+        /**
+         * Вызывается при нажатии на кнопку воспроизведения.
+         *
+         * @param mediaFile Видео, которое нужно воспроизвести.
+         */
+        void onPlayClick(MediaFile mediaFile);
+    }
+
+    /**
+     * Создает новый MediaPagerAdapter.
+     *
+     * @param mediaFiles          Список медиафайлов для отображения.
+     * @param onPlayClickListener Слушатель нажатий на кнопку воспроизведения.
+     */
+    public MediaPagerAdapter(List<MediaFile> mediaFiles, OnPlayClickListener onPlayClickListener) {
+        this.mediaFiles = mediaFiles;
+        this.onPlayClickListener = onPlayClickListener;
+    }
+
+    @NonNull
+    @Override
+    public PageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new PageViewHolder(ViewerPageBinding.inflate(LayoutInflater.from(parent.getContext()), parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull PageViewHolder holder, int position) {
+        holder.bind(mediaFiles.get(position));
+    }
+
+    /**
+     * Вызывается, когда страница ушла с экрана и будет переиспользована.
+     * Освобождает декодер и тайлы страницы.
+     *
+     * @param holder Переиспользуемая страница.
+     */
+    @Override
+    public void onViewRecycled(@NonNull PageViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.unbind();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mediaFiles.size();
+    }
+
+    /**
+     * ViewHolder одной страницы просмотрщика.
+     */
+    class PageViewHolder extends RecyclerView.ViewHolder {
+
+        private final ViewerPageBinding binding;
+
+        /**
+         * Создает новый PageViewHolder.
+         *
+         * @param binding Привязка представления для макета страницы.
+         */
+        PageViewHolder(ViewerPageBinding binding) {
+            super(binding.getRoot());
+            this.binding = binding;
+        }
+
+        /**
+         * Привязывает медиафайл к странице.
+         *
+         * @param mediaFile {@link MediaFile} для привязки.
+         */
+        void bind(MediaFile mediaFile) {
+            // миниатюра уже в памяти после галереи — показываем её мгновенно, пока декодируется база
+            ThumbnailCache.Entry thumbnail = ThumbnailCache.getInstance().getBest(mediaFile, Integer.MAX_VALUE);
+            Glide.with(binding.placeholder).clear(binding.placeholder);
+            binding.placeholder.setVisibility(View.VISIBLE);
+            binding.placeholder.setImageBitmap(thumbnail != null ? thumbnail.bitmap : null);
+
+            if (mediaFile.getType().startsWith("video")) {
+                binding.tiledImage.setImageUri(null);
+                binding.tiledImage.setVisibility(View.GONE);
+                binding.playButton.setVisibility(View.VISIBLE);
+                binding.playButton.setOnClickListener(v -> onPlayClickListener.onPlayClick(mediaFile));
+                Glide.with(binding.placeholder)
+                        .load(mediaFile.getUri())
+                        .placeholder(binding.placeholder.getDrawable())
+                        .into(binding.placeholder);
+            } else {
+                binding.playButton.setVisibility(View.GONE);
+                binding.tiledImage.setVisibility(View.VISIBLE);
+                binding.tiledImage.setOnReadyListener(() -> binding.placeholder.setVisibility(View.INVISIBLE));
+                binding.tiledImage.setImageUri(mediaFile.getUri());
+            }
+        }
+
+        /**
+         * Освобождает ресурсы страницы.
+         */
+        void unbind() {
+            binding.tiledImage.setOnReadyListener(null);
+            binding.tiledImage.setImageUri(null);
+            Glide.with(binding.placeholder).clear(binding.placeholder);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.camerapromax.viewer;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.fragment.app.Fragment;
+import androidx.navigation.fragment.NavHostFragment;
+import com.example.camerapromax.R;
+import com.example.camerapromax.databinding.FragmentMediaViewerBinding;
+import com.example.camerapromax.gallery.MediaFile;
+import com.example.camerapromax.gallery.MediaFilter;
+import com.example.camerapromax.gallery.MediaRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Полноэкранный просмотрщик медиафайлов внутри приложения.
+ * Листает тот же список, что открыт в галерее: список берется из кэша {@link MediaRepository}
+ * по фильтру из аргументов, поэтому повторный запрос к MediaStore обычно не нужен.
+ * Соседние страницы создаются заранее, чтобы их изображения декодировались до перелистывания.
+ */
+public class MediaViewerFragment extends Fragment {
+
+    /** Аргумент: {@link MediaFilter}, с которым открыта галерея. */
+    public static final String ARG_FILTER = "filter";
+    /** Аргумент: позиция файла, с которого начинается просмотр. */
+    public static final String ARG_POSITION = "position";
+
+    private static final String TAG = "MediaViewerFragment";
+
+    private FragmentMediaViewerBinding binding;
+    private final ExecutorService loaderExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Создает аргументы для перехода к просмотрщику.
+     *
+     * @param filter   Фильтр галереи.
+     * @param position Позиция открываемого файла.
+     * @return Bundle для {@link androidx.navigation.NavController#navigate(int, Bundle)}.
+     */
+    public static Bundle createArguments(@NonNull MediaFilter filter, int position) {
+        Bundle args = new Bundle();
+        args.putSerializable(ARG_FILTER, filter);
+        args.putInt(ARG_POSITION, position);
+        return args;
+    }
+
+    /**
+     * Создает макет для этого фрагмента.
+     *
+     * @param inflater           Объект LayoutInflater, который можно использовать для создания представлений во фрагменте.
+     * @param container          Если не null, это родительское представление, к которому должен быть прикреплен интерфейс фрагмента.
+     * @param savedInstanceState Если не null, этот фрагмент восстанавливается из предыдущего сохраненного состояния, как указано здесь.
+     * @return Представление для интерфейса фрагмента или null.
+     */
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        binding = FragmentMediaViewerBinding.inflate(inflater, container, false);
+        return binding.getRoot();
+    }
+
+    /**
+     * Вызывается сразу после возврата из {@link #onCreateView(LayoutInflater, ViewGroup, Bundle)}.
+     * Получает список файлов из кэша репозитория или, если процесс был перезапущен, загружает его заново.
+     *
+     * @param view               Представление, возвращенное методом {@link #onCreateView(LayoutInflater, ViewGroup, Bundle)}.
+     * @param savedInstanceState Если не null, этот фрагмент восстанавливается из предыдущего сохраненного состояния, как указано здесь.
+     */
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        Bundle args = requireArguments();
+        MediaFilter filter = (MediaFilter) args.getSerializable(ARG_FILTER);
+        if (filter == null) {
+            filter = MediaFilter.ALL;
+        }
+        int position = savedInstanceState != null
+                ? savedInstanceState.getInt(ARG_POSITION)
+                : args.getInt(ARG_POSITION);
+
+        MediaRepository repository = MediaRepository.getInstance(requireContext());
+        MediaRepository.Result cached = repository.getCached(filter);
+        if (cached != null && cached.getItems().size() > position) {
+            showPages(cached.getItems(), position);
+            return;
+        }
+
+        // кэша нет (например, процесс был убит) — дочитываем страницы до нужной позиции
+        final MediaFilter requestFilter = filter;
+        final Executor mainExecutor = ContextCompat.getMainExecutor(requireContext());
+        loaderExecutor.execute(() -> {
+            List<MediaFile> items = new ArrayList<>();
+            try {
+                List<MediaFile> page;
+                do {
+                    page = repository.loadPage(requestFilter, items.size());
+                    items.addAll(page);
+                } while (items.size() <= position && page.size() == MediaRepository.PAGE_SIZE);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to load media for viewer", e);
+            }
+            mainExecutor.execute(() -> {
+                if (binding != null) {
+                    showPages(items, Math.min(position, Math.max(0, items.size() - 1)));
+                }
+            });
+        });
+    }
+
+    /**
+     * Показывает страницы и открывает нужную позицию.
+     *
+     * @param items    Файлы для просмотра.
+     * @param position Начальная позиция.
+     */
+    private void showPages(List<MediaFile> items, int position) {
+        binding.mediaPager.setAdapter(new MediaPagerAdapter(items, this::playVideo));
+        // по одной странице с каждой стороны создаются заранее — их база декодируется до перелистывания
+        binding.mediaPager.setOffscreenPageLimit(1);
+        binding.mediaPager.setCurrentItem(position, false);
+    }
+
+    /**
+     * Открывает видео во встроенном проигрывателе.
+     *
+     * @param mediaFile Видео для воспроизведения.
+     */
+    private void playVideo(MediaFile mediaFile) {
+        NavHostFragment.findNavController(this).navigate(
+                R.id.action_mediaViewerFragment_to_videoPlayerFragment,
+                VideoPlayerFragment.createArguments(mediaFile));
+    }
+
+    /**
+     * Сохраняет текущую позицию, чтобы вернуться к ней после пересоздания.
+     *
+     * @param outState Bundle для сохранения состояния.
+     */
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (binding != null) {
+            outState.putInt(ARG_POSITION, binding.mediaPager.getCurrentItem());
+        }
+    }
+
+    /**
+     * Вызывается, когда представление фрагмента уничтожается.
+     * Отсоединяет адаптер, чтобы страницы освободили декодеры, и обнуляет привязку.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // без адаптера ViewPager2 переиспользует страницы, и каждая закрывает свой декодер
+        binding.mediaPager.setAdapter(null);
+        binding = null;
+    }
+
+    /**
+     * Вызывается, когда фрагмент больше не используется.
+     * Завершает работу фонового исполнителя запросов.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        loaderExecutor.shutdown();
+    }
+}
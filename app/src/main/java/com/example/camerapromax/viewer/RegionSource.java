@@ -0,0 +1,177 @@
+package com.example.camerapromax.viewer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Открытое изображение, из которого можно декодировать произвольные области.
+ * Держит открытый дескриптор файла и {@link BitmapRegionDecoder}, поэтому пиксели никогда
+ * не декодируются целиком в полном разрешении. Форматы, которые BitmapRegionDecoder не поддерживает,
+ * декодируются только целиком с уменьшением.
+ * Методы декодирования блокируют поток и вызываются только в фоне.
+ */
+final class RegionSource implements Closeable {
+
+    private static final String TAG = "RegionSource";
+
+    final Uri uri;
+    /** Ширина исходного изображения в пикселях (без учета поворота). */
+    final int width;
+    /** Высота исходного изображения в пикселях (без учета поворота). */
+    final int height;
+    /** Поворот из EXIF в градусах: 0, 90, 180 или 270. */
+    final int orientation;
+
+    private final ParcelFileDescriptor descriptor;
+    @Nullable
+    private final BitmapRegionDecoder decoder;
+
+    private RegionSource(Uri uri, int width, int height, int orientation,
+                         ParcelFileDescriptor descriptor, @Nullable BitmapRegionDecoder decoder) {
+        this.uri = uri;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+        this.descriptor = descriptor;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Открывает изображение и читает только его заголовок.
+     *
+     * @param contentResolver ContentResolver приложения.
+     * @param uri             URI изображения в MediaStore.
+     * @return Открытый источник; его нужно закрыть через {@link #close()}.
+     * @throws IOException Если файл нельзя открыть или это не изображение.
+     */
+    @NonNull
+    @SuppressWarnings("deprecation") // newInstance(FileDescriptor) без флага появился только в API 31
+    static RegionSource open(@NonNull ContentResolver contentResolver, @NonNull Uri uri) throws IOException {
+        ParcelFileDescriptor descriptor = contentResolver.openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        try {
+            BitmapRegionDecoder decoder = null;
+            int width;
+            int height;
+            try {
+                decoder = BitmapRegionDecoder.newInstance(descriptor.getFileDescriptor(), false);
+            } catch (IOException e) {
+                Log.d(TAG, "Region decoding is not supported for " + uri + ", using full decode");
+            }
+            if (decoder != null) {
+                width = decoder.getWidth();
+                height = decoder.getHeight();
+            } else {
+                rewind(descriptor);
+                BitmapFactory.Options bounds = new BitmapFactory.Options();
+                bounds.inJustDecodeBounds = true;
+                BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, bounds);
+                width = bounds.outWidth;
+                height = bounds.outHeight;
+            }
+            if (width <= 0 || height <= 0) {
+                throw new IOException("Not an image: " + uri);
+            }
+            return new RegionSource(uri, width, height, queryOrientation(contentResolver, uri), descriptor, decoder);
+        } catch (IOException | RuntimeException e) {
+            descriptor.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Читает поворот из столбца MediaStore, который сканер заполняет из EXIF,
+     * чтобы не разбирать EXIF повторно.
+     */
+    private static int queryOrientation(ContentResolver contentResolver, Uri uri) {
+        String[] projection = {MediaStore.Images.ImageColumns.ORIENTATION};
+        try (Cursor cursor = contentResolver.query(uri, projection, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                return ((cursor.getInt(0) % 360) + 360) % 360;
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot read orientation of " + uri, e);
+        }
+        return 0;
+    }
+
+    /**
+     * Проверяет, можно ли декодировать отдельные области.
+     *
+     * @return {@code true}, если доступен BitmapRegionDecoder.
+     */
+    boolean supportsTiles() {
+        return decoder != null;
+    }
+
+    /**
+     * Декодирует область изображения.
+     *
+     * @param region Область в координатах исходного изображения.
+     * @param sample Коэффициент уменьшения (степень двойки).
+     * @return Bitmap области или {@code null}, если декодирование не удалось.
+     */
+    @Nullable
+    Bitmap decodeRegion(@NonNull Rect region, int sample) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        if (decoder != null) {
+            try {
+                return decoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // источник закрыт, пока задача ждала в очереди
+                return null;
+            }
+        }
+        try {
+            rewind(descriptor);
+        } catch (IOException e) {
+            return null;
+        }
+        return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+    }
+
+    /**
+     * Возвращает позицию дескриптора в начало файла: BitmapFactory читает с текущей позиции.
+     */
+    private static void rewind(ParcelFileDescriptor descriptor) throws IOException {
+        try {
+            Os.lseek(descriptor.getFileDescriptor(), 0, OsConstants.SEEK_SET);
+        } catch (ErrnoException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Закрывает декодер и дескриптор файла.
+     */
+    @Override
+    public void close() {
+        if (decoder != null) {
+            decoder.recycle();
+        }
+        try {
+            descriptor.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot close " + uri, e);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.camerapromax.viewer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Полоса кадров для предпросмотра при перемотке видео.
+ * <p>
+ * Кадры берутся только в опорных (sync) кадрах: их времена находятся через {@link MediaExtractor}
+ * без декодирования, а сами кадры — через {@link MediaMetadataRetriever} с
+ * {@link MediaMetadataRetriever#OPTION_CLOSEST_SYNC}, поэтому декодируется ровно один
+ * ключевой кадр на миниатюру. Полоса извлекается один раз в фоне и сохраняется на диск рядом
+ * с кэшем приложения; при следующем открытии видео она просто читается из файла.
+ * <p>
+ * Во время извлечения кадры добавляются по мере готовности, а {@link #frameAt(long)} никогда
+ * не декодирует — он только ищет ближайший уже готовый кадр в памяти.
+ */
+final class SeekPreviewStrip {
+
+    private static final String TAG = "SeekPreviewStrip";
+    private static final int FILE_MAGIC = 0x53505331; // "SPS1"
+    /** Наибольшее количество кадров в полосе, независимо от длины видео. */
+    private static final int MAX_FRAMES = 100;
+    /** Кадр вписывается в квадрат с этой стороной. */
+    private static final int FRAME_SIZE = 240;
+    private static final int JPEG_QUALITY = 70;
+    private static final long END_MARKER = -1L;
+
+    private final List<Long> timesUs = new ArrayList<>();
+    private final List<Bitmap> frames = new ArrayList<>();
+
+    /**
+     * Возвращает файл, в котором хранится полоса для конкретной версии видео.
+     *
+     * @param context      Контекст приложения.
+     * @param id           Идентификатор видео в MediaStore.
+     * @param dateModified Время изменения видео; при редактировании файла полоса строится заново.
+     * @return Файл полосы (может ещё не существовать).
+     */
+    static File cacheFile(@NonNull Context context, long id, long dateModified) {
+        File dir = new File(context.getCacheDir(), "seek_previews");
+        return new File(dir, id + "_" + dateModified + ".bin");
+    }
+
+    /**
+     * Возвращает ближайший к позиции готовый кадр, не дальше позиции, если такой есть.
+     *
+     * @param positionUs Позиция в микросекундах.
+     * @return Кадр или {@code null}, если кадров ещё нет.
+     */
+    @Nullable
+    synchronized Bitmap frameAt(long positionUs) {
+        int low = 0;
+        int high = timesUs.size() - 1;
+        if (high < 0) {
+            return null;
+        }
+        // бинарный поиск последнего кадра с временем <= позиции
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (timesUs.get(mid) <= positionUs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return frames.get(low);
+    }
+
+    private synchronized void add(long timeUs, Bitmap frame) {
+        timesUs.add(timeUs);
+        frames.add(frame);
+    }
+
+    private synchronized void clear() {
+        timesUs.clear();
+        frames.clear();
+    }
+
+    /**
+     * Загружает полосу из файла или, если файла нет, извлекает её из видео и сохраняет.
+     * Блокирует поток; вызывается только в фоне. Кадры становятся доступны в {@code strip} по мере готовности.
+     *
+     * @param context   Контекст приложения.
+     * @param uri       URI видео.
+     * @param file      Файл полосы из {@link #cacheFile(Context, long, long)}.
+     * @param strip     Полоса, в которую добавляются кадры.
+     * @param cancelled Флаг отмены; проверяется между кадрами.
+     */
+    static void loadOrExtract(@NonNull Context context, @NonNull Uri uri, @NonNull File file,
+                              @NonNull SeekPreviewStrip strip, @NonNull AtomicBoolean cancelled) {
+        if (file.exists()) {
+            try {
+                strip.readFrom(file, cancelled);
+                return;
+            } catch (IOException e) {
+                Log.w(TAG, "Corrupted preview strip " + file + ", extracting again", e);
+                strip.clear();
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        List<Long> syncTimes = findSyncFrameTimes(context, uri);
+        if (syncTimes.isEmpty() || cancelled.get()) {
+            return;
+        }
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        File tmp = new File(file.getPath() + ".tmp");
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            retriever.setDataSource(context, uri);
+            out.writeInt(FILE_MAGIC);
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream(32 * 1024);
+            for (long timeUs : syncTimes) {
+                if (cancelled.get()) {
+                    break;
+                }
+                Bitmap frame = grabSyncFrame(retriever, timeUs);
+                if (frame == null) {
+                    continue;
+                }
+                strip.add(timeUs, frame);
+                jpeg.reset();
+                frame.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, jpeg);
+                out.writeLong(timeUs);
+                out.writeInt(jpeg.size());
+                jpeg.writeTo(out);
+            }
+            // маркер конца: файл без него считается недописанным
+            out.writeLong(END_MARKER);
+            if (cancelled.get()) {
+                // неполная полоса не сохраняется — при следующем открытии извлечем заново
+                out.close();
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to extract preview strip for " + uri, e);
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return;
+        } finally {
+            releaseQuietly(retriever);
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Cannot store preview strip " + file);
+        }
+    }
+
+    /**
+     * Находит времена опорных кадров видеодорожки, равномерно прореженные до {@link #MAX_FRAMES}.
+     * Переход к следующему опорному кадру выполняется через индекс контейнера, без чтения данных кадров.
+     */
+    private static List<Long> findSyncFrameTimes(Context context, Uri uri) {
+        List<Long> result = new ArrayList<>();
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(context, uri, null);
+            long durationUs = -1;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) {
+                    extractor.selectTrack(i);
+                    durationUs = format.containsKey(MediaFormat.KEY_DURATION)
+                            ? format.getLong(MediaFormat.KEY_DURATION) : -1;
+                    break;
+                }
+            }
+            if (durationUs <= 0) {
+                return result;
+            }
+            long step = Math.max(1, durationUs / MAX_FRAMES);
+            long target = 0;
+            while (target <= durationUs && result.size() < MAX_FRAMES) {
+                extractor.seekTo(target, MediaExtractor.SEEK_TO_NEXT_SYNC);
+                long timeUs = extractor.getSampleTime();
+                if (timeUs < 0 || (!result.isEmpty() && timeUs <= result.get(result.size() - 1))) {
+                    break;
+                }
+                result.add(timeUs);
+                target = Math.max(timeUs + 1, target + step);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read sync frames of " + uri, e);
+        } finally {
+            extractor.release();
+        }
+        return result;
+    }
+
+    @Nullable
+    private static Bitmap grabSyncFrame(MediaMetadataRetriever retriever, long timeUs) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            return retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                    FRAME_SIZE, FRAME_SIZE);
+        }
+        Bitmap full = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        if (full == null) {
+            return null;
+        }
+        float ratio = Math.min((float) FRAME_SIZE / full.getWidth(), (float) FRAME_SIZE / full.getHeight());
+        Bitmap scaled = Bitmap.createScaledBitmap(full,
+                Math.max(1, Math.round(full.getWidth() * ratio)),
+                Math.max(1, Math.round(full.getHeight() * ratio)), true);
+        if (scaled != full) {
+            full.recycle();
+        }
+        return scaled;
+    }
+
+    private void readFrom(File file, AtomicBoolean cancelled) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Unknown preview strip format");
+            }
+            byte[] buffer = new byte[0];
+            while (!cancelled.get()) {
+                long timeUs = in.readLong();
+                if (timeUs == END_MARKER) {
+                    return;
+                }
+                int length = in.readInt();
+                if (length <= 0 || length > 4 * 1024 * 1024) {
+                    throw new IOException("Corrupted frame length " + length);
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                in.readFully(buffer, 0, length);
+                Bitmap frame = BitmapFactory.decodeByteArray(buffer, 0, length);
+                if (frame != null) {
+                    add(timeUs, frame);
+                }
+            }
+        }
+    }
+
+    private static void releaseQuietly(MediaMetadataRetriever retriever) {
+        try {
+            retriever.release();
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot release retriever", e);
+        }
+    }
+}
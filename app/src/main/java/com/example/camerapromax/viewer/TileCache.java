@@ -0,0 +1,65 @@
+package com.example.camerapromax.viewer;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Общий для процесса ограниченный LRU-кэш тайлов просмотрщика.
+ * Тайл — это прямоугольный фрагмент изображения, декодированный {@link android.graphics.BitmapRegionDecoder}
+ * с определенным коэффициентом уменьшения. Размер кэша ограничен в байтах, поэтому при глубоком
+ * увеличении огромной фотографии память не растет бесконечно — старые тайлы просто вытесняются.
+ */
+final class TileCache {
+
+    private static TileCache instance;
+
+    private final LruCache<String, Bitmap> cache;
+
+    /**
+     * Возвращает общий экземпляр кэша.
+     *
+     * @return Экземпляр кэша.
+     */
+    static synchronized TileCache getInstance() {
+        if (instance == null) {
+            // 1/8 доступной приложению памяти, размер считается в килобайтах
+            int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+            instance = new TileCache(maxKb);
+        }
+        return instance;
+    }
+
+    private TileCache(int maxKb) {
+        cache = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Формирует ключ тайла.
+     *
+     * @param uri    URI изображения.
+     * @param sample Коэффициент уменьшения (степень двойки).
+     * @param column Номер колонки тайла.
+     * @param row    Номер строки тайла.
+     * @return Ключ кэша.
+     */
+    static String key(@NonNull Uri uri, int sample, int column, int row) {
+        return uri + "|" + sample + "|" + column + "|" + row;
+    }
+
+    @Nullable
+    Bitmap get(@NonNull String key) {
+        return cache.get(key);
+    }
+
+    void put(@NonNull String key, @NonNull Bitmap bitmap) {
+        cache.put(key, bitmap);
+    }
+}
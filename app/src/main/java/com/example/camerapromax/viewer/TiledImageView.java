@@ -0,0 +1,438 @@
+package com.example.camerapromax.viewer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Представление для просмотра фотографии любого размера с увеличением.
+ * <p>
+ * Сначала декодируется одна уменьшенная копия под размер экрана (база). При увеличении, когда
+ * базы уже не хватает, видимая часть изображения делится на тайлы, которые декодируются
+ * {@link android.graphics.BitmapRegionDecoder} в нужном масштабе и хранятся в {@link TileCache}.
+ * В памяти одновременно находятся только база и видимые тайлы, поэтому даже 100-мегапиксельный снимок
+ * не приводит к нехватке памяти, а кадр отрисовывается без декодирования в главном потоке.
+ * <p>
+ * Все преобразования собраны в одну матрицу: сначала поворот из EXIF, затем масштаб и сдвиг жестами.
+ * Тайлы и база рисуются в координатах исходного изображения через эту матрицу.
+ */
+public class TiledImageView extends View {
+
+    private static final String TAG = "TiledImageView";
+    /** Сторона тайла в пикселях декодированного Bitmap. */
+    private static final int TILE_SIZE = 512;
+    /** Во сколько раз двойное касание увеличивает изображение относительно вписанного. */
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+    private static final int MAX_SAMPLE = 256;
+
+    // общие для всех страниц потоки декодирования: соседние страницы и тайлы конкурируют за них
+    private static final ExecutorService DECODE_EXECUTOR = Executors.newFixedThreadPool(2);
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Matrix orientationMatrix = new Matrix();
+    private final Matrix drawMatrix = new Matrix();
+    private final Matrix inverseMatrix = new Matrix();
+    private final RectF visibleRect = new RectF();
+    private final Rect imageRect = new Rect();
+    private final Rect tileRect = new Rect();
+    private final TileCache tileCache = TileCache.getInstance();
+    // тайлы, видимые на последнем кадре; задачи для остальных пропускаются
+    private final Set<String> wantedTiles = new HashSet<>();
+    private final Set<String> pendingTiles = new HashSet<>();
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    @Nullable
+    private OnReadyListener onReadyListener;
+    @Nullable
+    private Uri uri;
+    @Nullable
+    private RegionSource source;
+    @Nullable
+    private Bitmap base;
+    private int baseSample;
+    // увеличивается при смене изображения, чтобы отбрасывать результаты старых задач
+    private volatile int generation;
+
+    // размеры изображения после поворота
+    private int orientedWidth;
+    private int orientedHeight;
+    private float scale;
+    private float minScale;
+    private float maxScale;
+    private float translateX;
+    private float translateY;
+
+    /**
+     * Слушатель готовности базового изображения.
+     */
+    public interface OnReadyListener {
+        /**
+         * Вызывается в главном потоке, когда база декодирована и показана.
+         */
+        void onReady();
+    }
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(@NonNull ScaleGestureDetector detector) {
+                zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float distanceX, float distanceY) {
+                if (!isZoomed()) {
+                    return false;
+                }
+                float before = translateX;
+                translateX -= distanceX;
+                translateY -= distanceY;
+                clampTranslation();
+                // упёрлись в край — отдаем жест ViewPager2, чтобы можно было перейти на соседнюю страницу
+                if (before == translateX && Math.abs(distanceX) > Math.abs(distanceY)) {
+                    getParent().requestDisallowInterceptTouchEvent(false);
+                }
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(@NonNull MotionEvent e) {
+                if (isZoomed()) {
+                    zoomTo(minScale, e.getX(), e.getY());
+                } else {
+                    zoomTo(Math.min(maxScale, minScale * DOUBLE_TAP_ZOOM), e.getX(), e.getY());
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Задает слушатель готовности базового изображения.
+     *
+     * @param listener Слушатель или {@code null}.
+     */
+    public void setOnReadyListener(@Nullable OnReadyListener listener) {
+        this.onReadyListener = listener;
+    }
+
+    /**
+     * Показывает изображение. Открытие файла и декодирование базы выполняются в фоне.
+     *
+     * @param newUri URI изображения или {@code null}, чтобы освободить ресурсы.
+     */
+    public void setImageUri(@Nullable Uri newUri) {
+        if (newUri != null && newUri.equals(uri)) {
+            if (base != null && onReadyListener != null) {
+                onReadyListener.onReady();
+            }
+            return;
+        }
+        release();
+        uri = newUri;
+        if (newUri == null) {
+            return;
+        }
+        final int requestGeneration = generation;
+        final Context appContext = getContext().getApplicationContext();
+        final int targetWidth = getWidth() > 0 ? getWidth() : getResources().getDisplayMetrics().widthPixels;
+        final int targetHeight = getHeight() > 0 ? getHeight() : getResources().getDisplayMetrics().heightPixels;
+
+        DECODE_EXECUTOR.execute(() -> {
+            RegionSource opened;
+            try {
+                opened = RegionSource.open(appContext.getContentResolver(), newUri);
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Cannot open " + newUri, e);
+                return;
+            }
+            int sample = baseSampleFor(opened, targetWidth, targetHeight);
+            Bitmap decoded = opened.decodeRegion(new Rect(0, 0, opened.width, opened.height), sample);
+            post(() -> {
+                if (requestGeneration != generation || decoded == null) {
+                    opened.close();
+                    return;
+                }
+                source = opened;
+                base = decoded;
+                imageRect.set(0, 0, opened.width, opened.height);
+                baseSample = sample;
+                setupOrientation();
+                resetZoom();
+                if (onReadyListener != null) {
+                    onReadyListener.onReady();
+                }
+            });
+        });
+    }
+
+    /**
+     * Вычисляет коэффициент уменьшения базы: наибольшую степень двойки, при которой
+     * база всё ещё не меньше экрана, когда изображение вписано целиком.
+     */
+    private static int baseSampleFor(RegionSource source, int viewWidth, int viewHeight) {
+        boolean rotated = source.orientation == 90 || source.orientation == 270;
+        int width = rotated ? source.height : source.width;
+        int height = rotated ? source.width : source.height;
+        float fit = Math.min((float) viewWidth / width, (float) viewHeight / height);
+        return sampleFor(fit);
+    }
+
+    /**
+     * Вычисляет наибольшую степень двойки, не превышающую число исходных пикселей на пиксель экрана.
+     */
+    private static int sampleFor(float scale) {
+        int sample = 1;
+        if (scale <= 0f) {
+            return sample;
+        }
+        while (sample < MAX_SAMPLE && sample * 2 <= 1f / scale) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * Строит матрицу поворота исходного изображения по значению EXIF.
+     */
+    private void setupOrientation() {
+        RegionSource current = source;
+        if (current == null) {
+            return;
+        }
+        orientationMatrix.setRotate(current.orientation);
+        switch (current.orientation) {
+            case 90:
+                orientationMatrix.postTranslate(current.height, 0);
+                break;
+            case 180:
+                orientationMatrix.postTranslate(current.width, current.height);
+                break;
+            case 270:
+                orientationMatrix.postTranslate(0, current.width);
+                break;
+            default:
+                break;
+        }
+        boolean rotated = current.orientation == 90 || current.orientation == 270;
+        orientedWidth = rotated ? current.height : current.width;
+        orientedHeight = rotated ? current.width : current.height;
+    }
+
+    /**
+     * Вписывает изображение в представление целиком.
+     */
+    private void resetZoom() {
+        if (source == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        minScale = Math.min((float) getWidth() / orientedWidth, (float) getHeight() / orientedHeight);
+        // до двух пикселей экрана на пиксель снимка, но не меньше четырехкратного увеличения
+        maxScale = Math.max(minScale * 4f, 2f);
+        scale = minScale;
+        clampTranslation();
+        invalidate();
+    }
+
+    private boolean isZoomed() {
+        return scale > minScale * 1.01f;
+    }
+
+    /**
+     * Меняет масштаб так, чтобы точка под пальцем осталась на месте.
+     */
+    private void zoomTo(float newScale, float focusX, float focusY) {
+        if (source == null) {
+            return;
+        }
+        newScale = Math.max(minScale, Math.min(maxScale, newScale));
+        float ratio = newScale / scale;
+        translateX = focusX - (focusX - translateX) * ratio;
+        translateY = focusY - (focusY - translateY) * ratio;
+        scale = newScale;
+        clampTranslation();
+        invalidate();
+    }
+
+    /**
+     * Не дает сдвинуть изображение за края; если оно меньше представления, центрирует его.
+     */
+    private void clampTranslation() {
+        float width = orientedWidth * scale;
+        float height = orientedHeight * scale;
+        if (width <= getWidth()) {
+            translateX = (getWidth() - width) / 2f;
+        } else {
+            translateX = Math.max(getWidth() - width, Math.min(0, translateX));
+        }
+        if (height <= getHeight()) {
+            translateY = (getHeight() - height) / 2f;
+        } else {
+            translateY = Math.max(getHeight() - height, Math.min(0, translateY));
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetZoom();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            // пока изображение увеличено, горизонтальные жесты двигают его, а не листают страницы
+            getParent().requestDisallowInterceptTouchEvent(isZoomed());
+        } else if (event.getPointerCount() > 1) {
+            getParent().requestDisallowInterceptTouchEvent(true);
+        }
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        RegionSource current = source;
+        if (current == null || base == null) {
+            return;
+        }
+        drawMatrix.set(orientationMatrix);
+        drawMatrix.postScale(scale, scale);
+        drawMatrix.postTranslate(translateX, translateY);
+
+        canvas.save();
+        canvas.concat(drawMatrix);
+        canvas.drawBitmap(base, null, imageRect, paint);
+
+        int sample = sampleFor(scale);
+        if (current.supportsTiles() && sample < baseSample) {
+            drawTiles(canvas, current, sample);
+        } else {
+            synchronized (wantedTiles) {
+                wantedTiles.clear();
+            }
+        }
+        canvas.restore();
+    }
+
+    /**
+     * Рисует тайлы, покрывающие видимую область, и запрашивает декодирование отсутствующих.
+     * Вызывается с уже примененной матрицей, поэтому тайлы рисуются в координатах исходного изображения.
+     */
+    private void drawTiles(Canvas canvas, RegionSource current, int sample) {
+        drawMatrix.invert(inverseMatrix);
+        visibleRect.set(0, 0, getWidth(), getHeight());
+        inverseMatrix.mapRect(visibleRect);
+
+        int tileSpan = TILE_SIZE * sample;
+        int firstColumn = Math.max(0, (int) (visibleRect.left / tileSpan));
+        int lastColumn = Math.min((current.width - 1) / tileSpan, (int) (visibleRect.right / tileSpan));
+        int firstRow = Math.max(0, (int) (visibleRect.top / tileSpan));
+        int lastRow = Math.min((current.height - 1) / tileSpan, (int) (visibleRect.bottom / tileSpan));
+
+        synchronized (wantedTiles) {
+            wantedTiles.clear();
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    String key = TileCache.key(current.uri, sample, column, row);
+                    tileRect.set(column * tileSpan, row * tileSpan,
+                            Math.min(current.width, (column + 1) * tileSpan),
+                            Math.min(current.height, (row + 1) * tileSpan));
+                    Bitmap tile = tileCache.get(key);
+                    if (tile != null) {
+                        canvas.drawBitmap(tile, null, tileRect, paint);
+                    } else {
+                        wantedTiles.add(key);
+                        requestTile(current, key, new Rect(tileRect), sample);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Ставит тайл в очередь декодирования, если он ещё не декодируется.
+     */
+    private void requestTile(RegionSource current, String key, Rect region, int sample) {
+        synchronized (pendingTiles) {
+            if (!pendingTiles.add(key)) {
+                return;
+            }
+        }
+        final int requestGeneration = generation;
+        DECODE_EXECUTOR.execute(() -> {
+            try {
+                boolean wanted;
+                synchronized (wantedTiles) {
+                    wanted = wantedTiles.contains(key);
+                }
+                // пользователь уже ушел из этой области или с этой страницы
+                if (!wanted || requestGeneration != generation) {
+                    return;
+                }
+                Bitmap tile = current.decodeRegion(region, sample);
+                if (tile != null) {
+                    tileCache.put(key, tile);
+                    postInvalidateOnAnimation();
+                }
+            } finally {
+                synchronized (pendingTiles) {
+                    pendingTiles.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Закрывает текущее изображение и отменяет его фоновые задачи.
+     * Вызывается через {@link #setImageUri(Uri)} с {@code null}, когда страница переиспользуется или уничтожается.
+     */
+    private void release() {
+        generation++;
+        synchronized (wantedTiles) {
+            wantedTiles.clear();
+        }
+        if (source != null) {
+            source.close();
+            source = null;
+        }
+        base = null;
+        uri = null;
+        invalidate();
+    }
+}
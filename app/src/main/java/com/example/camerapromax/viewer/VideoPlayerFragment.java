@@ -0,0 +1,301 @@
+package com.example.camerapromax.viewer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.SeekBar;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.Player;
+import androidx.media3.exoplayer.ExoPlayer;
+import com.example.camerapromax.databinding.FragmentVideoPlayerBinding;
+import com.example.camerapromax.edit.TrimDialogFragment;
+import com.example.camerapromax.gallery.MediaFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Проигрыватель видео внутри приложения на основе Media3 ExoPlayer.
+ * Полоса перемотки показывает кадр предпросмотра над ползунком. Кадры берутся из
+ * {@link SeekPreviewStrip}, который извлекается один раз в фоне и хранится на диске,
+ * поэтому перемотка никогда не ждет декодирования: показывается ближайший уже готовый кадр,
+ * а сам плеер переходит к позиции только когда пользователь отпускает ползунок.
+ */
+public class VideoPlayerFragment extends Fragment {
+
+    /** Аргумент: URI видео. */
+    public static final String ARG_URI = "uri";
+    /** Аргумент: идентификатор видео в MediaStore. */
+    public static final String ARG_ID = "id";
+    /** Аргумент: время изменения видео в секундах. */
+    public static final String ARG_DATE_MODIFIED = "date_modified";
+    /** Аргумент: имя файла видео. */
+    public static final String ARG_NAME = "name";
+
+    /** Как часто обновлять положение ползунка во время воспроизведения. */
+    private static final long PROGRESS_UPDATE_MS = 200;
+    private static final String STATE_POSITION_MS = "position_ms";
+    private static final String STATE_PLAY_WHEN_READY = "play_when_ready";
+
+    private FragmentVideoPlayerBinding binding;
+    private ExoPlayer player;
+    private final SeekPreviewStrip previewStrip = new SeekPreviewStrip();
+    private final AtomicBoolean extractionCancelled = new AtomicBoolean();
+    private final ExecutorService extractionExecutor = Executors.newSingleThreadExecutor();
+    private final Handler progressHandler = new Handler(Looper.getMainLooper());
+    private boolean isScrubbing;
+    // положение и состояние воспроизведения переживают пересоздание представления и поворот экрана
+    private long resumePositionMs;
+    private boolean resumePlayWhenReady = true;
+    // полоса живет дольше представления, поэтому извлекается один раз за жизнь фрагмента
+    private boolean extractionStarted;
+
+    private final Runnable progressUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (binding == null || player == null) {
+                return;
+            }
+            if (!isScrubbing) {
+                binding.seekBar.setProgress((int) player.getCurrentPosition());
+            }
+            progressHandler.postDelayed(this, PROGRESS_UPDATE_MS);
+        }
+    };
+
+    /**
+     * Создает аргументы для перехода к проигрывателю.
+     *
+     * @param mediaFile Видео для воспроизведения.
+     * @return Bundle для {@link androidx.navigation.NavController#navigate(int, Bundle)}.
+     */
+    public static Bundle createArguments(@NonNull MediaFile mediaFile) {
+        Bundle args = new Bundle();
+        args.putParcelable(ARG_URI, mediaFile.getUri());
+        args.putLong(ARG_ID, mediaFile.getId());
+        args.putLong(ARG_DATE_MODIFIED, mediaFile.getDateModified());
+        args.putString(ARG_NAME, mediaFile.getName());
+        return args;
+    }
+
+    /**
+     * Создает макет для этого фрагмента.
+     *
+     * @param inflater           Объект LayoutInflater, который можно использовать для создания представлений во фрагменте.
+     * @param container          Если не null, это родительское представление, к которому должен быть прикреплен интерфейс фрагмента.
+     * @param savedInstanceState Если не null, этот фрагмент восстанавливается из предыдущего сохраненного состояния, как указано здесь.
+     * @return Представление для интерфейса фрагмента или null.
+     */
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        binding = FragmentVideoPlayerBinding.inflate(inflater, container, false);
+        return binding.getRoot();
+    }
+
+    /**
+     * Вызывается сразу после возврата из {@link #onCreateView(LayoutInflater, ViewGroup, Bundle)}.
+     * Создает плеер, настраивает полосу перемотки и запускает фоновую подготовку кадров предпросмотра.
+     *
+     * @param view               Представление, возвращенное методом {@link #onCreateView(LayoutInflater, ViewGroup, Bundle)}.
+     * @param savedInstanceState Если не null, этот фрагмент восстанавливается из предыдущего сохраненного состояния, как указано здесь.
+     */
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        Bundle args = requireArguments();
+        Uri uri = args.getParcelable(ARG_URI);
+        if (uri == null) {
+            return;
+        }
+        if (savedInstanceState != null) {
+            resumePositionMs = savedInstanceState.getLong(STATE_POSITION_MS);
+            resumePlayWhenReady = savedInstanceState.getBoolean(STATE_PLAY_WHEN_READY, true);
+        }
+
+        player = new ExoPlayer.Builder(requireContext()).build();
+        binding.playerView.setPlayer(player);
+        player.setMediaItem(MediaItem.fromUri(uri));
+        player.addListener(new Player.Listener() {
+            @Override
+            public void onPlaybackStateChanged(int playbackState) {
+                if (playbackState == Player.STATE_READY && player.getDuration() != C.TIME_UNSET) {
+                    binding.seekBar.setMax((int) player.getDuration());
+                    binding.seekBar.setProgress((int) player.getCurrentPosition());
+                    binding.trimButton.setEnabled(true);
+                }
+            }
+
+            @Override
+            public void onIsPlayingChanged(boolean isPlaying) {
+                binding.playPauseButton.setImageResource(isPlaying
+                        ? android.R.drawable.ic_media_pause
+                        : android.R.drawable.ic_media_play);
+            }
+        });
+        player.seekTo(resumePositionMs);
+        player.prepare();
+        if (resumePlayWhenReady) {
+            player.play();
+        }
+
+        binding.playPauseButton.setOnClickListener(v -> {
+            if (player.isPlaying()) {
+                player.pause();
+            } else {
+                player.play();
+            }
+        });
+        setupSeekBar();
+        setupTrimButton(uri, args.getString(ARG_NAME));
+        progressHandler.post(progressUpdater);
+
+        // полоса кадров либо читается с диска, либо один раз извлекается и сохраняется
+        if (extractionStarted) {
+            return;
+        }
+        extractionStarted = true;
+        final Context appContext = requireContext().getApplicationContext();
+        final long id = args.getLong(ARG_ID);
+        final long dateModified = args.getLong(ARG_DATE_MODIFIED);
+        extractionExecutor.execute(() -> SeekPreviewStrip.loadOrExtract(appContext, uri,
+                SeekPreviewStrip.cacheFile(appContext, id, dateModified), previewStrip, extractionCancelled));
+    }
+
+    /**
+     * Настраивает полосу перемотки с предпросмотром.
+     */
+    private void setupSeekBar() {
+        binding.seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser) {
+                    showPreview(seekBar, progress);
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                isScrubbing = true;
+                showPreview(seekBar, seekBar.getProgress());
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                isScrubbing = false;
+                binding.seekPreview.setVisibility(View.GONE);
+                player.seekTo(seekBar.getProgress());
+            }
+        });
+    }
+
+    /**
+     * Настраивает кнопку обрезки. Обрезка без перекодирования требует MediaMuxer с FileDescriptor (Android 8+).
+     *
+     * @param uri  URI видео.
+     * @param name Имя файла видео.
+     */
+    private void setupTrimButton(Uri uri, @Nullable String name) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        binding.trimButton.setVisibility(View.VISIBLE);
+        binding.trimButton.setOnClickListener(v -> {
+            player.pause();
+            TrimDialogFragment.newInstance(uri, name, player.getDuration())
+                    .show(getChildFragmentManager(), TrimDialogFragment.TAG);
+        });
+    }
+
+    /**
+     * Показывает ближайший готовый кадр над ползунком. Только поиск в памяти, без декодирования.
+     *
+     * @param seekBar    Полоса перемотки.
+     * @param progressMs Позиция ползунка в миллисекундах.
+     */
+    private void showPreview(SeekBar seekBar, int progressMs) {
+        Bitmap frame = previewStrip.frameAt(progressMs * 1000L);
+        if (frame == null) {
+            binding.seekPreview.setVisibility(View.GONE);
+            return;
+        }
+        binding.seekPreview.setImageBitmap(frame);
+        binding.seekPreview.setVisibility(View.VISIBLE);
+
+        // центрируем кадр над ползунком, не выходя за края экрана
+        int available = seekBar.getWidth() - seekBar.getPaddingLeft() - seekBar.getPaddingRight();
+        float thumbX = seekBar.getX() + seekBar.getPaddingLeft()
+                + (seekBar.getMax() > 0 ? available * (float) progressMs / seekBar.getMax() : 0);
+        float previewWidth = binding.seekPreview.getWidth();
+        float maxX = binding.getRoot().getWidth() - previewWidth;
+        binding.seekPreview.setTranslationX(Math.max(0, Math.min(maxX, thumbX - previewWidth / 2f)));
+    }
+
+    /**
+     * Ставит воспроизведение на паузу, когда фрагмент уходит с экрана,
+     * и запоминает, шло ли оно, чтобы продолжить после пересоздания.
+     */
+    @Override
+    public void onPause() {
+        super.onPause();
+        if (player != null) {
+            resumePlayWhenReady = player.getPlayWhenReady();
+            resumePositionMs = player.getCurrentPosition();
+            player.pause();
+        }
+    }
+
+    /**
+     * Сохраняет положение и состояние воспроизведения, чтобы поворот экрана
+     * не начинал ролик с начала.
+     *
+     * @param outState Пакет, в который сохраняется состояние.
+     */
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (player != null) {
+            resumePositionMs = player.getCurrentPosition();
+        }
+        outState.putLong(STATE_POSITION_MS, resumePositionMs);
+        outState.putBoolean(STATE_PLAY_WHEN_READY, resumePlayWhenReady);
+    }
+
+    /**
+     * Вызывается, когда представление фрагмента уничтожается.
+     * Освобождает плеер и обнуляет привязку.
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        progressHandler.removeCallbacks(progressUpdater);
+        if (player != null) {
+            resumePositionMs = player.getCurrentPosition();
+            player.release();
+            player = null;
+        }
+        binding = null;
+    }
+
+    /**
+     * Вызывается, когда фрагмент больше не используется.
+     * Отменяет извлечение кадров предпросмотра.
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        extractionCancelled.set(true);
+        extractionExecutor.shutdown();
+    }
+}
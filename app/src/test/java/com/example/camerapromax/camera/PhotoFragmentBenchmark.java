@@ -0,0 +1,31 @@
+package com.example.camerapromax.camera;
+
+import static org.junit.Assert.assertEquals;
+
+import com.example.camerapromax.microbench.MicroBenchmark;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Микробенчмарк формирования имени файла, которое строится при каждом нажатии на кнопку съемки.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PhotoFragmentBenchmark {
+
+    private static final MicroBenchmark BENCHMARK = new MicroBenchmark();
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        BENCHMARK.writeReport(PhotoFragmentBenchmark.class);
+    }
+
+    @Test
+    public void createFileName() {
+        long[] time = {1_715_954_602_118L};
+        BENCHMARK.measure("create_file_name", 10_000, () -> PhotoFragment.createFileName(time[0]++));
+        assertEquals(23, PhotoFragment.createFileName(time[0]).length());
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.camerapromax.gallery;
+
+import static org.junit.Assert.assertEquals;
+
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import com.example.camerapromax.microbench.MicroBenchmark;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Микробенчмарк превращения строк MediaStore в {@link MediaFile} на таблице из 50 000 строк.
+ * Курсор заполняется синтетическими строками в памяти, поэтому замер не зависит от устройства.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MediaRepositoryBenchmark {
+
+    private static final int ROWS = 50_000;
+    private static final MicroBenchmark BENCHMARK = new MicroBenchmark();
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        BENCHMARK.writeReport(MediaRepositoryBenchmark.class);
+    }
+
+    @Test
+    public void readRows() {
+        MatrixCursor cursor = new MatrixCursor(MediaRepository.PROJECTION, ROWS);
+        long now = System.currentTimeMillis() / 1000;
+        for (int i = 0; i < ROWS; i++) {
+            boolean video = i % 10 == 0;
+            cursor.addRow(new Object[]{(long) ROWS - i, String.format(Locale.US, "IMG_%06d.%s", i, video ? "mp4" : "jpg"),
+                    video ? "video/mp4" : "image/jpeg", now - i * 60L});
+        }
+        Uri collection = MediaStore.Files.getContentUri("external");
+
+        List<MediaFile> mapped = new ArrayList<>(ROWS);
+        BENCHMARK.measure("cursor_to_model_50k", 1, () -> {
+            mapped.clear();
+            cursor.moveToPosition(-1);
+            MediaRepository.readRows(cursor, collection, mapped);
+            return mapped;
+        });
+        assertEquals(ROWS, mapped.size());
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.camerapromax.gallery;
+
+import static org.junit.Assert.assertEquals;
+
+import com.example.camerapromax.microbench.MicroBenchmark;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * Микробенчмарк расчета размеров миниатюр: он выполняется на каждом шаге жеста масштабирования сетки.
+ */
+public class ThumbnailSizerBenchmark {
+
+    private static final MicroBenchmark BENCHMARK = new MicroBenchmark();
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        BENCHMARK.writeReport(ThumbnailSizerBenchmark.class);
+    }
+
+    @Test
+    public void tierForAllSpans() {
+        int[] width = {720};
+        BENCHMARK.measure("tier_for_span", 100_000, () -> {
+            width[0] = width[0] == 1440 ? 720 : width[0] + 1;
+            int span = ThumbnailSizer.clampSpan(width[0] % 10);
+            return ThumbnailSizer.tierFor(ThumbnailSizer.cellSize(width[0], span));
+        });
+        assertEquals(384, ThumbnailSizer.tierFor(ThumbnailSizer.cellSize(1080, 3)));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.camerapromax.microbench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Минимальный измеритель в духе JMH для локальных JVM-тестов.
+ * <p>
+ * Каждый замер — несколько итераций прогрева, затем итерации измерения; в каждой итерации операция
+ * выполняется {@code opsPerIteration} раз. Результат операции сохраняется в volatile-поле, чтобы JIT
+ * не выбросил вычисление. Сводки пишутся в {@code build/reports/microbenchmarks/<класс>.json}
+ * для сравнения между сборками.
+ * <p>
+ * Классы {@code *Benchmark} не входят в обычный {@code ./gradlew test} и запускаются явно:
+ * {@code ./gradlew :app:testDebugUnitTest -Pmicrobenchmarks}.
+ */
+public final class MicroBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 10;
+    private static final File REPORT_DIR = new File("build/reports/microbenchmarks");
+
+    @SuppressWarnings("unused")
+    private static volatile Object sink;
+
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Измеряемая операция.
+     */
+    public interface Operation {
+        /**
+         * Выполняет операцию один раз.
+         *
+         * @return Результат, который не должен быть выброшен оптимизатором.
+         */
+        Object run();
+    }
+
+    /**
+     * Сводка одного замера.
+     */
+    public static final class Result {
+        final String name;
+        final int opsPerIteration;
+        final double minNs;
+        final double medianNs;
+        final double maxNs;
+
+        Result(String name, int opsPerIteration, double[] nsPerOp) {
+            double[] sorted = nsPerOp.clone();
+            Arrays.sort(sorted);
+            this.name = name;
+            this.opsPerIteration = opsPerIteration;
+            this.minNs = sorted[0];
+            this.medianNs = sorted[sorted.length / 2];
+            this.maxNs = sorted[sorted.length - 1];
+        }
+
+        /**
+         * Получает медианное время одной операции.
+         *
+         * @return Медиана в наносекундах.
+         */
+        public double getMedianNs() {
+            return medianNs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: median=%.1f ns/op min=%.1f max=%.1f", name, medianNs, minNs, maxNs);
+        }
+    }
+
+    /**
+     * Измеряет операцию и добавляет результат в отчет.
+     *
+     * @param name            Имя замера в отчете.
+     * @param opsPerIteration Сколько раз выполнять операцию за итерацию.
+     * @param operation       Операция.
+     * @return Сводка.
+     */
+    public Result measure(String name, int opsPerIteration, Operation operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(opsPerIteration, operation);
+        }
+        double[] nsPerOp = new double[MEASUREMENT_ITERATIONS];
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            nsPerOp[i] = runIteration(opsPerIteration, operation) / (double) opsPerIteration;
+        }
+        Result result = new Result(name, opsPerIteration, nsPerOp);
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * Записывает все замеры в JSON-отчет.
+     *
+     * @param benchmarkClass Класс бенчмарка; его имя становится именем файла.
+     * @throws IOException Если отчет нельзя записать.
+     */
+    public void writeReport(Class<?> benchmarkClass) throws IOException {
+        if (!REPORT_DIR.isDirectory() && !REPORT_DIR.mkdirs()) {
+            throw new IOException("Cannot create " + REPORT_DIR);
+        }
+        StringBuilder json = new StringBuilder("{\n  \"class\": \"").append(benchmarkClass.getName())
+                .append("\",\n  \"timestamp\": ").append(System.currentTimeMillis())
+                .append(",\n  \"benchmarks\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append(String.format(Locale.US,
+                    "    {\"name\": \"%s\", \"ops_per_iteration\": %d, \"median_ns\": %.1f, \"min_ns\": %.1f, \"max_ns\": %.1f}",
+                    result.name, result.opsPerIteration, result.medianNs, result.minNs, result.maxNs));
+        }
+        json.append("\n  ]\n}\n");
+        File file = new File(REPORT_DIR, benchmarkClass.getSimpleName() + ".json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private static long runIteration(int ops, Operation operation) {
+        long start = System.nanoTime();
+        Object last = null;
+        for (int i = 0; i < ops; i++) {
+            last = operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        sink = last;
+        return elapsed;
+    }
+}
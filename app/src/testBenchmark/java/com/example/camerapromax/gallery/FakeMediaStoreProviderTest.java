@@ -0,0 +1,84 @@
+package com.example.camerapromax.gallery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+import android.provider.MediaStore;
+import com.example.camerapromax.fake.FakeMediaStoreProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Задержка запросов и уведомления синтетической коллекции в связке с {@link MediaRepository}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FakeMediaStoreProviderTest {
+
+    private static final int ROWS = 10_000;
+    private static final long LATENCY_MS = 50;
+
+    private ContentResolver contentResolver;
+    private MediaRepository repository;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(FakeMediaStoreProvider.class, FakeMediaStoreProvider.AUTHORITY);
+        Context context = RuntimeEnvironment.getApplication();
+        contentResolver = context.getContentResolver();
+        MediaRepository.setCollection(FakeMediaStoreProvider.COLLECTION);
+        repository = MediaRepository.getInstance(context);
+    }
+
+    @After
+    public void tearDown() {
+        MediaRepository.setCollection(null);
+    }
+
+    @Test
+    public void injectedLatency() {
+        seed(LATENCY_MS);
+        long startNs = System.nanoTime();
+        repository.loadPage(MediaFilter.ALL, 0);
+        assertTrue((System.nanoTime() - startNs) / 1_000_000 >= LATENCY_MS);
+    }
+
+    @Test
+    public void insertInvalidatesCache() {
+        seed(0);
+        shadowOf(Looper.getMainLooper()).idle();
+        repository.loadPage(MediaFilter.ALL, 0);
+        assertNotNull(repository.getCached(MediaFilter.ALL));
+
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Files.FileColumns.DISPLAY_NAME, "IMG_new.jpg");
+        values.put(MediaStore.Files.FileColumns.MIME_TYPE, "image/jpeg");
+        values.put(MediaStore.Files.FileColumns.MEDIA_TYPE, MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE);
+        values.put(MediaStore.Files.FileColumns.DATE_ADDED, System.currentTimeMillis() / 1000);
+        values.put(MediaStore.Files.FileColumns.DATE_MODIFIED, System.currentTimeMillis() / 1000);
+        contentResolver.insert(FakeMediaStoreProvider.COLLECTION, values);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertNull(repository.getCached(MediaFilter.ALL));
+        assertEquals("IMG_new.jpg", repository.loadPage(MediaFilter.ALL, 0).get(0).getName());
+    }
+
+    private void seed(long latencyMs) {
+        Bundle extras = new Bundle();
+        extras.putInt(FakeMediaStoreProvider.EXTRA_ROWS, ROWS);
+        extras.putLong(FakeMediaStoreProvider.EXTRA_LATENCY_MS, latencyMs);
+        FakeMediaStoreProvider.seed(contentResolver, extras);
+    }
+}
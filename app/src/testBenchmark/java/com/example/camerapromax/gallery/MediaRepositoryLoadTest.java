@@ -0,0 +1,131 @@
+package com.example.camerapromax.gallery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.os.Bundle;
+import com.example.camerapromax.fake.FakeMediaStoreProvider;
+import com.example.camerapromax.microbench.MicroBenchmark;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Нагрузочный тест репозитория галереи на синтетической коллекции из 10 000 и 100 000 строк.
+ * Запускается в сборке benchmark: {@code ./gradlew :app:testBenchmarkUnitTest}. Прогон на 1 000 000 строк
+ * занимает минуты и включается явно: {@code ./gradlew :app:testBenchmarkUnitTest -PlargeMediaStore}.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class MediaRepositoryLoadTest {
+
+    private static final MicroBenchmark BENCHMARK = new MicroBenchmark();
+    /** Системное свойство теста, которое сборка задает по {@code -PlargeMediaStore}. */
+    private static final String LARGE_PROPERTY = "camerapromax.largeMediaStore";
+
+    private final int rows;
+    private MediaRepository repository;
+
+    public MediaRepositoryLoadTest(int rows) {
+        this.rows = rows;
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "rows={0}")
+    public static Collection<Object[]> rowCounts() {
+        List<Object[]> sizes = new ArrayList<>(Arrays.asList(new Object[][]{{10_000}, {100_000}}));
+        if (Boolean.getBoolean(LARGE_PROPERTY)) {
+            sizes.add(new Object[]{1_000_000});
+        }
+        return sizes;
+    }
+
+    @AfterClass
+    public static void writeReport() throws IOException {
+        BENCHMARK.writeReport(MediaRepositoryLoadTest.class);
+    }
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(FakeMediaStoreProvider.class, FakeMediaStoreProvider.AUTHORITY);
+        Context context = RuntimeEnvironment.getApplication();
+        Bundle extras = new Bundle();
+        extras.putInt(FakeMediaStoreProvider.EXTRA_ROWS, rows);
+        FakeMediaStoreProvider.seed(context.getContentResolver(), extras);
+        MediaRepository.setCollection(FakeMediaStoreProvider.COLLECTION);
+        repository = MediaRepository.getInstance(context);
+    }
+
+    @After
+    public void tearDown() {
+        MediaRepository.setCollection(null);
+    }
+
+    /**
+     * Первая и последняя страницы, поиск с фильтром и страница из середины после сброса кэша.
+     * Robolectric пересоздает провайдер для каждого тестового метода, а {@link #setUp()} заново генерирует
+     * коллекцию, поэтому все проверки одного размера собраны в одном тесте: коллекция генерируется один раз.
+     */
+    @Test
+    public void pagingAndSearch() {
+        BENCHMARK.measure("first_page_" + rows, 1, () -> {
+            repository.invalidate();
+            return repository.loadPage(MediaFilter.ALL, 0);
+        });
+        List<MediaFile> first = repository.loadPage(MediaFilter.ALL, 0);
+        assertEquals(MediaRepository.PAGE_SIZE, first.size());
+        // самые новые строки идут первыми
+        assertEquals(rows, first.get(0).getId());
+
+        int offset = rows - MediaRepository.PAGE_SIZE;
+        BENCHMARK.measure("last_page_" + rows, 1, () -> {
+            repository.invalidate();
+            return repository.loadPage(MediaFilter.ALL, offset);
+        });
+        List<MediaFile> last = repository.loadPage(MediaFilter.ALL, offset);
+        assertEquals(1, last.get(last.size() - 1).getId());
+
+        MediaFilter filter = MediaFilter.ALL
+                .withType(MediaFilter.TYPE_VIDEOS)
+                .withAppFoldersOnly(true)
+                .withNameQuery("00");
+        BENCHMARK.measure("filtered_search_" + rows, 1, () -> {
+            repository.invalidate();
+            return repository.loadPage(filter, 0);
+        });
+        for (MediaFile file : repository.loadPage(filter, 0)) {
+            assertEquals("video/mp4", file.getType());
+            assertTrue(file.getName().contains("00"));
+        }
+
+        checkPageAfterInvalidateIsNotCachedAsHead();
+    }
+
+    /**
+     * Страница из середины, загруженная после сброса кэша, не должна попасть в кэш как начало списка:
+     * галерея и просмотрщик берут позиции из {@link MediaRepository#getCached(MediaFilter)}.
+     */
+    private void checkPageAfterInvalidateIsNotCachedAsHead() {
+        repository.invalidate();
+        List<MediaFile> middle = repository.loadPage(MediaFilter.ALL, MediaRepository.PAGE_SIZE);
+        assertEquals(rows - MediaRepository.PAGE_SIZE, middle.get(0).getId());
+
+        MediaRepository.Result cached = repository.getCached(MediaFilter.ALL);
+        assertTrue(cached == null || cached.size() == 0);
+
+        // с начала кэш заполняется как обычно
+        repository.loadPage(MediaFilter.ALL, 0);
+        cached = repository.getCached(MediaFilter.ALL);
+        assertEquals(MediaRepository.PAGE_SIZE, cached.size());
+        assertEquals(rows, cached.getItems().get(0).getId());
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.camerapromax.benchmark;
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import kotlin.Unit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Собирает baseline-профиль холодного старта с устройства.
+ * Нужен Android 13+ или root. Готовый профиль печатается в отчете теста; его содержимое
+ * переносится в {@code app/src/main/baseline-prof.txt}.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+
+    @Rule
+    public final BaselineProfileRule baselineProfileRule = new BaselineProfileRule();
+
+    @Test
+    public void startup() {
+        baselineProfileRule.collect(StartupBenchmark.PACKAGE_NAME, scope -> {
+            StartupBenchmark.grantCameraPermission(scope.getDevice());
+            scope.pressHome();
+            scope.startActivityAndWait();
+            StartupBenchmark.awaitPreview(scope.getDevice());
+            return Unit.INSTANCE;
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.camerapromax.benchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+import java.io.IOException;
+import java.util.Collections;
+import kotlin.Unit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Прокрутка галереи: длительность кадров ({@code frameDurationCpuMs}, {@code frameOverrunMs})
+ * во время нескольких быстрых флингов вниз и обратно.
+ * <p>
+ * В сборке benchmark галерея читает синтетическую коллекцию {@code FakeMediaStoreProvider},
+ * которая перед каждой итерацией пересоздается с одними и теми же 50 000 строк.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class GalleryFlingBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final int FLINGS = 5;
+    private static final int ROWS = 50_000;
+    private static final long TIMEOUT_MS = 5_000;
+
+    @Rule
+    public final MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void fling() {
+        benchmarkRule.measureRepeated(
+                StartupBenchmark.PACKAGE_NAME,
+                Collections.singletonList(new FrameTimingMetric()),
+                new CompilationMode.Partial(),
+                StartupMode.WARM,
+                ITERATIONS,
+                scope -> {
+                    StartupBenchmark.grantCameraPermission(scope.getDevice());
+                    seedMedia(scope.getDevice());
+                    scope.startActivityAndWait();
+                    openGallery(scope.getDevice());
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    UiObject2 list = scope.getDevice().findObject(
+                            By.res(StartupBenchmark.PACKAGE_NAME, "gallery_recyclerview"));
+                    // без отступа жест попадает в системную навигацию
+                    list.setGestureMargin(scope.getDevice().getDisplayWidth() / 5);
+                    for (int i = 0; i < FLINGS; i++) {
+                        list.fling(Direction.DOWN);
+                    }
+                    for (int i = 0; i < FLINGS; i++) {
+                        list.fling(Direction.UP);
+                    }
+                    scope.getDevice().waitForIdle();
+                    return Unit.INSTANCE;
+                });
+    }
+
+    private static void seedMedia(UiDevice device) {
+        try {
+            device.executeShellCommand("content call --uri content://" + StartupBenchmark.PACKAGE_NAME
+                    + ".fakemedia --method seed --extra rows:i:" + ROWS);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot seed fake media", e);
+        }
+    }
+
+    private static void openGallery(UiDevice device) {
+        device.wait(Until.hasObject(By.res(StartupBenchmark.PACKAGE_NAME, "to_gallery_button")), TIMEOUT_MS);
+        device.findObject(By.res(StartupBenchmark.PACKAGE_NAME, "to_gallery_button")).click();
+        device.wait(Until.hasObject(By.res(StartupBenchmark.PACKAGE_NAME, "gallery_recyclerview")), TIMEOUT_MS);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.camerapromax.benchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.Until;
+import java.io.IOException;
+import java.util.Collections;
+import kotlin.Unit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Переключение режимов фото → видео → фото: каждый переход перепривязывает use case CameraX,
+ * поэтому здесь видны и пропущенные кадры UI, и задержка до нового видоискателя.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ModeSwitchBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final int SWITCHES = 3;
+    private static final long TIMEOUT_MS = 5_000;
+
+    @Rule
+    public final MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void photoVideoSwitch() {
+        benchmarkRule.measureRepeated(
+                StartupBenchmark.PACKAGE_NAME,
+                Collections.singletonList(new FrameTimingMetric()),
+                new CompilationMode.Partial(),
+                StartupMode.WARM,
+                ITERATIONS,
+                scope -> {
+                    StartupBenchmark.grantCameraPermission(scope.getDevice());
+                    grantAudioPermission(scope.getDevice());
+                    scope.startActivityAndWait();
+                    StartupBenchmark.awaitPreview(scope.getDevice());
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    UiDevice device = scope.getDevice();
+                    for (int i = 0; i < SWITCHES; i++) {
+                        clickAndWait(device, "to_video_button", "record_button");
+                        clickAndWait(device, "to_photo_button", "capture_button");
+                    }
+                    return Unit.INSTANCE;
+                });
+    }
+
+    private static void clickAndWait(UiDevice device, String button, String expected) {
+        device.findObject(By.res(StartupBenchmark.PACKAGE_NAME, button)).click();
+        device.wait(Until.hasObject(By.res(StartupBenchmark.PACKAGE_NAME, expected)), TIMEOUT_MS);
+        device.waitForIdle();
+    }
+
+    private static void grantAudioPermission(UiDevice device) {
+        try {
+            device.executeShellCommand("pm grant " + StartupBenchmark.PACKAGE_NAME
+                    + " android.permission.RECORD_AUDIO");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot grant audio permission", e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.camerapromax.benchmark;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.filters.LargeTest;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.Until;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import kotlin.Unit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Холодный старт от нажатия на иконку до живого видоискателя.
+ * <p>
+ * {@code timeToInitialDisplayMs} — первый кадр активности, {@code timeToFullDisplayMs} — первый кадр
+ * предпросмотра камеры: его отмечает {@code reportFullyDrawn()} в {@code PhotoFragment}.
+ * Запускается с профилем и без, чтобы был виден вклад baseline-prof.txt:
+ * {@code ./gradlew :benchmark:connectedBenchmarkAndroidTest}.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class StartupBenchmark {
+
+    static final String PACKAGE_NAME = "com.example.camerapromax";
+    private static final int ITERATIONS = 10;
+    private static final long PREVIEW_TIMEOUT_MS = 5_000;
+
+    @Rule
+    public final MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    private final CompilationMode compilationMode;
+
+    public StartupBenchmark(CompilationMode compilationMode) {
+        this.compilationMode = compilationMode;
+    }
+
+    /**
+     * Режимы компиляции: без AOT и с обязательным baseline-профилем.
+     *
+     * @return Параметры теста.
+     */
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> compilationModes() {
+        return Arrays.asList(new Object[][]{
+                {new CompilationMode.None()},
+                {new CompilationMode.Partial(BaselineProfileMode.Require)},
+        });
+    }
+
+    @Test
+    public void coldStartToPreview() {
+        benchmarkRule.measureRepeated(
+                PACKAGE_NAME,
+                Collections.singletonList(new StartupTimingMetric()),
+                compilationMode,
+                StartupMode.COLD,
+                ITERATIONS,
+                scope -> {
+                    grantCameraPermission(scope.getDevice());
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait();
+                    awaitPreview(scope.getDevice());
+                    return Unit.INSTANCE;
+                });
+    }
+
+    /**
+     * Выдает разрешение на камеру: без него вместо видоискателя появится системный диалог.
+     */
+    static void grantCameraPermission(UiDevice device) {
+        try {
+            device.executeShellCommand("pm grant " + PACKAGE_NAME + " android.permission.CAMERA");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot grant camera permission", e);
+        }
+    }
+
+    /**
+     * Ждет, пока на экране появится видоискатель и приложение успеет сообщить о первом кадре.
+     */
+    static void awaitPreview(UiDevice device) {
+        device.wait(Until.hasObject(By.res(PACKAGE_NAME, "previewView")), PREVIEW_TIMEOUT_MS);
+        device.waitForIdle();
+    }
+}